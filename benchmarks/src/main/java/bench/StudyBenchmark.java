@@ -0,0 +1,71 @@
+package bench;
+
+import java.lang.reflect.*;
+import java.nio.file.*;
+import java.util.concurrent.*;
+
+import org.openjdk.jmh.annotations.*;
+
+/**
+ * The scalability study of APriori and PCY as a JMH benchmark. Each
+ * invocation is one round of runStudy: both passes (and PCY's bitmap) over
+ * the given percentage of the dataset at the given support. Sweeping the
+ * fraction gives the scaling curve of each engine, and running with the gc
+ * profiler (see StudyRunner) adds the allocation rate per round.
+ *
+ * The engines live in the unnamed package, which code in a named package
+ * (as JMH requires) cannot refer to, so they are created and called
+ * through their public runRound method by reflection. The lookup happens
+ * once per trial, outside the measured code.
+ *
+ * The dataset defaults to src/retail.txt under the working directory and
+ * can be changed with -Ddataset=path (pass it with -jvmArgs).
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StudyBenchmark {
+
+	@Param({ "APriori", "PCY" })
+	public String engine;
+
+	// The same sweep as runStudy: 100%, 90%, ..., 10%, 5%, 1% of the baskets
+	@Param({ "100", "90", "80", "70", "60", "50", "40", "30", "20", "10", "5", "1" })
+	public int fraction;
+
+	@Param({ "0.01", "0.02" })
+	public double support;
+
+	private Object instance;
+	private Method runRound;
+	private String dataset;
+
+	@Setup(Level.Trial)
+	public void setUp() throws Exception {
+		dataset = datasetPath();
+		instance = Class.forName(engine).getConstructor().newInstance();
+		runRound = instance.getClass().getMethod("runRound", String.class, double.class, int.class);
+
+		// The first round reads the whole dataset to learn its size, as in runStudy
+		runRound.invoke(instance, dataset, support, 100);
+	}
+
+	@Benchmark
+	public int round() throws Exception {
+		return (Integer) runRound.invoke(instance, dataset, support, fraction);
+	}
+
+	static String datasetPath() {
+		String fp = System.getProperty("dataset");
+		if (fp != null)
+			return fp;
+		Path here = Paths.get(System.getProperty("user.dir"));
+		Path retail = here.resolve(Paths.get("src", "retail.txt"));
+		if (!Files.exists(retail) && here.getParent() != null)
+			retail = here.getParent().resolve(Paths.get("src", "retail.txt"));	// run from benchmarks/
+		return retail.toString();
+	}
+}
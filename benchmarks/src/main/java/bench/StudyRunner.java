@@ -0,0 +1,68 @@
+package bench;
+
+import java.util.*;
+
+import org.openjdk.jmh.infra.*;
+import org.openjdk.jmh.profile.*;
+import org.openjdk.jmh.results.*;
+import org.openjdk.jmh.results.format.*;
+import org.openjdk.jmh.runner.*;
+import org.openjdk.jmh.runner.options.*;
+
+/**
+ * Runs StudyBenchmark with the gc profiler, writes the raw results as JSON
+ * to jmh-result.json, and prints the scaling curve of each engine and
+ * support: rounds per second and milliseconds per round at every dataset
+ * fraction, with the time per round relative to the 100% round. A linear
+ * engine reads about fraction / 100 there; a regression shows up as a
+ * drop in rounds per second or a bend in that column.
+ *
+ * Any arguments are passed on to JMH, so the usual options still work,
+ * eg. -p engine=PCY -p support=0.01 to run part of the sweep.
+ */
+public class StudyRunner {
+
+	public static void main(String[] args) throws Exception {
+		Options options = new OptionsBuilder()
+				.parent(new CommandLineOptions(args))
+				.include(StudyBenchmark.class.getSimpleName())
+				.addProfiler(GCProfiler.class)
+				.resultFormat(ResultFormatType.JSON)
+				.result("jmh-result.json")
+				.build();
+		Collection<RunResult> results = new Runner(options).run();
+		printScaling(results);
+	}
+
+	private static void printScaling(Collection<RunResult> results) {
+		// engine and support -> fraction -> rounds per second
+		Map<String, TreeMap<Integer, Double>> curves = new TreeMap<>();
+		Map<String, TreeMap<Integer, Double>> allocation = new TreeMap<>();
+		for (RunResult r : results) {
+			BenchmarkParams params = r.getParams();
+			String key = params.getParam("engine") + " @ support " + params.getParam("support");
+			int fraction = Integer.parseInt(params.getParam("fraction"));
+			curves.computeIfAbsent(key, k -> new TreeMap<>(Comparator.reverseOrder()))
+				  .put(fraction, r.getPrimaryResult().getScore());
+			Result alloc = r.getSecondaryResults().get("gc.alloc.rate.norm");
+			if (alloc != null)
+				allocation.computeIfAbsent(key, k -> new TreeMap<>()).put(fraction, alloc.getScore());
+		}
+
+		for (Map.Entry<String, TreeMap<Integer, Double>> curve : curves.entrySet()) {
+			System.out.println();
+			System.out.println("Scaling of " + curve.getKey());
+			System.out.println(String.format("  %8s %12s %12s %10s %14s", "fraction", "rounds/s", "ms/round",
+											 "vs 100%", "MB alloc/round"));
+			Double full = curve.getValue().get(100);
+			for (Map.Entry<Integer, Double> point : curve.getValue().entrySet()) {
+				double ms = 1000 / point.getValue();
+				String relative = (full == null) ? "-" : String.format("%.3f", full / point.getValue());
+				Double bytes = allocation.getOrDefault(curve.getKey(), new TreeMap<>()).get(point.getKey());
+				String mb = (bytes == null) ? "-" : String.format("%.1f", bytes / (1 << 20));
+				System.out.println(String.format("  %7d%% %12.2f %12.1f %10s %14s", point.getKey(), point.getValue(),
+												 ms, relative, mb));
+			}
+		}
+	}
+}
@@ -22,44 +22,66 @@ public class APriori {
 	// Frequent singletons are those items with a count >= support 
 	private Vector<Integer> freqItems = new Vector<>();
 	
-	// Frequent pairs and their counts are stored using triples implemented by this data structure
-	private Map<Integer, HashMap<Integer, Integer>> freqPairs = new HashMap<>();
+	// Frequent items remapped to dense ranks 0..m-1, built once the frequent items are known
+	private ItemIndex itemIndex;
+	
+	// Candidate pairs and their counts, kept in a triangular matrix or as triples (see PairCounter)
+	private PairCounter freqPairs;
+	
+	// Largest itemset size to mine; above 2, LevelWise continues after the second pass
+	private int maxItemsetSize = 2;
+	
+	// All frequent itemsets of the last run, when maxItemsetSize > 2
+	private FrequentItemsets freqItemsets;
+	
+	// Worker threads for the first and second pass; 1 runs the original single-threaded passes
+	private int threads = 1;
+	
+	// Metrics of the first pass, completed once the frequent items are known (see PassMetrics)
+	private PassMetrics metrics;
+	
+	// The best itemsets in Top-K mode (see TopK), null when mining at a fixed support
+	private TopK topK;
+	
+	// Keep the baskets of the first pass for the later ones (see BasketStore), or read the file again
+	private boolean useStore = Boolean.getBoolean("basketStore");
+	private BasketStore store;
+	private int[] storeRanks;		// store rank -> rank in itemIndex
 	
 	/**
 	 * This method conducts the first pass over the dataset indicated by
 	 * the filepath parameter. It will read each basket and count the 
 	 * occurrence of each individual item and maintain the count in the
 	 * singletons HashMap. During the first pass is when the number of 
-	 * baskets in the dataset is determined.
+	 * baskets in the dataset is determined. Baskets are parsed by a
+	 * BasketReader, on as many threads as configured (see ParallelScan),
+	 * and counted in primitive arrays before they are merged. With the
+	 * basket store on, the workers also keep the distinct baskets with
+	 * their weights, so the later passes need not read the file.
 	 * 
 	 * @param fp	The filepath of the dataset.
 	 * @throws IOException
 	 */
 	private void firstPass(String fp) throws IOException {
-		Path file = Paths.get(fp);
+		ParallelScan scan = new ParallelScan(fp, threads);
+		metrics = PassMetrics.start("APriori", "first");
 		
-		try (InputStream in = Files.newInputStream(file);
-			 BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
-			
-		    String line = null;
-		    String[] tokens;
-		    
-		    while ((line = reader.readLine()) != null && basketCounter <= chuck) {
-		        tokens = line.split(" ");	        
-		        for (int i = 0; i < tokens.length; i++) {
-		        	int item = Integer.parseInt(tokens[i]);
-		        	
-		        	if (singletons.containsKey(item))
-		        		singletons.put(item, singletons.get(item) + 1);
-		        	else
-		        		singletons.put(item, 1);
-		        }
-		        
-		        basketCounter++;	        
-		    }
+		try {
+			for (ParallelScan.ItemCounts worker : scan.scan(basketLimit(),
+					() -> useStore ? new ParallelScan.ItemCounts().keepBaskets() : new ParallelScan.ItemCounts())) {
+				worker.addTo(singletons);
+				if (worker.store() != null) {
+					if (store == null)
+						store = worker.store();
+					else
+						store.addAll(worker.store());
+				}
+			}
 		} catch (IOException x) {
 		    System.err.println(x);
 		}
+		basketCounter = (int) scan.baskets();
+		metrics.scanned(scan).put("distinctItems", singletons.size());
 		
 		if (firstExec)
 			maxBaskets = basketCounter;
@@ -85,6 +107,18 @@ public class APriori {
 			}
 		}
 		
+		// Remap the frequent items to dense ranks so the second pass can count pairs in primitive arrays
+		itemIndex = new ItemIndex(freqItems);
+		
+		// Drop the infrequent items from the stored baskets, now that the support is known
+		if (store != null) {
+			store = store.recode(freqItems, singletons);
+			storeRanks = store.ranksIn(itemIndex);
+			metrics.put("uniqueBaskets", store.size()).put("storeBytes", store.memoryBytes());
+		}
+		
+		metrics.put("support", support).put("frequentItems", freqItems.size()).emit();
+		
 		/* FOR TESTING
 		for (int i = 0; i < freqItems.size(); i++) 
 			System.out.println("index: " + i + ", item: " + freqItems.get(i));
@@ -97,67 +131,192 @@ public class APriori {
 	 * the filepath parameter. It will read each basket and generate pairs
 	 * using a nested for loop. Only pairs with elements that are frequent
 	 * (ie. exist in the frequent item's list) are recorded as candidate 
-	 * pairs using the triples approach, [item1, item2, count]. Repeated
-	 * pairs causes their triples' count to be incremented.
+	 * pairs. Items are looked up by their dense rank in the ItemIndex, and
+	 * pairs are counted in a PairCounter (a triangular matrix, or triples
+	 * when there are too many frequent items). Repeated pairs causes their
+	 * count to be incremented. With several threads, each worker counts its
+	 * part of the file in its own PairCounter and the counters are added up.
+	 * With the basket store on, the pass visits its distinct baskets instead
+	 * of the file, adding each pair once with the basket's weight.
 	 * 
 	 * @param fp	The filepath of the dataset.
 	 * @throws IOException
 	 */
 	private void secondPass(String fp) throws IOException {
-		Path file = Paths.get(fp);
+		ParallelScan scan = new ParallelScan(fp, threads);
+		PassMetrics pass = PassMetrics.start("APriori", "second");
 		
-		try (InputStream in = Files.newInputStream(file);
-			 BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
-			
-		    String line = null;
-		    String[] tokens;
-		    
-		    while ((line = reader.readLine()) != null && basketCounter <= chuck) {
-		        tokens = line.split(" ");
-		        
-		        for (int i = 0; i < tokens.length; i++) {		        	
-		        	for (int j = i+1; j < tokens.length; j++) {
-		        		int p1 = Integer.parseInt(tokens[i]);
-		        		int p2 = Integer.parseInt(tokens[j]);
-		        		
-		        		// Check if each element of the pair is frequent
-		        		if (freqItems.contains(p1) && freqItems.contains(p2)) {
-		        			
-		        			// If the pair exists, increment the count...
-		        			if (freqPairs.containsKey(p1)) {
-		        				if (freqPairs.get(p1).containsKey(p2)) {
-		        					Integer pairCount = freqPairs.get(p1).get(p2);
-		        					freqPairs.get(p1).put(p2, pairCount + 1);
-		        				} else {
-		        					freqPairs.get(p1).put(p2, 1);
-		        				}		        					
-		        			} 
-		        			// Otherwise, create a new triple with a count of 1.
-		        			else
-		        				freqPairs.put(p1, new HashMap<Integer, Integer>(){{put(p2, 1);}});
-		        		}    	
-		        	}
-		        }
-		        basketCounter++;
-		    }
+		try {
+			List<PairWorker> workers = (store != null) ? store.scan(threads, PairWorker::new)
+													   : scan.scan(basketLimit(), PairWorker::new);
+			freqPairs = workers.get(0).pairs;
+			for (int w = 1; w < workers.size(); w++)
+				freqPairs.addAll(workers.get(w).pairs);
 		} catch (IOException x) {
 		    System.err.println(x);
 		}
+		if (store != null) {
+			basketCounter = (int) store.baskets();
+			pass.scanned(store.baskets(), store.memoryBytes());
+		} else {
+			basketCounter = (int) scan.baskets();
+			pass.scanned(scan);
+		}
+		putPairMetrics(pass, freqPairs, support);
+		pass.emit();
 		
 		/* FOR TESTING
-		for (Map.Entry<Integer, HashMap<Integer, Integer>> first : freqPairs.entrySet()) {
-		    Integer i = first.getKey();
-		    for (Map.Entry<Integer, Integer> second : first.getValue().entrySet()) {
-		        Integer j = second.getKey();
-		        Integer c = second.getValue();
-		        
-		        System.out.println("[" + i + ", " + j + ", " + c +"]");
-		    }
-		}
+		freqPairs.forEach((i, j, c) ->
+			System.out.println("[" + itemIndex.item(i) + ", " + itemIndex.item(j) + ", " + c + "]"));
 		System.out.println("...end of pass 2...");
 		*/
 	}
 	
+	/**
+	 * Thread-local state of one secondPass() worker: the frequent items of
+	 * each basket, as dense ranks, and a PairCounter for its pairs.
+	 */
+	private class PairWorker implements BasketHandler, BasketStore.Visitor {
+		private final PairCounter pairs = PairCounter.create(itemIndex.size());
+		private int[] ranks = new int[64];
+		
+		@Override
+		public void basket(int[] items, int n) {
+			if (ranks.length < n)
+				ranks = new int[n];
+			int m = 0;
+			for (int i = 0; i < n; i++) {
+				int r = itemIndex.rank(items[i]);
+				if (r >= 0)
+					ranks[m++] = r;
+			}
+			
+			// Every pair of frequent items is a candidate pair
+			for (int i = 0; i < m; i++)
+				for (int j = i + 1; j < m; j++)
+					pairs.increment(ranks[i], ranks[j]);
+		}
+		
+		@Override
+		public void basket(int[] items, int n, int weight) {
+			for (int i = 0; i < n; i++)
+				for (int j = i + 1; j < n; j++)
+					pairs.add(storeRanks[items[i]], storeRanks[items[j]], weight);
+		}
+	}
+	
+	/**
+	 * Helper method records how many pairs the second pass counted and
+	 * how many of them turned out to be frequent. The candidates that are
+	 * not frequent are the false positives of the pruning: for A Priori,
+	 * pairs of frequent items that are not frequent together; for PCY, the
+	 * pairs that got through the bit vectors anyway.
+	 * 
+	 * @param pass		The metrics of the second pass.
+	 * @param pairs		The counted pairs.
+	 * @param support	The support threshold.
+	 */
+	static void putPairMetrics(PassMetrics pass, PairCounter pairs, int support) {
+		if (pairs == null)
+			return;
+		int[] frequent = { 0 };
+		pairs.forEach((i, j, c) -> {
+			if (c >= support)
+				frequent[0]++;
+		});
+		int candidates = pairs.size();
+		pass.put("pairCounterBytes", pairs.memoryBytes())
+			.put("candidatePairs", candidates).put("frequentPairs", frequent[0])
+			.put("falsePositiveRate", (candidates > 0) ? (double) (candidates - frequent[0]) / candidates : 0.0);
+	}
+	
+	/**
+	 * This method continues the algorithm past pairs. Starting from the
+	 * pairs counted in the second pass, LevelWise generates and counts
+	 * candidate triples, quadruples, ... one pass per level, until a level
+	 * has no candidates or maxItemsetSize is reached.
+	 * 
+	 * @param fp		The filepath of the dataset.
+	 * @param verbose	Whether to print each level, as the study does.
+	 * @throws IOException
+	 */
+	private void higherPasses(String fp, boolean verbose) throws IOException {
+		LevelWise levels = new LevelWise(itemIndex, support, basketLimit(), maxItemsetSize);
+		levels.setTopK(topK);
+		levels.setBasketStore(store);
+		levels.setVerbose(verbose);
+		freqItemsets = levels.run(fp, itemCounts(), freqPairs);
+	}
+	
+	/**
+	 * Helper method gathers the count of each frequent item by its rank.
+	 * 
+	 * @return		The counts, indexed by rank in the ItemIndex.
+	 */
+	private int[] itemCounts() {
+		int[] itemCounts = new int[itemIndex.size()];
+		for (int r = 0; r < itemCounts.length; r++)
+			itemCounts[r] = singletons.get(itemIndex.item(r));
+		return itemCounts;
+	}
+	
+	/**
+	 * Sets the number of worker threads used by the first and second pass.
+	 * With more than one thread, each pass splits the file into byte ranges
+	 * counted in parallel (see ParallelScan); the counts are the same.
+	 * 
+	 * @param n		The number of threads, at least 1.
+	 */
+	public void setThreads(int n) {
+		threads = Math.max(1, n);
+	}
+	
+	/**
+	 * Turns the basket store on or off (it starts as -DbasketStore says).
+	 * When on, the first pass keeps the distinct baskets with their weights,
+	 * recoded to the frequent items once the support is known, and the
+	 * later passes count them instead of reading the file (see BasketStore).
+	 * 
+	 * @param on	True to keep the baskets.
+	 */
+	public void setBasketStore(boolean on) {
+		useStore = on;
+	}
+	
+	/**
+	 * Helper method converts the chuck into the number of baskets a pass
+	 * reads. The sequential passes read while basketCounter <= chuck, so
+	 * that is chuck + 1 baskets, or the whole file on the first execution.
+	 * 
+	 * @return		The number of baskets to read.
+	 */
+	private long basketLimit() {
+		return (chuck == Integer.MAX_VALUE) ? Long.MAX_VALUE : (long) chuck + 1;
+	}
+	
+	/**
+	 * Helper method clears out the previous run's tables.
+	 */
+	private void clearTables() {
+		singletons = null;	singletons = new HashMap<>();
+		freqItems = null;	freqItems = new Vector<>();
+		itemIndex = null;
+		freqPairs = null;
+		freqItemsets = null;
+		store = null;
+		storeRanks = null;
+	}
+	
+	/**
+	 * Sets the largest itemset size the study will mine. The default of 2
+	 * stops after the frequent pairs, as in the original algorithm.
+	 * 
+	 * @param k		The largest itemset size, at least 2.
+	 */
+	public void setMaxItemsetSize(int k) {
+		maxItemsetSize = Math.max(2, k);
+	}
+	
 	/**
 	 * Method sets the chuck of the dataset to be considered, as an integer,
 	 * based on a percentage of the overall dataset size. This method is 
@@ -189,6 +348,39 @@ public class APriori {
 		basketCounter = 0;		// set counter back to zero for second pass
 	}
 	
+	/**
+	 * Method used in Top-K mode immediately after the first pass, in place
+	 * of configSupp. Offers every singleton to the heap, then takes the
+	 * heap's threshold as the support, so the items
+	 * are pruned with it.
+	 */
+	private void configTopK() {
+		int[] item = new int[1];
+		for (Map.Entry<Integer, Integer> entry : singletons.entrySet()) {
+			item[0] = entry.getKey();
+			topK.offer(item, entry.getValue());
+		}
+		support = topK.support();
+		basketCounter = 0;		// set counter back to zero for second pass
+	}
+	
+	/**
+	 * Method used in Top-K mode after the second pass. Offers the pairs
+	 * counted at the current support to the heap and raises the support
+	 * to its threshold for the higher passes.
+	 */
+	private void offerPairs() {
+		int[] pair = new int[2];
+		freqPairs.forEach((i, j, c) -> {
+			if (c >= support) {
+				pair[0] = itemIndex.item(i);
+				pair[1] = itemIndex.item(j);
+				topK.offer(pair, c);
+			}
+		});
+		support = Math.max(support, topK.support());
+	}
+	
 	/**
 	 * This method executes the logic for the scalability study outlined in
 	 * 60-475 Project 1. The user provides a support threshold, as a
@@ -198,7 +390,7 @@ public class APriori {
 	 * @param supp		The support, as a decimal, for the study.
 	 */
 	public void runStudy(double supp) {
-		String fp = System.getProperty("user.dir") + "\\src\\retail.txt";	/* This filepath relates to where Eclipse instantiates
+		String fp = Paths.get(System.getProperty("user.dir"), "src", "retail.txt").toString();	/* This filepath relates to where Eclipse instantiates
 		   																	   the JVM (ie. the root project directory) */
 		int dsize = 100;
 		
@@ -218,28 +410,203 @@ public class APriori {
 			
 			// Only interested in execution time of the algorithmic code.
 			long startTime = System.currentTimeMillis();		
+			int roundBaskets = 0;
 			try {
 				firstPass(fp);
+				roundBaskets = basketCounter;
 				configSupp(supp);		// set support immediately after first pass 
 				makeFreqItemsList();
 				secondPass(fp);
+				if (maxItemsetSize > 2)
+					higherPasses(fp, true);
 			} catch (Exception e) { System.out.println(e); }
 			
 			long endTime = System.currentTimeMillis();
 			long runTime = endTime - startTime;
 			System.out.println("(" + dsize + "% of Data Size: " + maxBaskets + ")");
 			System.out.println("  Runtime: " + runTime + " ms");
-			System.out.println("  Baskets: " + chuck + ", Support: " + support + "\n");
+			System.out.println("  Baskets: " + chuck + ", Support: " + support);
+			System.out.println("  Threads: " + threads + ", Throughput: "
+							   + 2L * roundBaskets * 1000 / Math.max(1, runTime) + " baskets/s\n");
 			
 			// Clear out the previous run's tables
-			singletons = null;	singletons = new HashMap<>();
-			freqItems = null;	freqItems = new Vector<>();
-			freqPairs = null;	freqPairs = new HashMap<>();
+			clearTables();
+		}
+	}
+	
+	/**
+	 * Runs a single round of the study on percentCh percent of the dataset,
+	 * for callers that time the rounds themselves, such as the JMH
+	 * benchmarks. The first call reads the whole dataset to learn its size,
+	 * like the first round of runStudy; later calls read percentCh of it.
+	 * 
+	 * @param fp			The filepath of the dataset.
+	 * @param supp			The support, as a decimal.
+	 * @param percentCh		Percentage of the dataset to use after the first call.
+	 * @return				The number of frequent itemsets of two or more items.
+	 * @throws IOException
+	 */
+	public int runRound(String fp, double supp, int percentCh) throws IOException {
+		if (maxBaskets > 0) {
+			firstExec = false;
+			configNextRound(percentCh);
+		}
+		
+		try {
+			firstPass(fp);
+			configSupp(supp);
+			makeFreqItemsList();
+			secondPass(fp);
+			if (maxItemsetSize > 2) {
+				higherPasses(fp, false);
+				return freqItemsets.size() - itemIndex.size();
+			}
+			int[] frequent = { 0 };
+			freqPairs.forEach((i, j, c) -> {
+				if (c >= support)
+					frequent[0]++;
+			});
+			return frequent[0];
+		} finally {
+			clearTables();
 		}
 	}
 	
+	/**
+	 * Mines the whole dataset once, up to maxItemsetSize, and keeps the
+	 * run's counts (unlike the study, which clears them) so supportIndex()
+	 * can hand them to a RuleGenerator.
+	 * 
+	 * @param fp		The filepath of the dataset.
+	 * @param supp		The support, as a decimal.
+	 * @return			All frequent itemsets, singletons and pairs included.
+	 * @throws IOException
+	 */
+	public FrequentItemsets run(String fp, double supp) throws IOException {
+		clearTables();
+		firstExec = true;
+		chuck = Integer.MAX_VALUE;
+		basketCounter = 0;
+		
+		firstPass(fp);
+		configSupp(supp);
+		makeFreqItemsList();
+		secondPass(fp);
+		higherPasses(fp, false);
+		return freqItemsets;
+	}
+	
+	/**
+	 * Indexes the supports counted by the last run(): the singletons of the
+	 * first pass and the PairCounter of the second pass as they are, and
+	 * the larger itemsets of the higher passes.
+	 * 
+	 * @return		The support index of the last run.
+	 */
+	public SupportIndex supportIndex() {
+		SupportIndex index = new SupportIndex(itemIndex, itemCounts(), freqPairs, maxBaskets);
+		index.addAll(freqItemsets);
+		return index;
+	}
+	
+	/**
+	 * Mines the K itemsets of highest support in the whole dataset, up to
+	 * maxItemsetSize items, instead of those above a support percentage.
+	 * The support starts at the K'th best singleton count and rises after
+	 * every level (see TopK), so each pass prunes with the tightest
+	 * threshold known at the time.
+	 * 
+	 * @param fp		The filepath of the dataset.
+	 * @param k			How many itemsets to return.
+	 * @return			The K best itemsets, singletons included, the highest support first.
+	 * @throws IOException
+	 */
+	public FrequentItemsets runTopK(String fp, int k) throws IOException {
+		clearTables();
+		firstExec = true;
+		chuck = Integer.MAX_VALUE;
+		basketCounter = 0;
+		topK = new TopK(k);
+		
+		try {
+			firstPass(fp);
+			configTopK();
+			makeFreqItemsList();
+			secondPass(fp);
+			offerPairs();
+			if (maxItemsetSize > 2)
+				higherPasses(fp, false);
+			return topK.result();
+		} finally {
+			topK = null;
+			clearTables();
+		}
+	}
+	
+	/**
+	 * This method benchmarks how the passes scale with the number of
+	 * threads. On the full dataset, it runs the first and second pass with
+	 * 1, 2, 4, ... up to maxThreads threads and reports the runtime, the
+	 * throughput in baskets per second and the speedup over one thread.
+	 * 
+	 * @param supp			The support, as a decimal, for the study.
+	 * @param maxThreads	The largest number of threads to try.
+	 */
+	public void runThreadStudy(double supp, int maxThreads) {
+		String fp = Paths.get(System.getProperty("user.dir"), "src", "retail.txt").toString();
+		int saved = threads;
+		long baseTime = 0;
+		
+		// 1, 2, 4, ... and finally maxThreads itself
+		for (int t = 1; t <= maxThreads; t = (t == maxThreads) ? t + 1 : Math.min(t * 2, maxThreads)) {
+			threads = t;
+			firstExec = true;
+			chuck = Integer.MAX_VALUE;
+			basketCounter = 0;
+			
+			long startTime = System.currentTimeMillis();
+			try {
+				firstPass(fp);
+				configSupp(supp);
+				makeFreqItemsList();
+				secondPass(fp);
+			} catch (Exception e) { System.out.println(e); }
+			
+			long runTime = Math.max(1, System.currentTimeMillis() - startTime);
+			if (t == 1)
+				baseTime = runTime;
+			System.out.println("(" + t + " threads, Data Size: " + maxBaskets + ")");
+			System.out.println("  Runtime: " + runTime + " ms");
+			System.out.println("  Throughput: " + 2L * maxBaskets * 1000 / runTime + " baskets/s"
+							   + ", Speedup: " + String.format("%.2f", (double) baseTime / runTime) + "x\n");
+			
+			clearTables();
+		}
+		threads = saved;
+	}
+	
 	public static void main(String[] args) {
+		// Optional arguments: the largest itemset size to mine (default 2, pairs), number of threads
 		APriori ap = new APriori();
+		if (args.length > 0)
+			ap.setMaxItemsetSize(Integer.parseInt(args[0]));
+		if (args.length > 1)
+			ap.setThreads(Integer.parseInt(args[1]));
+		if (Integer.getInteger("topK") != null) {		// -DtopK=K mines the K best itemsets instead of the study
+			String fp = Paths.get(System.getProperty("user.dir"), "src", "retail.txt").toString();
+			try {
+				long startTime = System.currentTimeMillis();
+				FrequentItemsets top = ap.runTopK(fp, Integer.getInteger("topK"));
+				long runTime = System.currentTimeMillis() - startTime;
+				System.out.println("Top " + top.size() + " itemsets, Runtime: " + runTime + " ms");
+				top.print(System.out);
+			} catch (IOException x) {
+			    System.err.println(x);
+			}
+			return;
+		}
 		ap.runStudy(0.10);				// specify a support percent
+		if (args.length > 1)
+			ap.runThreadStudy(0.10, Integer.parseInt(args[1]));
 	}
 }
@@ -0,0 +1,325 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * A binary copy of a text dataset in CSR (compressed sparse row) layout,
+ * so repeated passes and repeated runs skip parsing altogether. The cache
+ * lives next to the dataset as <dataset>.csr and holds:
+ *   - a header: magic, version, the size and modification time of the
+ *     text file it was built from, the number of baskets, the number of
+ *     distinct items, the largest item and the total number of items,
+ *   - offsets, one long per basket plus one: basket b holds the items
+ *     offsets[b] up to offsets[b + 1],
+ *   - items, every basket's items back to back as ints, in file order.
+ *
+ * Everything is little-endian and fixed width, so a range of baskets is
+ * read with one mapping and a bulk copy into the handler's int[].
+ *
+ * BasketReader and ParallelScan pick the cache up automatically whenever
+ * it matches the dataset. If the dataset's size or modification time has
+ * changed since the cache was built, the cache is deleted and the text
+ * file is parsed as before. A compressed dataset is decompressed once,
+ * when the cache is built. Build it once with:
+ *   java BasketCache <dataset>
+ */
+public class BasketCache {
+
+	private static final int MAGIC = 0x31525343;		// "CSR1", little-endian
+	private static final int VERSION = 1;
+	private static final int HEADER = 48;				// bytes
+	private static final int BATCH = 1 << 16;			// baskets mapped at a time
+
+	private final Path file;
+	private final long baskets;
+	private final int distinctItems;
+	private final int maxItem;
+	private final long totalItems;
+
+	private BasketCache(Path file, long baskets, int distinctItems, int maxItem, long totalItems) {
+		this.file = file;
+		this.baskets = baskets;
+		this.distinctItems = distinctItems;
+		this.maxItem = maxItem;
+		this.totalItems = totalItems;
+	}
+
+	/**
+	 * @return		The path of the cache belonging to a dataset.
+	 */
+	public static Path cachePath(String fp) {
+		return Paths.get(fp + ".csr");
+	}
+
+	/**
+	 * Opens the cache of a dataset if there is one and it is up to date.
+	 * A stale cache (the dataset's size or modification time changed) is
+	 * deleted.
+	 *
+	 * @param fp	The filepath of the text dataset.
+	 * @return		The cache, or null if the text file must be parsed.
+	 */
+	public static BasketCache open(String fp) {
+		Path cache = cachePath(fp);
+		if (!Files.isRegularFile(cache))
+			return null;
+
+		try (FileChannel ch = FileChannel.open(cache, StandardOpenOption.READ)) {
+			ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+			while (header.hasRemaining() && ch.read(header) >= 0)
+				;
+			header.flip();
+			if (header.remaining() < HEADER || header.getInt() != MAGIC || header.getInt() != VERSION)
+				return invalidate(cache);
+
+			Path source = Paths.get(fp);
+			long size = header.getLong(), mtime = header.getLong();
+			if (Files.size(source) != size || Files.getLastModifiedTime(source).toMillis() != mtime)
+				return invalidate(cache);
+
+			long baskets = header.getLong();
+			int distinct = header.getInt();
+			int maxItem = header.getInt();
+			long total = header.getLong();
+			if (ch.size() != HEADER + 8 * (baskets + 1) + 4 * total)
+				return invalidate(cache);
+			return new BasketCache(cache, baskets, distinct, maxItem, total);
+		} catch (IOException x) {
+			System.err.println(x);
+			return null;
+		}
+	}
+
+	private static BasketCache invalidate(Path cache) {
+		try {
+			Files.deleteIfExists(cache);
+		} catch (IOException x) {
+			System.err.println(x);
+		}
+		return null;
+	}
+
+	/**
+	 * Converts a text dataset into its cache, replacing any previous one.
+	 *
+	 * @param fp	The filepath of the text dataset.
+	 * @return		The new cache.
+	 * @throws IOException
+	 */
+	public static BasketCache build(String fp) throws IOException {
+		Path source = Paths.get(fp);
+		long size = Files.size(source);
+		long mtime = Files.getLastModifiedTime(source).toMillis();
+		Path cache = cachePath(fp);
+		Path offsetsTmp = Paths.get(cache + ".offsets.tmp");
+		Path itemsTmp = Paths.get(cache + ".items.tmp");
+
+		Writer w = new Writer(offsetsTmp, itemsTmp);
+		long baskets;
+		try {
+			baskets = parse(fp, w);
+			w.close();
+
+			Path out = Paths.get(cache + ".tmp");
+			try (FileChannel dst = FileChannel.open(out, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+													StandardOpenOption.TRUNCATE_EXISTING)) {
+				ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+				header.putInt(MAGIC).putInt(VERSION).putLong(size).putLong(mtime).putLong(baskets)
+					  .putInt(w.distinct()).putInt(w.maxItem).putLong(w.total);
+				header.flip();
+				while (header.hasRemaining())
+					dst.write(header);
+				append(dst, offsetsTmp);
+				append(dst, itemsTmp);
+			}
+			Files.move(out, cache, StandardCopyOption.REPLACE_EXISTING);
+		} finally {
+			w.close();
+			Files.deleteIfExists(offsetsTmp);
+			Files.deleteIfExists(itemsTmp);
+		}
+		return new BasketCache(cache, baskets, w.distinct(), w.maxItem, w.total);
+	}
+
+	// Parses the dataset directly (decompressing it if need be), never through a (possibly stale) cache
+	private static long parse(String fp, BasketHandler h) throws IOException {
+		return BasketReader.readSource(fp, Long.MAX_VALUE, h, null);
+	}
+
+	private static void append(FileChannel dst, Path src) throws IOException {
+		try (FileChannel in = FileChannel.open(src, StandardOpenOption.READ)) {
+			long pos = 0, size = in.size();
+			while (pos < size)
+				pos += in.transferTo(pos, size - pos, dst);
+		}
+	}
+
+	/**
+	 * Streams baskets into two temporary files, the offsets and the items,
+	 * which build() then joins behind the header.
+	 */
+	private static class Writer implements BasketHandler {
+		private final OutputStream offsets, items;
+		private final ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+		private final BitSet seen = new BitSet();
+		private Set<Integer> seenOther;			// negative items, hopefully never
+		private int maxItem = Integer.MIN_VALUE;
+		private long total = 0;
+		private boolean closed = false;
+
+		Writer(Path offsetsFile, Path itemsFile) throws IOException {
+			offsets = new BufferedOutputStream(Files.newOutputStream(offsetsFile), 1 << 16);
+			items = new BufferedOutputStream(Files.newOutputStream(itemsFile), 1 << 16);
+			writeLong(0);
+		}
+
+		@Override
+		public void basket(int[] basket, int n) {
+			try {
+				for (int i = 0; i < n; i++) {
+					int item = basket[i];
+					if (item >= 0)
+						seen.set(item);
+					else {
+						if (seenOther == null)
+							seenOther = new HashSet<>();
+						seenOther.add(item);
+					}
+					maxItem = Math.max(maxItem, item);
+
+					buf.clear();
+					buf.putInt(item);
+					items.write(buf.array(), 0, 4);
+				}
+				total += n;
+				writeLong(total);
+			} catch (IOException x) {
+				throw new UncheckedIOException(x);
+			}
+		}
+
+		private void writeLong(long v) throws IOException {
+			buf.clear();
+			buf.putLong(v);
+			offsets.write(buf.array(), 0, 8);
+		}
+
+		int distinct() {
+			return seen.cardinality() + (seenOther == null ? 0 : seenOther.size());
+		}
+
+		void close() throws IOException {
+			if (closed)
+				return;
+			closed = true;
+			offsets.close();
+			items.close();
+		}
+	}
+
+	/**
+	 * Reads the first limit baskets.
+	 *
+	 * @return		The number of baskets read.
+	 */
+	public long read(long limit, BasketHandler h) throws IOException {
+		return read(0, Math.min(limit, baskets), h);
+	}
+
+	/**
+	 * Reads the baskets [from, to), a batch of baskets per mapping.
+	 *
+	 * @return		The number of baskets read.
+	 */
+	long read(long from, long to, BasketHandler h) throws IOException {
+		int[] basket = new int[64];
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			for (long b = from; b < to; b += BATCH) {
+				int n = (int) Math.min(BATCH, to - b);
+				LongBuffer offsets = ch.map(FileChannel.MapMode.READ_ONLY, HEADER + 8 * b, 8L * (n + 1))
+									   .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+				long first = offsets.get(0);
+				IntBuffer items = ch.map(FileChannel.MapMode.READ_ONLY, itemsStart() + 4 * first,
+										 4 * (offsets.get(n) - first))
+									.order(ByteOrder.LITTLE_ENDIAN).asIntBuffer();
+
+				for (int k = 0; k < n; k++) {
+					int len = (int) (offsets.get(k + 1) - offsets.get(k));
+					if (len > basket.length)
+						basket = new int[Math.max(len, basket.length * 2)];
+					items.get(basket, 0, len);
+					h.basket(basket, len);
+				}
+			}
+		}
+		return Math.max(0, to - from);
+	}
+
+	/**
+	 * @return		The bytes of the cache holding the baskets [from, to):
+	 * 				their offsets and their items.
+	 */
+	long bytes(long from, long to) throws IOException {
+		if (to <= from)
+			return 0;
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			return 8 * (to - from + 1) + 4 * (offset(ch, to) - offset(ch, from));
+		}
+	}
+
+	private static long offset(FileChannel ch, long b) throws IOException {
+		ByteBuffer buf = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+		long pos = HEADER + 8 * b;
+		while (buf.hasRemaining() && ch.read(buf, pos + buf.position()) >= 0)
+			;
+		return buf.getLong(0);
+	}
+
+	private long itemsStart() {
+		return HEADER + 8 * (baskets + 1);
+	}
+
+	/**
+	 * @return		The number of baskets in the dataset.
+	 */
+	public long baskets() {
+		return baskets;
+	}
+
+	/**
+	 * @return		The number of distinct items in the dataset.
+	 */
+	public int distinctItems() {
+		return distinctItems;
+	}
+
+	/**
+	 * @return		The largest item in the dataset.
+	 */
+	public int maxItem() {
+		return maxItem;
+	}
+
+	/**
+	 * @return		The total number of items over all baskets.
+	 */
+	public long totalItems() {
+		return totalItems;
+	}
+
+	public static void main(String[] args) {
+		String fp = (args.length > 0) ? args[0]
+									  : Paths.get(System.getProperty("user.dir"), "src", "retail.txt").toString();
+		try {
+			long startTime = System.currentTimeMillis();
+			BasketCache cache = build(fp);
+			System.out.println("Wrote " + cachePath(fp) + " in " + (System.currentTimeMillis() - startTime) + " ms");
+			System.out.println("  Baskets: " + cache.baskets() + ", Distinct items: " + cache.distinctItems()
+							   + ", Items: " + cache.totalItems());
+		} catch (IOException x) {
+			System.err.println(x);
+		}
+	}
+}
@@ -0,0 +1,13 @@
+/**
+ * Callback receiving the baskets of a pass one at a time, already parsed
+ * into item identifiers. The array is reused for the next basket, so a
+ * handler must copy anything it wants to keep.
+ */
+public interface BasketHandler {
+
+	/**
+	 * @param items		The items of the basket, in file order.
+	 * @param n			How many entries of items are in use.
+	 */
+	void basket(int[] items, int n);
+}
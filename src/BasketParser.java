@@ -0,0 +1,137 @@
+import java.nio.*;
+import java.util.*;
+
+/**
+ * The byte-level basket parser shared by every input: memory-mapped text
+ * (BasketReader) and decompressed streams (CompressedInput). Bytes are fed
+ * in buffers of any size; a basket may span two buffers. Items are parsed
+ * into one reusable int[] handed to the BasketHandler at each '\n'.
+ *
+ * Items are runs of digits (optionally preceded by '-'); every other byte
+ * separates them, so spaces, tabs, commas, quotes and '\r' all work. The
+ * format only decides which lines are not baskets:
+ *   - PLAIN skips nothing (a blank line is an empty basket),
+ *   - CSV skips a header: a first line of the file holding letters,
+ *   - SPMF skips the lines starting with '#', '%' or '@' (comments and
+ *     metadata such as @CONVERTED_FROM_TEXT or @ITEM=1=bread).
+ */
+final class BasketParser {
+
+	private final BasketHandler h;
+	private final long limit;
+	private final BasketReader.Format format;
+
+	private int[] items = new int[64];
+	private int n = 0, value = 0;
+	private boolean inNumber = false, negative = false, inLine = false;
+	private boolean lineStart = true;		// nothing of the current line seen yet
+	private boolean skipping = false;		// inside a comment line
+	private boolean header;					// the current line is the first of the file
+	private boolean letters = false;		// the header line holds letters
+	private long count = 0;
+
+	/**
+	 * @param h				Receives each basket.
+	 * @param limit			The number of baskets to read (Long.MAX_VALUE for all).
+	 * @param format		Which lines to skip.
+	 * @param fileStart		True if the bytes start at the beginning of the
+	 * 						file, so the first line may be a CSV header.
+	 */
+	BasketParser(BasketHandler h, long limit, BasketReader.Format format, boolean fileStart) {
+		this.h = h;
+		this.limit = limit;
+		this.format = format;
+		this.header = fileStart && format == BasketReader.Format.CSV;
+	}
+
+	/**
+	 * Parses the bytes [from, to) of a buffer, stopping early once limit
+	 * baskets were read.
+	 *
+	 * @return		The index just past the last byte parsed: to, or the
+	 * 				'\n' that ended the limit'th basket, plus one.
+	 */
+	int parse(ByteBuffer buf, int from, int to) {
+		for (int k = from; k < to; k++) {
+			byte b = buf.get(k);
+			if (skipping) {
+				if (b == '\n') {
+					skipping = false;
+					lineStart = true;
+				}
+			} else if (b >= '0' && b <= '9') {
+				value = value * 10 + (b - '0');
+				inNumber = true;
+				inLine = true;
+				lineStart = false;
+			} else if (b == '-') {
+				negative = true;
+				inLine = true;
+				lineStart = false;
+			} else if (lineStart && format == BasketReader.Format.SPMF && (b == '#' || b == '%' || b == '@')) {
+				skipping = true;
+			} else {
+				if (inNumber) {
+					if (n == items.length)
+						items = Arrays.copyOf(items, n * 2);
+					items[n++] = negative ? -value : value;
+				}
+				inNumber = negative = false;
+				value = 0;
+				if (b == '\n') {
+					boolean skip = header && letters;
+					header = false;
+					lineStart = true;
+					inLine = false;
+					if (!skip) {
+						h.basket(items, n);
+						n = 0;
+						if (++count == limit)
+							return k + 1;
+					}
+					n = 0;
+				} else {
+					if (header && ((b | 0x20) >= 'a' && (b | 0x20) <= 'z'))
+						letters = true;
+					inLine = true;
+					lineStart = false;
+				}
+			}
+		}
+		return to;
+	}
+
+	/**
+	 * Ends the input: a last line without a newline is still a basket.
+	 */
+	void finish() {
+		if (skipping || full())
+			return;
+		if (inNumber) {
+			if (n == items.length)
+				items = Arrays.copyOf(items, n * 2);
+			items[n++] = negative ? -value : value;
+			inNumber = false;
+		}
+		if (inLine && !(header && letters)) {
+			h.basket(items, n);
+			count++;
+		}
+		n = 0;
+		inLine = false;
+	}
+
+	/**
+	 * @return		True once limit baskets were read.
+	 */
+	boolean full() {
+		return count >= limit;
+	}
+
+	/**
+	 * @return		The number of baskets read so far.
+	 */
+	long count() {
+		return count;
+	}
+}
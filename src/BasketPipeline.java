@@ -0,0 +1,280 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.*;
+
+/**
+ * A pass over the dataset as a pipeline of stages on their own threads,
+ * so reading, parsing and counting overlap instead of taking turns:
+ *   1. read   - a background thread reads (or decompresses) the file into
+ *               a few reused 1 MB chunks (see CompressedInput),
+ *   2. parse  - the calling thread parses the chunks with a BasketParser
+ *               and copies the baskets into batches,
+ *   3. count  - one or more counting threads hand each basket of a batch
+ *               to their own BasketHandler, exactly as ParallelScan's
+ *               workers, so their counts are merged the same way.
+ *
+ * Batches go from the parser to the counters through a ring of SLOTS
+ * preallocated batches whose arrays are reused. When every slot is full
+ * the parser waits for a counter to release one (back-pressure); when
+ * the ring is empty the counters wait. Each stage records how long it
+ * stalled waiting for input and for room downstream, and how deep the
+ * queue in front of it was, so the metrics show which stage limits the
+ * throughput: the one that hardly ever waits.
+ */
+final class BasketPipeline {
+
+	private static final int SLOTS = 16;			// batches in the ring
+	private static final int BATCH = 1024;			// baskets per batch
+
+	/**
+	 * The stall and queue figures of one stage. Stages update them from
+	 * their own threads, hence the synchronization.
+	 */
+	static final class Stage {
+		final String name;
+		private long units = 0;				// chunks or batches taken in
+		private long waitInNanos = 0;		// starved: waiting for input
+		private long waitOutNanos = 0;		// back-pressured: waiting for room downstream
+		private long depthSum = 0;			// queue depth in front of the stage, summed over takes
+		private int maxDepth = 0;
+
+		Stage(String name) {
+			this.name = name;
+		}
+
+		synchronized void took(int depth, long waitNanos) {
+			units++;
+			depthSum += depth;
+			maxDepth = Math.max(maxDepth, depth);
+			waitInNanos += waitNanos;
+		}
+
+		synchronized void blocked(long waitNanos) {
+			waitOutNanos += waitNanos;
+		}
+
+		// The reader has no queue in front of it, only its wait for free chunks
+		synchronized void putTo(PassMetrics pass) {
+			if (units > 0)
+				pass.put(name + "WaitInMs", waitInNanos / 1000000)
+					.put(name + "QueueDepth", (double) depthSum / units).put(name + "QueueMax", maxDepth);
+			pass.put(name + "WaitOutMs", waitOutNanos / 1000000);
+		}
+	}
+
+	/**
+	 * One batch of baskets, back to back in items; basket b ends at ends[b].
+	 */
+	private static final class Batch {
+		final int slot;
+		int[] items = new int[16 * BATCH];
+		final int[] ends = new int[BATCH];
+		int baskets = 0;
+		int used = 0;
+
+		Batch(int slot) {
+			this.slot = slot;
+		}
+	}
+
+	private final String fp;
+	private final CompressedInput.Kind kind;
+	private final Stage read = new Stage("read");
+	private final Stage parse = new Stage("parse");
+	private final Stage count = new Stage("count");
+
+	private final Batch[] ring = new Batch[SLOTS];
+	private final boolean[] busy = new boolean[SLOTS];		// filled or being counted, not yet released
+	private long head = 0;				// the next slot the parser publishes
+	private long tail = 0;				// the next slot a counter takes
+	private boolean closed = false;		// the parser is done
+	private final Lock lock = new ReentrantLock();
+	private final Condition notFull = lock.newCondition();
+	private final Condition notEmpty = lock.newCondition();
+
+	// The first error of a counting thread; the others drain the ring so the parser never blocks
+	private volatile Throwable error;
+
+	/**
+	 * @param fp		The filepath of the dataset.
+	 * @param kind		Its compression, NONE for plain text.
+	 */
+	BasketPipeline(String fp, CompressedInput.Kind kind) {
+		this.fp = fp;
+		this.kind = kind;
+		for (int s = 0; s < SLOTS; s++)
+			ring[s] = new Batch(s);
+	}
+
+	/**
+	 * Runs the pass: reads and parses the first limit baskets on this
+	 * thread and its reader, and counts them on one thread per worker.
+	 *
+	 * @param limit		The number of baskets to read (Long.MAX_VALUE for all).
+	 * @param workers	The handlers of the counting threads.
+	 * @param stop		If not null, stop[0] receives the bytes of text parsed.
+	 * @return			The number of baskets read.
+	 * @throws IOException
+	 */
+	long run(long limit, List<? extends BasketHandler> workers, long[] stop) throws IOException {
+		ExecutorService pool = Executors.newFixedThreadPool(workers.size(), r -> {
+			Thread t = new Thread(r, "basket-counter");
+			t.setDaemon(true);
+			return t;
+		});
+		List<Future<?>> counters = new ArrayList<>();
+		for (BasketHandler worker : workers)
+			counters.add(pool.submit(() -> count(worker)));
+
+		try {
+			Batcher batcher = new Batcher();
+			long baskets = CompressedInput.read(fp, kind, BasketReader.Format.of(fp), limit, batcher, stop, read, parse);
+			batcher.flush();
+			return baskets;
+		} finally {
+			close();
+			try {
+				for (Future<?> f : counters)
+					f.get();
+			} catch (InterruptedException | ExecutionException x) {
+				throw new IOException(x);
+			} finally {
+				pool.shutdown();
+			}
+			if (error != null)
+				throw new IOException("A counting stage failed", error);
+		}
+	}
+
+	/**
+	 * The parse stage's handler: copies each basket into the batch being
+	 * filled and publishes it when it is full.
+	 */
+	private class Batcher implements BasketHandler {
+		private Batch batch;
+
+		@Override
+		public void basket(int[] items, int n) {
+			if (batch != null && (batch.baskets == BATCH || batch.used + n > batch.items.length)) {
+				publish(batch);
+				batch = null;
+			}
+			if (batch == null)
+				batch = claim();
+			if (n > batch.items.length)
+				batch.items = new int[n];		// kept for the next use of the slot
+			System.arraycopy(items, 0, batch.items, batch.used, n);
+			batch.used += n;
+			batch.ends[batch.baskets++] = batch.used;
+		}
+
+		void flush() {
+			if (batch != null && batch.baskets > 0)
+				publish(batch);
+			batch = null;
+		}
+	}
+
+	// Waits for the slot at head to be released, and hands it to the parser empty
+	private Batch claim() {
+		lock.lock();
+		try {
+			int slot = (int) (head % SLOTS);
+			if (busy[slot]) {
+				long start = System.nanoTime();
+				while (busy[slot])
+					notFull.awaitUninterruptibly();
+				parse.blocked(System.nanoTime() - start);
+			}
+			busy[slot] = true;
+			Batch batch = ring[slot];
+			batch.baskets = 0;
+			batch.used = 0;
+			return batch;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void publish(Batch batch) {
+		lock.lock();
+		try {
+			head++;
+			notEmpty.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	// The next batch for a counter, or null once the parser is done and the ring is empty
+	private Batch take() {
+		lock.lock();
+		try {
+			long start = System.nanoTime();
+			while (tail == head && !closed)
+				notEmpty.awaitUninterruptibly();
+			if (tail == head)
+				return null;
+			count.took((int) (head - tail), System.nanoTime() - start);
+			return ring[(int) (tail++ % SLOTS)];
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void release(Batch batch) {
+		lock.lock();
+		try {
+			busy[batch.slot] = false;
+			notFull.signal();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	private void close() {
+		lock.lock();
+		try {
+			closed = true;
+			notEmpty.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * The loop of a counting thread. Baskets are copied out of the batch
+	 * so the handler sees them from index 0, as with every other reader.
+	 */
+	private void count(BasketHandler h) {
+		int[] basket = new int[64];
+		for (Batch batch = take(); batch != null; batch = take()) {
+			if (error == null) {
+				try {
+					for (int b = 0, start = 0; b < batch.baskets; start = batch.ends[b++]) {
+						int n = batch.ends[b] - start;
+						if (basket.length < n)
+							basket = new int[n];
+						System.arraycopy(batch.items, start, basket, 0, n);
+						h.basket(basket, n);
+					}
+				} catch (RuntimeException | Error x) {
+					error = x;
+				}
+			}
+			release(batch);
+		}
+	}
+
+	/**
+	 * Records the stall and queue figures of every stage.
+	 *
+	 * @param pass		The metrics of the pass.
+	 */
+	void putMetrics(PassMetrics pass) {
+		read.putTo(pass);
+		parse.putTo(pass);
+		count.putTo(pass);
+	}
+}
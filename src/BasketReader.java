@@ -0,0 +1,197 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Reads baskets straight from a memory-mapped file. Items are parsed as
+ * ASCII integers from the mapped bytes into one reusable int[], which is
+ * handed to a BasketHandler, so a pass allocates nothing per basket (no
+ * String per line, no String[] from split, no Integer.parseInt).
+ *
+ * Items are runs of digits (optionally preceded by '-') separated by
+ * spaces, tabs or '\r', and each '\n' ends a basket, so trailing spaces
+ * and CRLF line endings are both fine. A last line without a newline is
+ * still a basket. Files larger than 2 GB are mapped one window at a time.
+ * The parsing itself is done by a BasketParser, which also understands
+ * CSV and SPMF files (see Format).
+ *
+ * A dataset with an up-to-date BasketCache is read from the cache instead,
+ * and a compressed one is streamed through CompressedInput.
+ */
+public class BasketReader {
+
+	private static final long WINDOW = 1L << 30;		// Bytes mapped at a time
+
+	/**
+	 * The text formats a dataset may be in, see BasketParser. All of them
+	 * hold one basket per line; they differ in the lines that are not
+	 * baskets.
+	 */
+	public enum Format {
+		PLAIN, CSV, SPMF;
+
+		/**
+		 * Picks the format of a dataset: the system property "format" if
+		 * set, else the extension (before any .gz or .zst), .csv for CSV
+		 * and .spmf for SPMF, else PLAIN.
+		 *
+		 * @param fp	The filepath of the dataset.
+		 * @return		Its format.
+		 */
+		public static Format of(String fp) {
+			String forced = System.getProperty("format");
+			if (forced != null && !forced.isEmpty())
+				return valueOf(forced.toUpperCase(Locale.ROOT));
+			String name = fp.toLowerCase(Locale.ROOT).replaceAll("\\.(gz|bgz|zst)$", "");
+			if (name.endsWith(".csv"))
+				return CSV;
+			if (name.endsWith(".spmf"))
+				return SPMF;
+			return PLAIN;
+		}
+	}
+
+	/**
+	 * Reads the first limit baskets of a dataset, from its BasketCache
+	 * when an up-to-date one exists. Compressed datasets (gzip, BGZF or
+	 * zstd) are decompressed on the fly, see CompressedInput.
+	 *
+	 * @param fp		The filepath of the dataset.
+	 * @param limit		The number of baskets to read (Long.MAX_VALUE for all).
+	 * @param h			Receives each basket.
+	 * @return			The number of baskets read.
+	 * @throws IOException
+	 */
+	public static long read(String fp, long limit, BasketHandler h) throws IOException {
+		BasketCache cache = BasketCache.open(fp);
+		if (cache != null)
+			return cache.read(limit, h);
+		return readSource(fp, limit, h, null);
+	}
+
+	/**
+	 * Reads the dataset itself, never its cache.
+	 *
+	 * @param stop		If not null, stop[0] receives the bytes of text parsed.
+	 * @return			The number of baskets read.
+	 */
+	static long readSource(String fp, long limit, BasketHandler h, long[] stop) throws IOException {
+		Format format = Format.of(fp);
+		CompressedInput.Kind kind = CompressedInput.detect(fp);
+		if (kind != CompressedInput.Kind.NONE)
+			return CompressedInput.read(fp, kind, format, limit, h, stop);
+
+		try (FileChannel ch = FileChannel.open(Paths.get(fp), StandardOpenOption.READ)) {
+			return read(ch, 0, ch.size(), limit, h, stop, format);
+		}
+	}
+
+	/**
+	 * Reads the baskets in the byte range [start, end), stopping early
+	 * after limit baskets. The range must start at the beginning of a line.
+	 *
+	 * @return		The number of baskets read.
+	 */
+	static long read(FileChannel ch, long start, long end, long limit, BasketHandler h) throws IOException {
+		return read(ch, start, end, limit, h, null, Format.PLAIN);
+	}
+
+	/**
+	 * Same as above, for a given format, and also reports where the read
+	 * stopped.
+	 *
+	 * @param stop		If not null, stop[0] receives the offset just past
+	 * 					the last basket read.
+	 * @return			The number of baskets read.
+	 */
+	static long read(FileChannel ch, long start, long end, long limit, BasketHandler h, long[] stop, Format format)
+			throws IOException {
+		BasketParser parser = new BasketParser(h, limit, format, start == 0);
+		if (stop != null)
+			stop[0] = end;
+
+		for (long base = start; base < end && !parser.full(); base += WINDOW) {
+			MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, base, Math.min(WINDOW, end - base));
+			int k = parser.parse(map, 0, map.limit());
+			if (parser.full()) {
+				if (stop != null)
+					stop[0] = base + k;
+				return parser.count();
+			}
+		}
+		parser.finish();
+		return parser.count();
+	}
+
+	/**
+	 * Counts the baskets of a dataset without parsing them: the cache
+	 * knows its count, otherwise the newlines are counted, plus a last
+	 * line without one.
+	 *
+	 * @param fp		The filepath of the dataset.
+	 * @return			The number of baskets.
+	 * @throws IOException
+	 */
+	public static long countBaskets(String fp) throws IOException {
+		BasketCache cache = BasketCache.open(fp);
+		if (cache != null)
+			return cache.baskets();
+
+		// Compressed data, comments and headers need the parser
+		if (Format.of(fp) != Format.PLAIN || CompressedInput.detect(fp) != CompressedInput.Kind.NONE)
+			return readSource(fp, Long.MAX_VALUE, (items, n) -> { }, null);
+
+		try (FileChannel ch = FileChannel.open(Paths.get(fp), StandardOpenOption.READ)) {
+			long size = ch.size(), lines = 0;
+			byte last = '\n';
+			for (long base = 0; base < size; base += WINDOW) {
+				MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, base, Math.min(WINDOW, size - base));
+				int len = map.limit();
+				for (int k = 0; k < len; k++)
+					if (map.get(k) == '\n')
+						lines++;
+				last = map.get(len - 1);
+			}
+			return (last == '\n') ? lines : lines + 1;
+		}
+	}
+
+	/**
+	 * Finds the byte offset just past the first limit baskets (lines,
+	 * unless the format skips some), or the end of the file if it has fewer.
+	 */
+	static long offsetAfter(FileChannel ch, long limit, Format format) throws IOException {
+		if (format != Format.PLAIN) {
+			long[] stop = new long[1];
+			read(ch, 0, ch.size(), limit, (items, n) -> { }, stop, format);
+			return stop[0];
+		}
+		long size = ch.size(), lines = 0;
+		for (long base = 0; base < size; base += WINDOW) {
+			MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, base, Math.min(WINDOW, size - base));
+			int len = map.limit();
+			for (int k = 0; k < len; k++)
+				if (map.get(k) == '\n' && ++lines == limit)
+					return base + k + 1;
+		}
+		return size;
+	}
+
+	/**
+	 * Finds the offset just past the first newline at or after pos,
+	 * or end if there is none before it.
+	 */
+	static long nextLine(FileChannel ch, long pos, long end) throws IOException {
+		while (pos < end) {
+			MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, pos, Math.min(1 << 16, end - pos));
+			int len = map.limit();
+			for (int k = 0; k < len; k++)
+				if (map.get(k) == '\n')
+					return pos + k + 1;
+			pos += len;
+		}
+		return end;
+	}
+}
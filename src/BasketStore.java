@@ -0,0 +1,280 @@
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * A compressed copy of the baskets of the first pass, so the later passes
+ * count each distinct basket once, with its weight, instead of reading the
+ * file again and enumerating the pairs of every repeated basket:
+ *   - while the first pass reads, each basket is stored once, sorted and
+ *     without repeated items, in a hash table keyed by its contents; a
+ *     basket seen again only adds to the weight of the first copy;
+ *   - once the support is known, recode() replaces the items by dense
+ *     ranks ordered by descending frequency (as FP-Growth orders them),
+ *     drops the infrequent items and the baskets left with fewer than two
+ *     items, which hold no pair, and merges the baskets that became equal.
+ * Baskets are kept back to back in one int[], with their starts and
+ * weights in two more, so a pass over the store is a scan of three arrays.
+ */
+public class BasketStore {
+
+	/**
+	 * Receives the baskets of the store.
+	 */
+	public interface Visitor {
+		/**
+		 * @param items		The items (or ranks, once recoded) of one distinct
+		 * 					basket, sorted and without repeats, in an array
+		 * 					that is reused between calls.
+		 * @param n			How many there are.
+		 * @param weight	How many baskets of the pass it stands for.
+		 */
+		void basket(int[] items, int n, int weight);
+	}
+
+	private int[] items = new int[1 << 12];
+	private int used = 0;
+	private int[] starts = new int[1 << 10];		// basket b is items[starts[b] .. starts[b + 1])
+	private int[] weights = new int[1 << 10];
+	private int[] hashes = new int[1 << 10];
+	private int size = 0;
+	private long baskets = 0;						// baskets of the pass, duplicates and dropped ones included
+
+	// Open-addressing table of basket number + 1 (0 = empty slot)
+	private int[] table = new int[1 << 11];
+
+	// The ranks of a recoded store, null while it holds raw items
+	private ItemIndex itemIndex;
+
+	private int[] scratch = new int[64];
+
+	/**
+	 * Stores a basket, or adds to the weight of its earlier copy.
+	 *
+	 * @param basket	The items, in any order, possibly repeated.
+	 * @param n			How many entries of basket are in use.
+	 * @param weight	How many baskets it stands for.
+	 */
+	public void add(int[] basket, int n, int weight) {
+		baskets += weight;
+		if (scratch.length < n)
+			scratch = new int[Math.max(n, 2 * scratch.length)];
+		System.arraycopy(basket, 0, scratch, 0, n);
+		put(scratch, LevelWise.sortDistinct(scratch, n), weight);
+	}
+
+	// Stores sorted, distinct items without counting them as baskets of the pass
+	private void put(int[] set, int n, int weight) {
+		int h = hash(set, n);
+		int mask = table.length - 1;
+		int slot = h & mask;
+		for (int b; (b = table[slot] - 1) >= 0; slot = (slot + 1) & mask)
+			if (hashes[b] == h && equal(b, set, n)) {
+				weights[b] += weight;
+				return;
+			}
+
+		if (size + 2 > starts.length) {
+			starts = Arrays.copyOf(starts, starts.length * 2);
+			weights = Arrays.copyOf(weights, starts.length);
+			hashes = Arrays.copyOf(hashes, starts.length);
+		}
+		if (used + n > items.length)
+			items = Arrays.copyOf(items, Math.max(items.length * 2, used + n));
+		starts[size] = used;
+		System.arraycopy(set, 0, items, used, n);
+		used += n;
+		starts[size + 1] = used;
+		weights[size] = weight;
+		hashes[size] = h;
+		table[slot] = ++size;
+
+		// Keep the table at most half full
+		if (2 * size > table.length)
+			rehash(table.length * 2);
+	}
+
+	private void rehash(int capacity) {
+		table = new int[capacity];
+		int mask = capacity - 1;
+		for (int b = 0; b < size; b++) {
+			int slot = hashes[b] & mask;
+			while (table[slot] != 0)
+				slot = (slot + 1) & mask;
+			table[slot] = b + 1;
+		}
+	}
+
+	private static int hash(int[] set, int n) {
+		int h = n;
+		for (int i = 0; i < n; i++)
+			h = h * 0x9E3779B1 + set[i];
+		return h ^ (h >>> 16);
+	}
+
+	private boolean equal(int b, int[] set, int n) {
+		int s = starts[b];
+		if (starts[b + 1] - s != n)
+			return false;
+		for (int i = 0; i < n; i++)
+			if (items[s + i] != set[i])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Adds the baskets of another store, used to merge the stores the
+	 * workers of a parallel first pass built.
+	 *
+	 * @param other		A store of raw items.
+	 */
+	public void addAll(BasketStore other) {
+		for (int b = 0; b < other.size; b++) {
+			int n = other.starts[b + 1] - other.starts[b];
+			if (scratch.length < n)
+				scratch = new int[n];
+			System.arraycopy(other.items, other.starts[b], scratch, 0, n);
+			put(scratch, n, other.weights[b]);
+		}
+		baskets += other.baskets;
+	}
+
+	/**
+	 * Recodes the store once the frequent items are known.
+	 *
+	 * @param freqItems		The frequent items.
+	 * @param singletons	The count of every item, to rank them by.
+	 * @return				A store of the ranks of the frequent items,
+	 * 						holding the baskets with two or more of them.
+	 */
+	public BasketStore recode(Collection<Integer> freqItems, Map<Integer, Integer> singletons) {
+		BasketStore out = new BasketStore();
+		out.itemIndex = ItemIndex.byFrequency(freqItems, singletons);
+		out.baskets = baskets;
+		int[] ranks = new int[64];
+		for (int b = 0; b < size; b++) {
+			int m = 0;
+			for (int i = starts[b]; i < starts[b + 1]; i++) {
+				int r = out.itemIndex.rank(items[i]);
+				if (r >= 0) {
+					if (m == ranks.length)
+						ranks = Arrays.copyOf(ranks, m * 2);
+					ranks[m++] = r;
+				}
+			}
+			if (m >= 2) {
+				Arrays.sort(ranks, 0, m);
+				out.put(ranks, m, weights[b]);
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Maps the ranks of this (recoded) store to those of another index of
+	 * the same frequent items, as engines keep their own.
+	 *
+	 * @param other		The engine's ItemIndex.
+	 * @return			For each rank of this store, the rank in other.
+	 */
+	public int[] ranksIn(ItemIndex other) {
+		int[] map = new int[itemIndex.size()];
+		for (int r = 0; r < map.length; r++)
+			map[r] = other.rank(itemIndex.item(r));
+		return map;
+	}
+
+	/**
+	 * @param rank		A rank of this (recoded) store.
+	 * @return			The item it stands for.
+	 */
+	public int item(int rank) {
+		return itemIndex.item(rank);
+	}
+
+	/**
+	 * Visits the distinct baskets [from, to).
+	 *
+	 * @param v		The visitor.
+	 */
+	public void forEach(int from, int to, Visitor v) {
+		int[] basket = new int[64];
+		for (int b = from; b < to; b++) {
+			int n = starts[b + 1] - starts[b];
+			if (basket.length < n)
+				basket = new int[n];
+			System.arraycopy(items, starts[b], basket, 0, n);
+			v.basket(basket, n, weights[b]);
+		}
+	}
+
+	/**
+	 * Visits every distinct basket, on several threads if asked to, each
+	 * worker taking an equal run of baskets, as ParallelScan does.
+	 *
+	 * @param threads		The number of workers.
+	 * @param newWorker		Creates the thread-local visitor of one run.
+	 * @return				The workers, ready to be merged.
+	 * @throws IOException
+	 */
+	public <W extends Visitor> List<W> scan(int threads, Supplier<W> newWorker) throws IOException {
+		List<W> workers = new ArrayList<>();
+		if (threads <= 1) {
+			W worker = newWorker.get();
+			workers.add(worker);
+			forEach(0, size, worker);
+			return workers;
+		}
+
+		List<Callable<Void>> tasks = new ArrayList<>();
+		for (int p = 0; p < threads; p++) {
+			W worker = newWorker.get();
+			int from = (int) ((long) size * p / threads), to = (int) ((long) size * (p + 1) / threads);
+			workers.add(worker);
+			tasks.add(() -> {
+				forEach(from, to, worker);
+				return null;
+			});
+		}
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			for (Future<Void> f : pool.invokeAll(tasks))
+				f.get();
+			return workers;
+		} catch (InterruptedException | ExecutionException x) {
+			throw new IOException(x);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * @return		The number of distinct baskets stored.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * @return		The number of baskets of the pass the store was built
+	 * 				from, counting repeats and the baskets recode() dropped.
+	 */
+	public long baskets() {
+		return baskets;
+	}
+
+	/**
+	 * @return		The number of items stored, over the distinct baskets.
+	 */
+	public long items() {
+		return used;
+	}
+
+	/**
+	 * @return		The approximate heap footprint of the store in bytes.
+	 */
+	public long memoryBytes() {
+		return 4L * (items.length + starts.length + weights.length + hashes.length + table.length);
+	}
+}
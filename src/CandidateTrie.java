@@ -0,0 +1,208 @@
+import java.util.*;
+
+/**
+ * A prefix trie holding the candidate k-itemsets of one level of the
+ * A Priori algorithm, used to count all of them in a single pass.
+ * Itemsets are sorted arrays of dense item ranks (see ItemIndex).
+ *
+ * Instead of enumerating every k-subset of a basket and looking it up,
+ * a basket is walked down the trie: at each depth only the children that
+ * are also in the rest of the basket are followed, so the work is bounded
+ * by the candidates actually contained in the basket rather than by
+ * C(basket size, k).
+ *
+ * The trie is stored level by level in primitive arrays. Node n at depth d
+ * holds items[d][n], and its children are the nodes
+ * [childStart[d][n], childStart[d][n + 1]) at depth d + 1, sorted by item.
+ * Nodes at depth k - 1 are the leaves, one per candidate, with a count.
+ */
+public class CandidateTrie {
+
+	/**
+	 * Callback used to walk the candidates and their counts.
+	 */
+	public interface ItemsetVisitor {
+		void visit(int[] items, int count);
+	}
+
+	private final int k;
+	private final int[][] items;
+	private final int[][] childStart;
+	private final int[] counts;
+
+	/**
+	 * Builds the trie from candidates given in lexicographic order.
+	 *
+	 * @param flat		The candidates back to back, k ranks each.
+	 * @param k			The size of each candidate.
+	 */
+	public CandidateTrie(int[] flat, int k) {
+		this.k = k;
+		int n = flat.length / k;
+		int[] sizes = new int[k];
+		int[][] levels = new int[k][];
+		int[][] starts = new int[k][];
+		for (int d = 0; d < k; d++) {
+			levels[d] = new int[Math.max(1, n)];
+			starts[d] = new int[Math.max(1, n) + 1];
+		}
+
+		for (int c = 0; c < n; c++) {
+			// First depth where this candidate leaves the previous one's path
+			int p = 0;
+			if (c > 0)
+				while (p < k - 1 && flat[c * k + p] == flat[(c - 1) * k + p])
+					p++;
+			for (int d = p; d < k; d++) {
+				levels[d][sizes[d]] = flat[c * k + d];
+				if (d + 1 < k)
+					starts[d][sizes[d]] = sizes[d + 1];	// children are appended next
+				sizes[d]++;
+			}
+		}
+
+		items = new int[k][];
+		childStart = new int[k][];
+		for (int d = 0; d < k; d++) {
+			items[d] = Arrays.copyOf(levels[d], sizes[d]);
+			if (d + 1 < k) {
+				childStart[d] = Arrays.copyOf(starts[d], sizes[d] + 1);
+				childStart[d][sizes[d]] = sizes[d + 1];
+			}
+		}
+		counts = new int[sizes[k - 1]];
+	}
+
+	/**
+	 * Sorts itemsets into the lexicographic order the constructor expects
+	 * and drops repeated ones. Each itemset must already be sorted.
+	 *
+	 * @param flat		The itemsets back to back, k ranks each.
+	 * @param used		How many entries of flat are in use.
+	 * @param k			The size of each itemset.
+	 * @return			The distinct itemsets back to back, in order.
+	 */
+	public static int[] sortDistinct(int[] flat, int used, int k) {
+		int n = used / k;
+		int[][] rows = new int[n][];
+		for (int c = 0; c < n; c++)
+			rows[c] = Arrays.copyOfRange(flat, c * k, c * k + k);
+		Arrays.sort(rows, (x, y) -> {
+			for (int d = 0; d < k; d++)
+				if (x[d] != y[d])
+					return Integer.compare(x[d], y[d]);
+			return 0;
+		});
+
+		int[] out = new int[used];
+		int m = 0;
+		for (int c = 0; c < n; c++)
+			if (c == 0 || !Arrays.equals(rows[c], rows[c - 1])) {
+				System.arraycopy(rows[c], 0, out, m, k);
+				m += k;
+			}
+		return Arrays.copyOf(out, m);
+	}
+
+	/**
+	 * @return		The number of candidates in the trie.
+	 */
+	public int size() {
+		return counts.length;
+	}
+
+	/**
+	 * @return		The approximate heap footprint of the trie in bytes.
+	 */
+	public long memoryBytes() {
+		long bytes = 4L * counts.length;
+		for (int d = 0; d < k; d++) {
+			bytes += 4L * items[d].length;
+			if (childStart[d] != null)
+				bytes += 4L * childStart[d].length;
+		}
+		return bytes;
+	}
+
+	/**
+	 * Adds 1 to the count of every candidate contained in the basket.
+	 *
+	 * @param basket	Dense ranks of the frequent items in the basket,
+	 * 					sorted ascending and without duplicates.
+	 * @param n			How many entries of basket are in use.
+	 */
+	public void count(int[] basket, int n) {
+		count(basket, n, 1);
+	}
+
+	/**
+	 * Adds weight to the count of every candidate contained in the basket,
+	 * for a basket that stands for several equal ones (see BasketStore).
+	 *
+	 * @param basket	Dense ranks, sorted ascending and without duplicates.
+	 * @param n			How many entries of basket are in use.
+	 * @param weight	How many baskets it stands for.
+	 */
+	public void count(int[] basket, int n, int weight) {
+		if (n >= k)
+			count(0, 0, items[0].length, basket, 0, n, weight);
+	}
+
+	private void count(int d, int lo, int hi, int[] basket, int from, int n, int weight) {
+		int[] level = items[d];
+		int last = n - (k - d);		// Later basket positions cannot complete a candidate
+		int i = lo, p = from;
+		while (i < hi && p <= last) {
+			if (level[i] < basket[p])
+				i++;
+			else if (level[i] > basket[p])
+				p++;
+			else {
+				if (d == k - 1)
+					counts[i] += weight;
+				else
+					count(d + 1, childStart[d][i], childStart[d][i + 1], basket, p + 1, n, weight);
+				i++;
+				p++;
+			}
+		}
+	}
+
+	/**
+	 * @param set	A sorted itemset of k ranks.
+	 * @return		True if the itemset is one of the candidates.
+	 */
+	public boolean contains(int[] set) {
+		int lo = 0, hi = items[0].length;
+		for (int d = 0; d < k; d++) {
+			int i = Arrays.binarySearch(items[d], lo, hi, set[d]);
+			if (i < 0)
+				return false;
+			if (d + 1 < k) {
+				lo = childStart[d][i];
+				hi = childStart[d][i + 1];
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Visits every candidate in lexicographic order with its count.
+	 * The array passed to the visitor is reused between calls.
+	 *
+	 * @param v		The visitor.
+	 */
+	public void forEach(ItemsetVisitor v) {
+		forEach(0, 0, items[0].length, new int[k], v);
+	}
+
+	private void forEach(int d, int lo, int hi, int[] path, ItemsetVisitor v) {
+		for (int i = lo; i < hi; i++) {
+			path[d] = items[d][i];
+			if (d == k - 1)
+				v.visit(path, counts[i]);
+			else
+				forEach(d + 1, childStart[d][i], childStart[d][i + 1], path, v);
+		}
+	}
+}
@@ -0,0 +1,256 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * The scalability study of APriori and PCY in two passes instead of
+ * twenty-four. Every dataset size of runStudy (1%, 5%, 10%, 20%, ... ,
+ * 100%) is a prefix of the same file, so rather than reading each prefix
+ * twice from byte zero, this study reads the whole file twice and takes a
+ * snapshot whenever a pass goes by the end of a prefix (a checkpoint):
+ *
+ *   1. The first pass counts singletons (and PCY's buckets) cumulatively.
+ *      At each checkpoint it records the checkpoint's frequent items and,
+ *      for PCY, its bit vector of frequent buckets.
+ *   2. The second pass counts every pair that is a candidate at one
+ *      checkpoint or more. Counts are cumulative too, so at each checkpoint
+ *      the counter holds exactly that prefix's counts, and the frequent
+ *      pairs of the prefix are read off there and then.
+ *
+ * Supports and prefixes are the same as in runStudy (chuck + 1 baskets at
+ * a support of a fraction of the chuck, the whole file at 100%), and so
+ * are the frequent pairs found at every fraction. Only the number of
+ * baskets has to be known up front; see BasketReader.countBaskets.
+ */
+public class CheckpointStudy {
+
+	// The dataset sizes of runStudy, in the order a pass reaches them
+	private static final int[] FRACTIONS = { 1, 5, 10, 20, 30, 40, 50, 60, 70, 80, 90, 100 };
+
+	private final boolean pcy;					// Also count buckets and filter candidate pairs, as PCY does
+	private final int numBuckets;
+
+	private int maxBaskets = 0;
+	private long[] limits;						// baskets in each prefix
+	private int[] supports;						// support of each prefix
+
+	// Snapshots of the first pass, one per checkpoint
+	private List<Set<Integer>> freqItems;
+	private BitSet[] bitvec;
+
+	// Frequent items of any checkpoint, ranked in ascending id order
+	private ItemIndex itemIndex;
+	private boolean[][] frequentAt;				// frequentAt[c][rank]
+
+	// Results of the second pass, per checkpoint
+	private int[] candidatePairs;
+	private int[] frequentPairs;
+	private long[] passTimes = new long[2];
+
+	/**
+	 * @param pcy			True to study PCY, false for APriori.
+	 * @param numBuckets	The number of buckets of PCY's table.
+	 */
+	public CheckpointStudy(boolean pcy, int numBuckets) {
+		this.pcy = pcy;
+		this.numBuckets = numBuckets;
+	}
+
+	/**
+	 * Sets up the checkpoints: the number of baskets and the support of
+	 * each dataset size, computed as runStudy's rounds do.
+	 */
+	private void configCheckpoints(String fp, double supp) throws IOException {
+		maxBaskets = (int) BasketReader.countBaskets(fp);
+		limits = new long[FRACTIONS.length];
+		supports = new int[FRACTIONS.length];
+		for (int c = 0; c < FRACTIONS.length; c++) {
+			if (FRACTIONS[c] == 100) {
+				limits[c] = maxBaskets;
+				supports[c] = (int)(supp * maxBaskets);
+			} else {
+				int chuck = (int)((double)FRACTIONS[c]/100 * maxBaskets);
+				limits[c] = (long) chuck + 1;
+				supports[c] = (int)(supp * chuck);
+			}
+		}
+	}
+
+	/**
+	 * This method conducts the first pass over the dataset indicated by
+	 * the filepath parameter, counting singletons (and, for PCY, hashing
+	 * every pair to a bucket) and taking a snapshot at each checkpoint.
+	 *
+	 * @param fp	The filepath of the dataset.
+	 * @throws IOException
+	 */
+	private void firstPass(String fp) throws IOException {
+		freqItems = new ArrayList<>();
+		bitvec = new BitSet[FRACTIONS.length];
+		ParallelScan.ItemCounts counts = new ParallelScan.ItemCounts();
+		int[] buckets = pcy ? new int[numBuckets] : null;
+		long[] baskets = { 0 };
+
+		try {
+			BasketReader.read(fp, limits[limits.length - 1], (items, n) -> {
+				counts.basket(items, n);
+				if (pcy)
+					for (int i = 0; i < n; i++)
+						for (int j = i + 1; j < n; j++)
+							buckets[PCY.hash(items[i], items[j], 0, numBuckets)]++;
+
+				baskets[0]++;
+				while (freqItems.size() < FRACTIONS.length && baskets[0] == limits[freqItems.size()])
+					snapshot(counts, buckets);
+			});
+		} catch (IOException x) {
+		    System.err.println(x);
+		}
+	}
+
+	private void snapshot(ParallelScan.ItemCounts counts, int[] buckets) {
+		int c = freqItems.size();
+		Map<Integer, Integer> singletons = new HashMap<>();
+		counts.addTo(singletons);
+		Set<Integer> frequent = new HashSet<>();
+		for (Map.Entry<Integer, Integer> entry : singletons.entrySet())
+			if (entry.getValue() >= supports[c])
+				frequent.add(entry.getKey());
+		freqItems.add(frequent);
+
+		if (buckets != null) {
+			bitvec[c] = new BitSet(buckets.length);
+			for (int k = 0; k < buckets.length; k++)
+				if (buckets[k] >= supports[c])
+					bitvec[c].set(k);
+		}
+	}
+
+	/**
+	 * Ranks the items frequent at any checkpoint, which are the only items
+	 * the second pass needs to look at.
+	 */
+	private void makeFreqItemsList() {
+		Set<Integer> union = new HashSet<>();
+		for (Set<Integer> frequent : freqItems)
+			union.addAll(frequent);
+		itemIndex = new ItemIndex(union);
+
+		frequentAt = new boolean[FRACTIONS.length][itemIndex.size()];
+		for (int c = 0; c < freqItems.size(); c++)
+			for (int item : freqItems.get(c))
+				frequentAt[c][itemIndex.rank(item)] = true;
+	}
+
+	/**
+	 * This method conducts the second pass over the dataset indicated by
+	 * the filepath parameter. A pair is counted if it is a candidate at
+	 * some checkpoint: both items frequent there and, for PCY, hashing to
+	 * a frequent bucket there. At each checkpoint the frequent pairs of
+	 * that prefix are counted off the cumulative counts.
+	 *
+	 * @param fp	The filepath of the dataset.
+	 * @throws IOException
+	 */
+	private void secondPass(String fp) throws IOException {
+		PairCounter pairs = PairCounter.create(itemIndex.size());
+		candidatePairs = new int[FRACTIONS.length];
+		frequentPairs = new int[FRACTIONS.length];
+		int[][] buffers = { new int[64], new int[64] };	// the frequent items of a basket, and their ranks
+		long[] baskets = { 0 };
+		int[] next = { 0 };
+
+		try {
+			BasketReader.read(fp, limits[limits.length - 1], (items, n) -> {
+				if (buffers[0].length < n)
+					buffers[0] = new int[n];
+				if (buffers[1].length < n)
+					buffers[1] = new int[n];
+				int[] f = buffers[0], r = buffers[1];
+				int m = 0;
+				for (int i = 0; i < n; i++) {
+					int rank = itemIndex.rank(items[i]);
+					if (rank >= 0) {
+						f[m] = items[i];
+						r[m++] = rank;
+					}
+				}
+				for (int i = 0; i < m; i++)
+					for (int j = i + 1; j < m; j++)
+						if (isCandidateAnywhere(f[i], f[j], r[i], r[j]))
+							pairs.increment(r[i], r[j]);
+
+				baskets[0]++;
+				while (next[0] < FRACTIONS.length && baskets[0] == limits[next[0]])
+					resolve(pairs, next[0]++);
+			});
+		} catch (IOException x) {
+		    System.err.println(x);
+		}
+	}
+
+	private boolean isCandidateAnywhere(int p1, int p2, int r1, int r2) {
+		int bucket = pcy ? PCY.hash(p1, p2, 0, numBuckets) : 0;
+		for (int c = 0; c < FRACTIONS.length; c++)
+			if (frequentAt[c][r1] && frequentAt[c][r2] && (!pcy || bitvec[c].get(bucket)))
+				return true;
+		return false;
+	}
+
+	/**
+	 * Reads the candidate and frequent pairs of checkpoint c off the
+	 * counts, which at this point cover exactly that prefix.
+	 */
+	private void resolve(PairCounter pairs, int c) {
+		boolean[] freq = frequentAt[c];
+		pairs.forEach((i, j, count) -> {
+			if (!freq[i] || !freq[j])
+				return;
+			if (pcy && !bitvec[c].get(PCY.hash(itemIndex.item(i), itemIndex.item(j), 0, numBuckets)))
+				return;
+			candidatePairs[c]++;
+			if (count >= supports[c])
+				frequentPairs[c]++;
+		});
+	}
+
+	/**
+	 * Runs both passes and prints the same report as runStudy for every
+	 * dataset size, from 100% down to 1%. Since all sizes share the same
+	 * two passes, the runtime is reported once, for the whole study.
+	 *
+	 * @param supp		The support, as a decimal, for the study.
+	 */
+	public void runStudy(double supp) {
+		String fp = Paths.get(System.getProperty("user.dir"), "src", "retail.txt").toString();
+
+		long startTime = System.currentTimeMillis();
+		try {
+			configCheckpoints(fp, supp);
+			long t0 = System.currentTimeMillis();
+			firstPass(fp);
+			makeFreqItemsList();
+			long t1 = System.currentTimeMillis();
+			secondPass(fp);
+			passTimes[0] = t1 - t0;
+			passTimes[1] = System.currentTimeMillis() - t1;
+		} catch (Exception e) { System.out.println(e); }
+		long runTime = System.currentTimeMillis() - startTime;
+
+		for (int c = FRACTIONS.length - 1; c >= 0; c--) {
+			System.out.println("(" + FRACTIONS[c] + "% of Data Size: " + maxBaskets + ")");
+			System.out.println("  Baskets: " + ((FRACTIONS[c] == 100) ? Integer.MAX_VALUE : limits[c] - 1)
+							   + ", Support: " + supports[c]);
+			System.out.println("  Candidate pairs: " + candidatePairs[c] + ", Frequent pairs: " + frequentPairs[c] + "\n");
+		}
+		System.out.println("Whole study (" + (pcy ? "PCY" : "APriori") + "): " + runTime + " ms, 2 passes instead of "
+						   + 2 * FRACTIONS.length + " (first " + passTimes[0] + " ms, second " + passTimes[1] + " ms)");
+	}
+
+	public static void main(String[] args) {
+		// Optional arguments: engine (APriori or PCY), support
+		boolean pcy = args.length > 0 && args[0].equalsIgnoreCase("PCY");
+		CheckpointStudy study = new CheckpointStudy(pcy, 1 << 20);
+		study.runStudy((args.length > 1) ? Double.parseDouble(args[1]) : (pcy ? 0.01 : 0.10));
+	}
+}
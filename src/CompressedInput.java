@@ -0,0 +1,325 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.zip.*;
+
+/**
+ * Streams the baskets of a compressed dataset straight into a BasketParser,
+ * so archived basket logs are mined without decompressing them to a
+ * temporary file first. The compression is recognised by its magic bytes,
+ * whatever the file is called:
+ *   - gzip (including files of several gzip members) is inflated by a
+ *     background thread into a few reused 1 MB chunks, handed over through
+ *     a small queue, so decompression runs alongside parsing and counting.
+ *   - BGZF, the blocked gzip written by bgzip, is a series of independent
+ *     gzip members of at most 64 KB whose sizes are in their headers. The
+ *     blocks are read ahead and inflated in parallel on a pool, and parsed
+ *     in order as they complete.
+ *   - zstd has no decoder in the JDK (and the build vendors none), so the
+ *     file is piped through the zstd command, which must be on the PATH,
+ *     and parsed like gzip as it comes out.
+ *
+ * Reading stops as soon as the parser has its limit of baskets; the
+ * background thread or process is then stopped.
+ */
+final class CompressedInput {
+
+	/**
+	 * The compression of a dataset.
+	 */
+	enum Kind { NONE, GZIP, BGZF, ZSTD }
+
+	private static final int CHUNK = 1 << 20;			// bytes per chunk handed to the parser
+	private static final int CHUNKS = 4;				// chunks in flight
+	private static final ByteBuffer END = ByteBuffer.allocate(0);
+
+	private CompressedInput() {
+	}
+
+	/**
+	 * Recognises the compression of a file by its first bytes.
+	 *
+	 * @param fp	The filepath of the dataset.
+	 * @return		Its compression, NONE for plain text.
+	 * @throws IOException
+	 */
+	static Kind detect(String fp) throws IOException {
+		byte[] head = new byte[18];
+		int n = 0;
+		try (InputStream in = Files.newInputStream(Paths.get(fp))) {
+			for (int r; n < head.length && (r = in.read(head, n, head.length - n)) > 0; )
+				n += r;
+		}
+		if (n >= 4 && (head[0] & 0xFF) == 0x28 && (head[1] & 0xFF) == 0xB5 && (head[2] & 0xFF) == 0x2F
+				&& (head[3] & 0xFF) == 0xFD)
+			return Kind.ZSTD;
+		if (n >= 2 && (head[0] & 0xFF) == 0x1F && (head[1] & 0xFF) == 0x8B) {
+			// BGZF: an extra field (FLG.FEXTRA) whose first subfield is "BC"
+			if (n >= 18 && (head[3] & 4) != 0 && head[12] == 'B' && head[13] == 'C')
+				return Kind.BGZF;
+			return Kind.GZIP;
+		}
+		return Kind.NONE;
+	}
+
+	/**
+	 * Reads the first limit baskets of a compressed dataset.
+	 *
+	 * @param stop		If not null, stop[0] receives the bytes of text parsed.
+	 * @return			The number of baskets read.
+	 * @throws IOException
+	 */
+	static long read(String fp, Kind kind, BasketReader.Format format, long limit, BasketHandler h, long[] stop)
+			throws IOException {
+		return read(fp, kind, format, limit, h, stop, null, null);
+	}
+
+	/**
+	 * Same as read, recording the stalls of the reading and the parsing
+	 * side for a BasketPipeline. Plain text (NONE) is read by a background
+	 * thread too, like gzip.
+	 *
+	 * @param read		The reading stage, or null.
+	 * @param parse		The parsing stage, or null.
+	 */
+	static long read(String fp, Kind kind, BasketReader.Format format, long limit, BasketHandler h, long[] stop,
+					 BasketPipeline.Stage read, BasketPipeline.Stage parse) throws IOException {
+		BasketParser parser = new BasketParser(h, limit, format, true);
+		long parsed;
+		switch (kind) {
+		case BGZF:
+			parsed = readBgzf(Paths.get(fp), parser, parse);
+			break;
+		case ZSTD:
+			parsed = readZstd(fp, parser, read, parse);
+			break;
+		case NONE:
+			parsed = readPipelined(Files.newInputStream(Paths.get(fp)), parser, read, parse);
+			break;
+		default:
+			parsed = readPipelined(new GZIPInputStream(Files.newInputStream(Paths.get(fp)), 1 << 16), parser, read, parse);
+		}
+		if (stop != null)
+			stop[0] = parsed;
+		return parser.count();
+	}
+
+	private static long readZstd(String fp, BasketParser parser, BasketPipeline.Stage read, BasketPipeline.Stage parse)
+			throws IOException {
+		Process zstd;
+		try {
+			zstd = new ProcessBuilder("zstd", "-dc", "--", fp).redirectError(ProcessBuilder.Redirect.INHERIT).start();
+		} catch (IOException x) {
+			throw new IOException("Cannot run zstd to read " + fp + " (is it installed?)", x);
+		}
+		try {
+			long parsed = readPipelined(zstd.getInputStream(), parser, read, parse);
+			if (!parser.full() && zstd.waitFor() != 0)
+				throw new IOException("zstd failed on " + fp + " with exit code " + zstd.exitValue());
+			return parsed;
+		} catch (InterruptedException x) {
+			throw new InterruptedIOException("Interrupted while reading " + fp);
+		} finally {
+			zstd.destroy();
+		}
+	}
+
+	/**
+	 * Parses a stream read (and decompressed) by a background thread,
+	 * which fills CHUNKS reused buffers ahead of the parser.
+	 *
+	 * @param read		Records the reader waiting for a free chunk, or null.
+	 * @param parse		Records the parser waiting for a full chunk, or null.
+	 * @return			The bytes parsed.
+	 */
+	private static long readPipelined(InputStream in, BasketParser parser, BasketPipeline.Stage read,
+									  BasketPipeline.Stage parse) throws IOException {
+		BlockingQueue<byte[]> free = new ArrayBlockingQueue<>(CHUNKS);
+		BlockingQueue<ByteBuffer> full = new ArrayBlockingQueue<>(CHUNKS + 1);
+		for (int c = 0; c < CHUNKS; c++)
+			free.add(new byte[CHUNK]);
+		IOException[] error = { null };
+
+		Thread producer = new Thread(() -> {
+			try {
+				while (true) {
+					long start = System.nanoTime();
+					byte[] buf = free.take();
+					if (read != null)
+						read.blocked(System.nanoTime() - start);
+					int len = 0;
+					for (int r; len < buf.length && (r = in.read(buf, len, buf.length - len)) > 0; )
+						len += r;
+					if (len > 0)
+						full.put(ByteBuffer.wrap(buf, 0, len));
+					if (len < buf.length)
+						break;
+				}
+				full.put(END);
+			} catch (IOException x) {
+				error[0] = x;
+				full.offer(END);		// there is always room: at most CHUNKS buffers are queued
+			} catch (InterruptedException x) {
+				// The parser has all the baskets it wants
+			}
+		}, "basket-reader");
+		producer.setDaemon(true);
+		producer.start();
+
+		long parsed = 0;
+		try {
+			for (ByteBuffer chunk = take(full, parse); chunk != END; chunk = take(full, parse)) {
+				int k = parser.parse(chunk, 0, chunk.limit());
+				parsed += k;
+				free.add(chunk.array());
+				if (parser.full())
+					return parsed;
+			}
+			producer.join();
+			if (error[0] != null)
+				throw error[0];
+			parser.finish();
+			return parsed;
+		} catch (InterruptedException x) {
+			throw new InterruptedIOException();
+		} finally {
+			// Let the reader stop before its stream is closed under it
+			producer.interrupt();
+			try {
+				producer.join();
+			} catch (InterruptedException x) {
+				Thread.currentThread().interrupt();
+			}
+			in.close();
+		}
+	}
+
+	private static <T> T take(BlockingQueue<T> queue, BasketPipeline.Stage stage) throws IOException {
+		try {
+			int depth = queue.size();
+			long start = System.nanoTime();
+			T next = queue.take();
+			if (stage != null)
+				stage.took(depth, System.nanoTime() - start);
+			return next;
+		} catch (InterruptedException x) {
+			throw new InterruptedIOException();
+		}
+	}
+
+	/**
+	 * Parses a BGZF file, inflating up to 4 blocks per thread ahead of the
+	 * parser on a pool as large as the machine.
+	 *
+	 * @param parse		Records the parser waiting for a block, or null.
+	 * @return			The bytes parsed.
+	 */
+	private static long readBgzf(Path file, BasketParser parser, BasketPipeline.Stage parse) throws IOException {
+		int threads = Math.max(1, Runtime.getRuntime().availableProcessors());
+		ExecutorService pool = Executors.newFixedThreadPool(threads, r -> {
+			Thread t = new Thread(r, "bgzf-inflater");
+			t.setDaemon(true);
+			return t;
+		});
+		Deque<Future<byte[]>> ahead = new ArrayDeque<>();
+
+		try (InputStream in = new BufferedInputStream(Files.newInputStream(file), 1 << 16)) {
+			long parsed = 0;
+			boolean eof = false;
+			while (true) {
+				while (!eof && ahead.size() < 4 * threads) {
+					byte[] block = nextBlock(in);
+					if (block == null)
+						eof = true;
+					else
+						ahead.add(pool.submit(() -> inflate(block)));
+				}
+				if (ahead.isEmpty())
+					break;
+
+				Future<byte[]> next = ahead.poll();
+				int depth = ahead.size() + 1;
+				long start = System.nanoTime();
+				byte[] data = next.get();
+				if (parse != null)
+					parse.took(depth, System.nanoTime() - start);
+				parsed += parser.parse(ByteBuffer.wrap(data), 0, data.length);
+				if (parser.full())
+					return parsed;
+			}
+			parser.finish();
+			return parsed;
+		} catch (InterruptedException x) {
+			throw new InterruptedIOException();
+		} catch (ExecutionException x) {
+			throw (x.getCause() instanceof IOException) ? (IOException) x.getCause() : new IOException(x.getCause());
+		} finally {
+			pool.shutdownNow();
+		}
+	}
+
+	/**
+	 * Reads the next whole BGZF block (a gzip member), or null at the end.
+	 */
+	private static byte[] nextBlock(InputStream in) throws IOException {
+		byte[] head = new byte[12];
+		int n = readFully(in, head, 0, head.length);
+		if (n == 0)
+			return null;
+		if (n < head.length || (head[0] & 0xFF) != 0x1F || (head[1] & 0xFF) != 0x8B || (head[3] & 4) == 0)
+			throw new IOException("Not a BGZF block");
+
+		int xlen = (head[10] & 0xFF) | (head[11] & 0xFF) << 8;
+		byte[] extra = new byte[xlen];
+		if (readFully(in, extra, 0, xlen) < xlen)
+			throw new EOFException("Truncated BGZF block");
+		int blockSize = -1;
+		for (int p = 0; p + 4 <= xlen; p += 4 + ((extra[p + 2] & 0xFF) | (extra[p + 3] & 0xFF) << 8))
+			if (extra[p] == 'B' && extra[p + 1] == 'C')
+				blockSize = ((extra[p + 4] & 0xFF) | (extra[p + 5] & 0xFF) << 8) + 1;
+		if (blockSize < 12 + xlen + 8)
+			throw new IOException("BGZF block without its size");
+
+		byte[] block = new byte[blockSize];
+		System.arraycopy(head, 0, block, 0, 12);
+		System.arraycopy(extra, 0, block, 12, xlen);
+		int rest = blockSize - 12 - xlen;
+		if (readFully(in, block, 12 + xlen, rest) < rest)
+			throw new EOFException("Truncated BGZF block");
+		return block;
+	}
+
+	// Inflates the deflate data of a block, which ends with its CRC32 and uncompressed size
+	private static byte[] inflate(byte[] block) throws IOException {
+		int xlen = (block[10] & 0xFF) | (block[11] & 0xFF) << 8;
+		ByteBuffer trailer = ByteBuffer.wrap(block, block.length - 8, 8).order(ByteOrder.LITTLE_ENDIAN);
+		int crc = trailer.getInt();
+		int size = trailer.getInt();
+		byte[] data = new byte[size];
+		Inflater inflater = new Inflater(true);
+		try {
+			inflater.setInput(block, 12 + xlen, block.length - 12 - xlen - 8);
+			int n = 0;
+			while (n < size && !inflater.finished() && !inflater.needsInput())
+				n += inflater.inflate(data, n, size - n);
+			CRC32 check = new CRC32();
+			check.update(data, 0, n);
+			if (n != size || (int) check.getValue() != crc)
+				throw new IOException("Corrupt BGZF block");
+			return data;
+		} catch (DataFormatException x) {
+			throw new IOException(x);
+		} finally {
+			inflater.end();
+		}
+	}
+
+	private static int readFully(InputStream in, byte[] buf, int off, int len) throws IOException {
+		int n = 0;
+		for (int r; n < len && (r = in.read(buf, off + n, len - n)) > 0; )
+			n += r;
+		return n;
+	}
+}
@@ -0,0 +1,88 @@
+import java.io.*;
+import java.nio.file.*;
+
+/**
+ * Compares mining every frequent itemset with mining only the closed ones
+ * (Eclat in CLOSED mode, CHARM) and only the maximal ones (FP-Growth in
+ * MAXIMAL mode, FPMax) on the same dataset and supports. For each support
+ * it reports the number of itemsets, the number of items written out (what
+ * output and downstream consumers pay for) and the runtime of each run
+ * (the best of three), with the savings of the condensed run over the
+ * full one.
+ */
+public class CondensedStudy {
+
+	private static final int RUNS = 3;		// the best of RUNS runs is reported
+
+	/**
+	 * Runs the comparison at each support.
+	 *
+	 * @param fp			The filepath of the dataset.
+	 * @param supports		The supports, as decimals.
+	 * @throws IOException
+	 */
+	public static void run(String fp, double... supports) throws IOException {
+		// Warm up the JIT so the first support is not charged for it
+		new Eclat().run(fp, supports[0]);
+		new FPGrowth().run(fp, supports[0]);
+
+		for (double supp : supports) {
+			System.out.println("(Support: " + supp + ")");
+			compare("Eclat, closed", () -> new Eclat().run(fp, supp),
+					() -> new Eclat(Eclat.Mode.CLOSED).run(fp, supp));
+			compare("FP-Growth, maximal", () -> new FPGrowth().run(fp, supp),
+					() -> new FPGrowth(FPGrowth.Mode.MAXIMAL).run(fp, supp));
+			System.out.println();
+		}
+	}
+
+	/**
+	 * One run of an engine.
+	 */
+	private interface Miner {
+		FrequentItemsets mine() throws IOException;
+	}
+
+	private static void compare(String name, Miner full, Miner condensed) throws IOException {
+		FrequentItemsets all = null, some = null;
+		long fullTime = Long.MAX_VALUE, condensedTime = Long.MAX_VALUE;
+		for (int run = 0; run < RUNS; run++) {
+			long startTime = System.currentTimeMillis();
+			all = full.mine();
+			fullTime = Math.min(fullTime, System.currentTimeMillis() - startTime);
+
+			startTime = System.currentTimeMillis();
+			some = condensed.mine();
+			condensedTime = Math.min(condensedTime, System.currentTimeMillis() - startTime);
+		}
+
+		long allItems = items(all), someItems = items(some);
+		System.out.println("  " + name + ": " + some.size() + " of " + all.size() + " itemsets ("
+						   + saving(all.size(), some.size()) + " fewer), " + someItems + " of " + allItems + " items ("
+						   + saving(allItems, someItems) + " fewer)");
+		System.out.println("    Runtime: " + condensedTime + " ms against " + fullTime + " ms ("
+						   + ((condensedTime <= fullTime) ? saving(fullTime, condensedTime) + " faster)"
+														  : saving(condensedTime, fullTime) + " slower)"));
+	}
+
+	// The total size of the itemsets, ie. how many items an output lists
+	private static long items(FrequentItemsets sets) {
+		long n = 0;
+		for (int i = 0; i < sets.size(); i++)
+			n += sets.items(i).length;
+		return n;
+	}
+
+	private static String saving(long full, long condensed) {
+		return (full > 0) ? String.format("%.1f%%", 100.0 * (full - condensed) / full) : "0%";
+	}
+
+	public static void main(String[] args) {
+		String fp = Paths.get(System.getProperty("user.dir"), "src", "retail.txt").toString();
+		try {
+			run(fp, 0.01, 0.005, 0.002, 0.001, 0.0005, 0.0003);
+		} catch (IOException x) {
+		    System.err.println(x);
+		}
+	}
+}
@@ -0,0 +1,469 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class Eclat {
+
+	/**
+	 * What the search outputs.
+	 *   ALL     - every frequent itemset.
+	 *   CLOSED  - only the closed ones, those with no superset of the same
+	 *             support, mined directly with CHARM (see mineClosed). They
+	 *             keep every support: that of any frequent itemset is the
+	 *             largest support of a closed itemset containing it.
+	 */
+	public enum Mode { ALL, CLOSED }
+
+	private final Mode mode;
+
+	private int maxBaskets = 0;					// Before reading our data set, there are 0 baskets.
+	private int basketCounter = 0;				// Which basket in the file
+	private boolean firstExec = true;			// If first execution of algorithm, need to count baskets.
+	private int support = 0;
+	private int chuck = Integer.MAX_VALUE;		/* Since we don't know how many baskets there are initially,
+												    we set the chuck to an arbitrarily large number.
+
+												   Note: Here, a chuck is an integer value representing the
+												         fractional amount of the entire data size (maxBaskets)
+												         Eg. We want 10% of 8816 then chuck = 8816
+												 */
+
+	// Count the occurrence of each item (known as singletons)
+	private Map<Integer, Integer> singletons = new HashMap<>();
+
+	// Frequent singletons are those items with a count >= support
+	private Vector<Integer> freqItems = new Vector<>();
+
+	// Frequent items remapped to dense ranks 0..m-1, ranked by descending count
+	private ItemIndex itemIndex;
+
+	// The vertical dataset: for each frequent item (by rank), the baskets containing it
+	private TidList[] tidLists;
+
+	// Pair counts from the second pass, so the first level needs no intersections (as in Zaki's Eclat)
+	private PairCounter freqPairs;
+
+	// All frequent itemsets of the last run (only the closed ones in CLOSED mode)
+	private FrequentItemsets freqItemsets;
+
+	// The closed itemsets found so far, as their support then sorted ranks, by the id sum of their tid-lists
+	private Map<Long, List<int[]>> closedBySum;
+
+	/**
+	 * Creates an Eclat run that outputs every frequent itemset.
+	 */
+	public Eclat() {
+		this(Mode.ALL);
+	}
+
+	/**
+	 * @param mode		Whether to output all frequent itemsets or only the closed ones.
+	 */
+	public Eclat(Mode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * This method conducts the first pass over the dataset indicated by
+	 * the filepath parameter. It will read each basket and count the
+	 * occurrence of each individual item and maintain the count in the
+	 * singletons HashMap. During the first pass is when the number of
+	 * baskets in the dataset is determined.
+	 *
+	 * @param fp	The filepath of the dataset.
+	 * @throws IOException
+	 */
+	private void firstPass(String fp) throws IOException {
+		ParallelScan.ItemCounts counts = new ParallelScan.ItemCounts();
+
+		try {
+			basketCounter = (int) BasketReader.read(fp, basketLimit(), counts);
+		} catch (IOException x) {
+		    System.err.println(x);
+		}
+		counts.addTo(singletons);
+
+		if (firstExec)
+			maxBaskets = basketCounter;
+	}
+
+	/**
+	 * This method is the intermediate step between the first and second pass.
+	 * Generates the list of frequent items (ie. item count >= support), which
+	 * are the only items that get a tid-list. Items are ranked by count so
+	 * the search can extend the rarest items first.
+	 */
+	private void makeFreqItemsList() {
+		for (Map.Entry<Integer, Integer> entry : singletons.entrySet())
+			if (entry.getValue() >= support)
+				freqItems.add(entry.getKey());
+
+		itemIndex = ItemIndex.byFrequency(freqItems, singletons);
+	}
+
+	/**
+	 * This method conducts the second (and last) pass over the dataset
+	 * indicated by the filepath parameter. It turns the dataset around into
+	 * its vertical format: the basket number is appended to the tid-list of
+	 * every frequent item in the basket. Pairs are counted on the way, like
+	 * the second pass of APriori, since deciding the frequent pairs by
+	 * intersection would take m^2 intersections. Supports of larger itemsets
+	 * are then found by intersecting tid-lists, never by reading the file again.
+	 *
+	 * @param fp	The filepath of the dataset.
+	 * @throws IOException
+	 */
+	private void secondPass(String fp) throws IOException {
+		tidLists = new TidList[itemIndex.size()];
+		for (int r = 0; r < tidLists.length; r++)
+			tidLists[r] = new TidList();
+		freqPairs = PairCounter.create(itemIndex.size());
+
+		try {
+			basketCounter = (int) BasketReader.read(fp, basketLimit(), new VerticalBuilder());
+		} catch (IOException x) {
+		    System.err.println(x);
+		}
+	}
+
+	/**
+	 * Appends the number of each basket to the tid-lists of its frequent
+	 * items, and counts the basket's pairs.
+	 */
+	private class VerticalBuilder implements BasketHandler {
+		private int[] ranks = new int[64];
+		private int tid = 0;
+
+		@Override
+		public void basket(int[] items, int n) {
+			if (ranks.length < n)
+				ranks = new int[n];
+			int m = 0;
+			for (int i = 0; i < n; i++) {
+				int r = itemIndex.rank(items[i]);
+				if (r >= 0)
+					ranks[m++] = r;
+			}
+			m = LevelWise.sortDistinct(ranks, m);
+			for (int i = 0; i < m; i++) {
+				tidLists[ranks[i]].add(tid);
+				for (int j = i + 1; j < m; j++)
+					freqPairs.increment(ranks[i], ranks[j]);
+			}
+			tid++;
+		}
+	}
+
+	/**
+	 * This method mines every frequent itemset depth-first over equivalence
+	 * classes. A class is a prefix together with the items that extend it
+	 * into a frequent itemset, each with the tid-list of prefix + item.
+	 * Intersecting the tid-lists of two members gives the tid-list (and so
+	 * the support) of their union, which seeds the next, deeper class.
+	 */
+	private void mine() {
+		if (mode == Mode.CLOSED) {
+			mineClosed();
+			return;
+		}
+		freqItemsets = new FrequentItemsets();
+		int m = itemIndex.size();
+		int[] members = new int[m];
+		TidList[] tids = new TidList[m];
+		for (int k = 0; k < m; k++) {
+			members[k] = m - 1 - k;		// least frequent first, so every class intersects against short tid-lists
+			tids[k] = tidLists[members[k]];
+		}
+		mine(new int[m], 0, members, tids, m);
+	}
+
+	private void mine(int[] prefix, int depth, int[] members, TidList[] tids, int n) {
+		int[] raw = new int[depth + 2];
+		for (int d = 0; d < depth; d++)
+			raw[d] = itemIndex.item(prefix[d]);
+
+		for (int i = 0; i < n; i++) {
+			raw[depth] = itemIndex.item(members[i]);
+			freqItemsets.add(Arrays.copyOf(raw, depth + 1), tids[i].cardinality());
+
+			// With a single extension left, its itemset is a leaf; count without materializing it
+			if (i == n - 2) {
+				int count = (depth == 0) ? freqPairs.count(members[i], members[n - 1])
+										 : tids[i].andCardinality(tids[n - 1]);
+				if (count >= support) {
+					raw[depth + 1] = itemIndex.item(members[n - 1]);
+					freqItemsets.add(raw, count);
+				}
+				continue;
+			}
+
+			int[] nextMembers = new int[n - i - 1];
+			TidList[] nextTids = new TidList[n - i - 1];
+			int k = 0;
+			for (int j = i + 1; j < n; j++) {
+				// Most unions are infrequent, so count before building the intersection
+				int count = (depth == 0) ? freqPairs.count(members[i], members[j])
+										 : tids[i].andCardinality(tids[j]);
+				if (count >= support) {
+					nextMembers[k] = members[j];
+					nextTids[k++] = tids[i].and(tids[j]);
+				}
+			}
+			if (k > 0) {
+				prefix[depth] = members[i];
+				mine(prefix, depth + 1, nextMembers, nextTids, k);
+			}
+		}
+	}
+
+	/**
+	 * This method mines only the closed frequent itemsets, with Zaki and
+	 * Hsiao's CHARM. It searches the same classes as mine(), least frequent
+	 * item first, but compares the tid-lists of the node Xi being extended
+	 * and each later node Xj of its class, so that most non-closed
+	 * itemsets are never generated:
+	 *   1. t(Xi) = t(Xj): Xj always comes with Xi, so its items join Xi and
+	 *      Xj is removed from the class.
+	 *   2. t(Xi) is inside t(Xj): the items of Xj join Xi, and Xj stays.
+	 *   3. t(Xi) contains t(Xj): Xi + Xj goes to the next class, and Xj is
+	 *      removed, as its closure contains Xi.
+	 *   4. otherwise Xi + Xj goes to the next class.
+	 * Only the sizes of the intersections are needed to tell the cases
+	 * apart, so the first level compares the pair counts of the second
+	 * pass. Once its class is mined, Xi is a closed itemset unless an
+	 * itemset found earlier has the same support and contains it.
+	 */
+	private void mineClosed() {
+		freqItemsets = new FrequentItemsets();
+		closedBySum = new HashMap<>();
+		int m = itemIndex.size();
+		int[][] members = new int[m][];
+		TidList[] tids = new TidList[m];
+		for (int k = 0; k < m; k++) {
+			members[k] = new int[] { m - 1 - k };		// least frequent first, as in mine()
+			tids[k] = tidLists[m - 1 - k];
+		}
+		charm(new int[0], members, tids, m);
+		closedBySum = null;
+	}
+
+	/**
+	 * Extends every node of a class. Node i is the itemset prefix +
+	 * members[i], whose baskets are tids[i].
+	 */
+	private void charm(int[] prefix, int[][] members, TidList[] tids, int n) {
+		boolean[] removed = new boolean[n];
+		for (int i = 0; i < n; i++) {
+			if (removed[i])
+				continue;
+			int[] x = concat(prefix, members[i]);
+			int xSupport = tids[i].cardinality();
+
+			int[][] nextMembers = new int[n - i - 1][];
+			TidList[] nextTids = new TidList[n - i - 1];
+			int k = 0;
+			for (int j = i + 1; j < n; j++) {
+				if (removed[j])
+					continue;
+				// At the first level X is still a single item, or has its baskets
+				int count = (prefix.length == 0) ? freqPairs.count(members[i][0], members[j][0])
+												 : tids[i].andCardinality(tids[j]);
+				if (count < support)
+					continue;
+				int ySupport = tids[j].cardinality();
+				if (count == xSupport) {
+					x = concat(x, members[j]);			// cases 1 and 2
+					if (count == ySupport)
+						removed[j] = true;
+				} else {
+					nextMembers[k] = members[j];		// cases 3 and 4
+					nextTids[k++] = tids[i].and(tids[j]);
+					if (count == ySupport)
+						removed[j] = true;
+				}
+			}
+			if (k > 0)
+				charm(x, nextMembers, nextTids, k);
+			addClosed(x, tids[i], xSupport);
+		}
+	}
+
+	// Records a closed itemset unless one found earlier, with the same baskets, contains it
+	private void addClosed(int[] ranks, TidList tids, int count) {
+		int[] set = new int[ranks.length + 1];		// the support, then the sorted ranks
+		set[0] = count;
+		System.arraycopy(ranks, 0, set, 1, ranks.length);
+		Arrays.sort(set, 1, set.length);
+		List<int[]> same = closedBySum.computeIfAbsent(tids.idSum(), s -> new ArrayList<>());
+		for (int[] closed : same)
+			if (closed[0] == count && containsAll(closed, set))
+				return;
+		same.add(set);
+
+		int[] raw = new int[ranks.length];
+		for (int d = 0; d < raw.length; d++)
+			raw[d] = itemIndex.item(set[d + 1]);
+		freqItemsets.add(raw, count);
+	}
+
+	private static int[] concat(int[] a, int[] b) {
+		int[] out = Arrays.copyOf(a, a.length + b.length);
+		System.arraycopy(b, 0, out, a.length, b.length);
+		return out;
+	}
+
+	// True if the sorted ranks of a contain every rank of b (both after their support)
+	private static boolean containsAll(int[] a, int[] b) {
+		int i = 1;
+		for (int d = 1; d < b.length; d++) {
+			int item = b[d];
+			while (i < a.length && a[i] < item)
+				i++;
+			if (i == a.length || a[i] != item)
+				return false;
+		}
+		return true;
+	}
+
+	/**
+	 * @return		The heap footprint of the single-item tid-lists in bytes.
+	 */
+	private long tidListBytes() {
+		long bytes = 0;
+		for (TidList t : tidLists)
+			bytes += t.memoryBytes();
+		return bytes;
+	}
+
+	/**
+	 * Helper method converts the chuck into the number of baskets a pass
+	 * reads: chuck + 1 baskets, as in APriori, or the whole file on the
+	 * first execution.
+	 *
+	 * @return		The number of baskets to read.
+	 */
+	private long basketLimit() {
+		return (chuck == Integer.MAX_VALUE) ? Long.MAX_VALUE : (long) chuck + 1;
+	}
+
+	/**
+	 * Method sets the chuck of the dataset to be considered, as an integer,
+	 * based on a percentage of the overall dataset size. This method is
+	 * intended to be used before the first pass of the next cycle of
+	 * algorithm execution.
+	 *
+	 * @param percentCh		Percentage, as a decimal, of the dataset to use.
+	 */
+	private void configNextRound(int percentCh) {
+		chuck = (int)((double)percentCh/100 * maxBaskets);	// chuck is percentage of our dataset, converted into an integer number of baskets
+		basketCounter = 0;									// reset counter to 0 for first pass of next cycle
+	}
+
+	/**
+	 * Method intended to be used immediately after the first pass, where
+	 * the number of baskets was determined. Sets the support threshold,
+	 * as an integer, based on a percentage of the overall dataset size.
+	 *
+	 * @param percentSupp	Percentage, as a decimal, of the support threshold.
+	 */
+	private void configSupp(double percentSupp) {
+		if (firstExec)
+			support = (int)(percentSupp * maxBaskets);		/* After the first pass of the first run,
+															   support is a fraction of the maximum dataset */
+		else
+			support = (int)(percentSupp * chuck);			/* In subsequent runs after the first, we're accessing
+															   only a fraction of the maximum dataset (ie. chuck value) */
+
+		basketCounter = 0;		// set counter back to zero for second pass
+	}
+
+	/**
+	 * This method executes the same scalability study as APriori and PCY:
+	 * the user provides a support threshold, as a percentage, and the
+	 * method benchmarks the algorithm on dataset sizes of 1%, 5%, 10%,
+	 * 20%, ... , 100% of the dataset. Eclat reads the dataset twice per
+	 * round no matter how large the frequent itemsets get.
+	 *
+	 * @param supp		The support, as a decimal, for the study.
+	 */
+	public void runStudy(double supp) {
+		String fp = Paths.get(System.getProperty("user.dir"), "src", "retail.txt").toString();	/* This filepath relates to where Eclipse instantiates
+		   																	   the JVM (ie. the root project directory) */
+		int dsize = 100;
+
+		for (int i = 0; i < 12; i++) {
+
+			// Start from 100% dataset size down to 1% in 10% increments
+			if (i > 0 && i < 10) {
+				firstExec = false;	// after first execution (i=0), dataset size is known (maxBaskets)
+				configNextRound( (dsize -= 10) );
+			}
+			if (i == 10) {
+				configNextRound( (dsize -= 5) );
+			}
+			if (i == 11) {
+				configNextRound( (dsize -= 4) );
+			}
+
+			// Only interested in execution time of the algorithmic code.
+			long startTime = System.currentTimeMillis();
+			try {
+				firstPass(fp);
+				configSupp(supp);		// set support immediately after first pass
+				makeFreqItemsList();
+				secondPass(fp);
+				mine();
+			} catch (Exception e) { System.out.println(e); }
+
+			long endTime = System.currentTimeMillis();
+			long runTime = endTime - startTime;
+			System.out.println("(" + dsize + "% of Data Size: " + maxBaskets + ")");
+			System.out.println("  Runtime: " + runTime + " ms");
+			System.out.println("  Baskets: " + chuck + ", Support: " + support);
+			System.out.println("  " + label() + ": " + freqItemsets.size() + ", Tid-lists: " + tidListBytes() / 1024 + " KB\n");
+
+			// Clear out the previous run's tables
+			singletons = null;	singletons = new HashMap<>();
+			freqItems = null;	freqItems = new Vector<>();
+			itemIndex = null;
+			tidLists = null;
+			freqPairs = null;
+			freqItemsets = null;
+		}
+	}
+
+	/**
+	 * Mines the whole dataset once, for callers that compare runs, such as
+	 * CondensedStudy.
+	 *
+	 * @param fp		The filepath of the dataset.
+	 * @param supp		The support, as a decimal.
+	 * @return			The frequent itemsets (the closed ones in CLOSED mode).
+	 * @throws IOException
+	 */
+	public FrequentItemsets run(String fp, double supp) throws IOException {
+		singletons = new HashMap<>();
+		freqItems = new Vector<>();
+		firstExec = true;
+		chuck = Integer.MAX_VALUE;
+		basketCounter = 0;
+
+		firstPass(fp);
+		configSupp(supp);
+		makeFreqItemsList();
+		secondPass(fp);
+		mine();
+		return freqItemsets;
+	}
+
+	// What the study reports the itemsets as
+	private String label() {
+		return (mode == Mode.ALL) ? "Frequent itemsets" : "Closed itemsets";
+	}
+
+	public static void main(String[] args) {
+		// Optional argument: the mode (ALL, CLOSED)
+		Eclat eclat = (args.length > 0) ? new Eclat(Mode.valueOf(args[0])) : new Eclat();
+		eclat.runStudy(0.01);				// specify a support percent
+	}
+}
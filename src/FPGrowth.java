@@ -0,0 +1,561 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+public class FPGrowth {
+
+	/**
+	 * What the search outputs.
+	 *   ALL      - every frequent itemset.
+	 *   MAXIMAL  - only the maximal ones, those with no frequent superset,
+	 *              mined directly as in Grahne and Zhu's FPMax (see
+	 *              mineMaximal). Every frequent itemset is a subset of one,
+	 *              but only the maximal itemsets' own supports are kept.
+	 */
+	public enum Mode { ALL, MAXIMAL }
+
+	private final Mode mode;
+
+	private int maxBaskets = 0;					// Before reading our data set, there are 0 baskets.
+	private int basketCounter = 0;				// Which basket in the file
+	private boolean firstExec = true;			// If first execution of algorithm, need to count baskets.
+	private int support = 0;
+	private int chuck = Integer.MAX_VALUE;		/* Since we don't know how many baskets there are initially,
+												    we set the chuck to an arbitrarily large number.
+
+												   Note: Here, a chuck is an integer value representing the
+												         fractional amount of the entire data size (maxBaskets)
+												         Eg. We want 10% of 8816 then chuck = 8816
+												 */
+
+	// Count the occurrence of each item (known as singletons)
+	private Map<Integer, Integer> singletons = new HashMap<>();
+
+	// Frequent singletons are those items with a count >= support
+	private Vector<Integer> freqItems = new Vector<>();
+
+	// Frequent items ranked by descending count, the order in which they are inserted in the tree
+	private ItemIndex itemIndex;
+
+	// The FP-tree of the whole dataset, built during the second pass
+	private FPTree tree;
+
+	// All frequent itemsets of the last run (only the maximal ones in MAXIMAL mode)
+	private FrequentItemsets freqItemsets;
+
+	// The maximal itemsets found so far, as paths of ranks, for the subset checks of FPMax
+	private FPTree maximal;
+
+	/**
+	 * Creates an FP-Growth run that outputs every frequent itemset.
+	 */
+	public FPGrowth() {
+		this(Mode.ALL);
+	}
+
+	/**
+	 * @param mode		Whether to output all frequent itemsets or only the maximal ones.
+	 */
+	public FPGrowth(Mode mode) {
+		this.mode = mode;
+	}
+
+	/**
+	 * This method conducts the first pass over the dataset indicated by
+	 * the filepath parameter. It will read each basket and count the
+	 * occurrence of each individual item and maintain the count in the
+	 * singletons HashMap. During the first pass is when the number of
+	 * baskets in the dataset is determined.
+	 *
+	 * @param fp	The filepath of the dataset.
+	 * @throws IOException
+	 */
+	private void firstPass(String fp) throws IOException {
+		ParallelScan.ItemCounts counts = new ParallelScan.ItemCounts();
+
+		try {
+			basketCounter = (int) BasketReader.read(fp, basketLimit(), counts);
+		} catch (IOException x) {
+		    System.err.println(x);
+		}
+		counts.addTo(singletons);
+
+		if (firstExec)
+			maxBaskets = basketCounter;
+	}
+
+	/**
+	 * This method is the intermediate step between the first and second pass.
+	 * Generates the list of frequent items (ie. item count >= support) and
+	 * ranks them by descending count, so that the most common items sit
+	 * near the root of the FP-tree and paths share as many nodes as possible.
+	 */
+	private void makeFreqItemsList() {
+		for (Map.Entry<Integer, Integer> entry : singletons.entrySet())
+			if (entry.getValue() >= support)
+				freqItems.add(entry.getKey());
+
+		itemIndex = ItemIndex.byFrequency(freqItems, singletons);
+	}
+
+	/**
+	 * This method conducts the second (and last) pass over the dataset
+	 * indicated by the filepath parameter. Each basket is reduced to its
+	 * frequent items, sorted by rank, and inserted into the FP-tree as a
+	 * path from the root. Baskets sharing a prefix share nodes, so the tree
+	 * is usually much smaller than the dataset.
+	 *
+	 * @param fp	The filepath of the dataset.
+	 * @throws IOException
+	 */
+	private void secondPass(String fp) throws IOException {
+		tree = new FPTree(itemIndex.size(), 1 << 12);
+
+		try {
+			basketCounter = (int) BasketReader.read(fp, basketLimit(), new TreeBuilder());
+		} catch (IOException x) {
+		    System.err.println(x);
+		}
+	}
+
+	/**
+	 * Reduces each basket to its frequent items, sorted by rank, and
+	 * inserts it into the FP-tree.
+	 */
+	private class TreeBuilder implements BasketHandler {
+		private int[] ranks = new int[64];
+
+		@Override
+		public void basket(int[] items, int n) {
+			if (ranks.length < n)
+				ranks = new int[n];
+			int m = 0;
+			for (int i = 0; i < n; i++) {
+				int r = itemIndex.rank(items[i]);
+				if (r >= 0)
+					ranks[m++] = r;
+			}
+			m = LevelWise.sortDistinct(ranks, m);
+			if (m > 0)
+				tree.insert(ranks, m, 1);
+		}
+	}
+
+	/**
+	 * This method mines every frequent itemset from the FP-tree without
+	 * reading the dataset again. For each item, from the least frequent up,
+	 * the paths ending in that item form its conditional pattern base; the
+	 * frequent items of that base are built into a conditional FP-tree,
+	 * which is mined recursively with the item appended to the suffix.
+	 */
+	private void mine() {
+		if (mode == Mode.MAXIMAL) {
+			mineMaximal();
+			return;
+		}
+		freqItemsets = new FrequentItemsets();
+		mine(tree, itemIndex, support, freqItemsets::add);
+	}
+
+	/**
+	 * Mines every itemset with a count >= support from an FP-tree, so
+	 * other engines (see SON) can reuse FP-Growth on trees of their own.
+	 *
+	 * @param t			The FP-tree, over the ranks of itemIndex.
+	 * @param itemIndex	Maps the tree's ranks back to items.
+	 * @param support	The support threshold, as a count of baskets.
+	 * @param out		Receives each frequent itemset, unsorted, in an array
+	 * 					that is reused between calls.
+	 */
+	static void mine(FPTree t, ItemIndex itemIndex, int support, CandidateTrie.ItemsetVisitor out) {
+		mine(t, itemIndex, support, out, new int[itemIndex.size()], 0);
+	}
+
+	private static void mine(FPTree t, ItemIndex itemIndex, int support, CandidateTrie.ItemsetVisitor out,
+							 int[] suffix, int depth) {
+		int[] raw = new int[depth + 1];
+		for (int d = 0; d < depth; d++)
+			raw[d + 1] = itemIndex.item(suffix[d]);
+
+		for (int r = t.itemCount.length - 1; r >= 0; r--) {
+			if (t.itemCount[r] < support)
+				continue;
+
+			raw[0] = itemIndex.item(r);
+			out.visit(raw, t.itemCount[r]);
+
+			FPTree cond = t.conditional(r, support);
+			if (cond != null) {
+				suffix[depth] = r;
+				mine(cond, itemIndex, support, out, suffix, depth + 1);
+			}
+		}
+	}
+
+	/**
+	 * This method mines only the maximal frequent itemsets, as FPMax does.
+	 * The search is FP-Growth's, with every maximal itemset found so far
+	 * kept in an FP-tree of its own (the MFI-tree), and three shortcuts:
+	 *   1. Before the conditional tree of suffix + r is built, suffix + r +
+	 *      every item frequent in its pattern base (its tail) is looked up in
+	 *      the MFI-tree. If some maximal itemset contains it, so does every
+	 *      itemset of that branch, which is skipped.
+	 *   2. A tree that is a single path gives one candidate, suffix + the
+	 *      whole path, instead of every combination of the path's items.
+	 *   3. Items are mined from the least frequent up, so an itemset found
+	 *      later never contains one found earlier: a candidate is maximal
+	 *      unless the MFI-tree already holds a superset of it.
+	 */
+	private void mineMaximal() {
+		freqItemsets = new FrequentItemsets();
+		maximal = new FPTree(itemIndex.size(), 1024);
+		if (tree.size > 1)
+			mineMaximal(tree, new int[itemIndex.size()], 0);
+		maximal = null;
+	}
+
+	/**
+	 * @param t			The (conditional) FP-tree of the suffix.
+	 * @param suffix	The ranks of the suffix, in descending order.
+	 * @param depth		How many there are.
+	 */
+	private void mineMaximal(FPTree t, int[] suffix, int depth) {
+		if (t.singlePath()) {
+			int[] set = Arrays.copyOf(suffix, depth + t.size - 1);
+			int count = Integer.MAX_VALUE;
+			for (int node = t.child[0], d = depth; node != 0; node = t.child[node]) {
+				set[d++] = t.item[node];
+				count = Math.min(count, t.count[node]);
+			}
+			addMaximal(set, count);
+			return;
+		}
+
+		for (int r = t.itemCount.length - 1; r >= 0; r--) {
+			if (t.itemCount[r] < support)
+				continue;
+			suffix[depth] = r;
+
+			// The lookahead set, in ascending order: the tail, r, then the suffix
+			int[] counts = t.baseCounts(r);
+			int[] lookahead = new int[r + depth + 1];
+			int n = 0;
+			for (int q = 0; q < r; q++)
+				if (counts[q] >= support)
+					lookahead[n++] = q;
+			int tail = n;
+			for (int d = depth; d >= 0; d--)
+				lookahead[n++] = suffix[d];
+			if (maximal.containsPath(lookahead, n))
+				continue;
+
+			FPTree cond = (tail > 0) ? t.conditional(r, support, counts) : null;
+			if (cond == null)
+				addMaximal(Arrays.copyOf(suffix, depth + 1), t.itemCount[r]);
+			else
+				mineMaximal(cond, suffix, depth + 1);
+		}
+	}
+
+	// Records a candidate unless a maximal itemset found earlier contains it
+	private void addMaximal(int[] ranks, int count) {
+		int[] set = ranks.clone();
+		Arrays.sort(set);
+		if (maximal.containsPath(set, set.length))
+			return;
+		maximal.insert(set, set.length, 1);
+
+		int[] raw = new int[set.length];
+		for (int d = 0; d < set.length; d++)
+			raw[d] = itemIndex.item(set[d]);
+		freqItemsets.add(raw, count);
+	}
+
+	/**
+	 * An FP-tree stored as parallel int arrays instead of node objects.
+	 * Node 0 is the root. Children of a node form a singly linked list
+	 * through sibling[], and all nodes of the same item are chained through
+	 * link[], starting at head[item], so the conditional pattern base of an
+	 * item can be collected without searching the tree.
+	 */
+	static final class FPTree {
+		int[] item, count, parent, child, sibling, link;
+		int size = 1;					// node 0 is the root
+		final int[] head;				// first node of each item, or 0
+		final int[] itemCount;			// total count of each item in the tree
+
+		FPTree(int m, int capacity) {
+			item = new int[capacity];
+			count = new int[capacity];
+			parent = new int[capacity];
+			child = new int[capacity];
+			sibling = new int[capacity];
+			link = new int[capacity];
+			head = new int[m];
+			itemCount = new int[m];
+		}
+
+		/**
+		 * Inserts a path of ranks (ascending, so most frequent first) with
+		 * the given count, sharing any prefix already in the tree.
+		 */
+		void insert(int[] path, int n, int c) {
+			int node = 0;
+			for (int i = 0; i < n; i++) {
+				int r = path[i];
+				int next = child[node];
+				while (next != 0 && item[next] != r)
+					next = sibling[next];
+				if (next == 0)
+					next = newNode(node, r);
+				count[next] += c;
+				itemCount[r] += c;
+				node = next;
+			}
+		}
+
+		private int newNode(int p, int r) {
+			if (size == item.length) {
+				int cap = size * 2;
+				item = Arrays.copyOf(item, cap);
+				count = Arrays.copyOf(count, cap);
+				parent = Arrays.copyOf(parent, cap);
+				child = Arrays.copyOf(child, cap);
+				sibling = Arrays.copyOf(sibling, cap);
+				link = Arrays.copyOf(link, cap);
+			}
+			int node = size++;
+			item[node] = r;
+			parent[node] = p;
+			sibling[node] = child[p];
+			child[p] = node;
+			link[node] = head[r];
+			head[r] = node;
+			return node;
+		}
+
+		/**
+		 * Builds the conditional FP-tree of item r: the prefix paths of
+		 * every r node, weighted by that node's count, keeping only the
+		 * items that are frequent within those paths.
+		 *
+		 * @return		The conditional tree, or null if it has no frequent item.
+		 */
+		FPTree conditional(int r, int support) {
+			return conditional(r, support, baseCounts(r));
+		}
+
+		/**
+		 * Counts the items of the conditional pattern base of item r: the
+		 * prefix paths of every r node, weighted by that node's count.
+		 *
+		 * @return		The count of each item ranked before r, then (at
+		 * 				index r) the number of nodes on those paths, which
+		 * 				bounds the size of the conditional tree.
+		 */
+		int[] baseCounts(int r) {
+			int[] counts = new int[r + 1];		// only items ranked before r can be on its prefix paths
+			for (int node = head[r]; node != 0; node = link[node])
+				for (int p = parent[node]; p != 0; p = parent[p]) {
+					counts[item[p]] += count[node];
+					counts[r]++;
+				}
+			return counts;
+		}
+
+		/**
+		 * Same as conditional(r, support), from the counts of baseCounts(r).
+		 */
+		FPTree conditional(int r, int support, int[] counts) {
+			boolean any = false;
+			for (int q = 0; q < r; q++)
+				if (counts[q] >= support) {
+					any = true;
+					break;
+				}
+			if (!any)
+				return null;
+
+			FPTree cond = new FPTree(r, Math.max(16, counts[r] + 1));
+			int[] path = new int[r];
+			for (int node = head[r]; node != 0; node = link[node]) {
+				int n = 0;
+				for (int p = parent[node]; p != 0; p = parent[p])
+					if (counts[item[p]] >= support)
+						path[n++] = item[p];
+
+				// Parents were collected leaf to root; the tree wants root to leaf
+				for (int i = 0, j = n - 1; i < j; i++, j--) {
+					int tmp = path[i]; path[i] = path[j]; path[j] = tmp;
+				}
+				if (n > 0)
+					cond.insert(path, n, count[node]);
+			}
+			return cond;
+		}
+
+		/**
+		 * @return		True if no node has a sibling, so the tree is one path
+		 * 				(or empty).
+		 */
+		boolean singlePath() {
+			for (int node = 1; node < size; node++)
+				if (sibling[node] != 0)
+					return false;
+			return true;
+		}
+
+		/**
+		 * Checks whether some path from the root holds every rank of a set.
+		 * Each node of the set's last rank is followed up to the root, and
+		 * since ranks decrease on the way up, the other ranks must turn up
+		 * in order.
+		 *
+		 * @param set	Ranks in ascending order.
+		 * @param n		How many there are, at least 1.
+		 * @return		True if the set is a subset of a path.
+		 */
+		boolean containsPath(int[] set, int n) {
+			for (int node = head[set[n - 1]]; node != 0; node = link[node]) {
+				int k = n - 2;
+				for (int p = parent[node]; p != 0 && k >= 0 && item[p] >= set[k]; p = parent[p])
+					if (item[p] == set[k])
+						k--;
+				if (k < 0)
+					return true;
+			}
+			return false;
+		}
+	}
+
+	/**
+	 * Helper method converts the chuck into the number of baskets a pass
+	 * reads: chuck + 1 baskets, as in APriori, or the whole file on the
+	 * first execution.
+	 *
+	 * @return		The number of baskets to read.
+	 */
+	private long basketLimit() {
+		return (chuck == Integer.MAX_VALUE) ? Long.MAX_VALUE : (long) chuck + 1;
+	}
+
+	/**
+	 * Method sets the chuck of the dataset to be considered, as an integer,
+	 * based on a percentage of the overall dataset size. This method is
+	 * intended to be used before the first pass of the next cycle of
+	 * algorithm execution.
+	 *
+	 * @param percentCh		Percentage, as a decimal, of the dataset to use.
+	 */
+	private void configNextRound(int percentCh) {
+		chuck = (int)((double)percentCh/100 * maxBaskets);	// chuck is percentage of our dataset, converted into an integer number of baskets
+		basketCounter = 0;									// reset counter to 0 for first pass of next cycle
+	}
+
+	/**
+	 * Method intended to be used immediately after the first pass, where
+	 * the number of baskets was determined. Sets the support threshold,
+	 * as an integer, based on a percentage of the overall dataset size.
+	 *
+	 * @param percentSupp	Percentage, as a decimal, of the support threshold.
+	 */
+	private void configSupp(double percentSupp) {
+		if (firstExec)
+			support = (int)(percentSupp * maxBaskets);		/* After the first pass of the first run,
+															   support is a fraction of the maximum dataset */
+		else
+			support = (int)(percentSupp * chuck);			/* In subsequent runs after the first, we're accessing
+															   only a fraction of the maximum dataset (ie. chuck value) */
+
+		basketCounter = 0;		// set counter back to zero for second pass
+	}
+
+	/**
+	 * This method executes the same scalability study as APriori and PCY:
+	 * the user provides a support threshold, as a percentage, and the
+	 * method benchmarks the algorithm on dataset sizes of 1%, 5%, 10%,
+	 * 20%, ... , 100% of the dataset. FP-Growth reads the dataset twice
+	 * per round no matter how large the frequent itemsets get.
+	 *
+	 * @param supp		The support, as a decimal, for the study.
+	 */
+	public void runStudy(double supp) {
+		String fp = Paths.get(System.getProperty("user.dir"), "src", "retail.txt").toString();	/* This filepath relates to where Eclipse instantiates
+		   																	   the JVM (ie. the root project directory) */
+		int dsize = 100;
+
+		for (int i = 0; i < 12; i++) {
+
+			// Start from 100% dataset size down to 1% in 10% increments
+			if (i > 0 && i < 10) {
+				firstExec = false;	// after first execution (i=0), dataset size is known (maxBaskets)
+				configNextRound( (dsize -= 10) );
+			}
+			if (i == 10) {
+				configNextRound( (dsize -= 5) );
+			}
+			if (i == 11) {
+				configNextRound( (dsize -= 4) );
+			}
+
+			// Only interested in execution time of the algorithmic code.
+			long startTime = System.currentTimeMillis();
+			try {
+				firstPass(fp);
+				configSupp(supp);		// set support immediately after first pass
+				makeFreqItemsList();
+				secondPass(fp);
+				mine();
+			} catch (Exception e) { System.out.println(e); }
+
+			long endTime = System.currentTimeMillis();
+			long runTime = endTime - startTime;
+			System.out.println("(" + dsize + "% of Data Size: " + maxBaskets + ")");
+			System.out.println("  Runtime: " + runTime + " ms");
+			System.out.println("  Baskets: " + chuck + ", Support: " + support);
+			System.out.println("  " + label() + ": " + freqItemsets.size() + ", FP-tree nodes: " + tree.size + "\n");
+
+			// Clear out the previous run's tables
+			singletons = null;	singletons = new HashMap<>();
+			freqItems = null;	freqItems = new Vector<>();
+			itemIndex = null;
+			tree = null;
+			freqItemsets = null;
+		}
+	}
+
+	/**
+	 * Mines the whole dataset once, for callers that compare runs, such as
+	 * CondensedStudy.
+	 *
+	 * @param fp		The filepath of the dataset.
+	 * @param supp		The support, as a decimal.
+	 * @return			The frequent itemsets (the maximal ones in MAXIMAL mode).
+	 * @throws IOException
+	 */
+	public FrequentItemsets run(String fp, double supp) throws IOException {
+		singletons = new HashMap<>();
+		freqItems = new Vector<>();
+		firstExec = true;
+		chuck = Integer.MAX_VALUE;
+		basketCounter = 0;
+
+		firstPass(fp);
+		configSupp(supp);
+		makeFreqItemsList();
+		secondPass(fp);
+		mine();
+		return freqItemsets;
+	}
+
+	// What the study reports the itemsets as
+	private String label() {
+		return (mode == Mode.ALL) ? "Frequent itemsets" : "Maximal itemsets";
+	}
+
+	public static void main(String[] args) {
+		// Optional argument: the mode (ALL, MAXIMAL)
+		FPGrowth fpg = (args.length > 0) ? new FPGrowth(Mode.valueOf(args[0])) : new FPGrowth();
+		fpg.runStudy(0.01);				// specify a support percent
+	}
+}
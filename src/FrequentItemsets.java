@@ -0,0 +1,105 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * The result of a mining run: every frequent itemset with its support
+ * count. Itemsets are stored as sorted arrays of raw item identifiers
+ * (as they appear in the dataset), so results from different engines
+ * can be compared directly.
+ */
+public class FrequentItemsets {
+
+	private final List<int[]> itemsets = new ArrayList<>();
+	private int[] supports = new int[64];
+
+	/**
+	 * Records a frequent itemset. The array is copied and sorted.
+	 *
+	 * @param items		The items of the itemset, in any order.
+	 * @param support	The number of baskets containing all of the items.
+	 */
+	public void add(int[] items, int support) {
+		int[] copy = items.clone();
+		Arrays.sort(copy);
+		if (itemsets.size() == supports.length)
+			supports = Arrays.copyOf(supports, supports.length * 2);
+		supports[itemsets.size()] = support;
+		itemsets.add(copy);
+	}
+
+	/**
+	 * @return		The number of frequent itemsets.
+	 */
+	public int size() {
+		return itemsets.size();
+	}
+
+	/**
+	 * @param i		Which itemset, in [0, size()).
+	 * @return		The sorted items of the i'th itemset (do not modify).
+	 */
+	public int[] items(int i) {
+		return itemsets.get(i);
+	}
+
+	/**
+	 * @param i		Which itemset, in [0, size()).
+	 * @return		The support count of the i'th itemset.
+	 */
+	public int support(int i) {
+		return supports[i];
+	}
+
+	/**
+	 * @return		The size of the largest frequent itemset, or 0 if there are none.
+	 */
+	public int maxSize() {
+		int max = 0;
+		for (int[] items : itemsets)
+			max = Math.max(max, items.length);
+		return max;
+	}
+
+	/**
+	 * @param k		An itemset size.
+	 * @return		The number of frequent itemsets with exactly k items.
+	 */
+	public int count(int k) {
+		int n = 0;
+		for (int[] items : itemsets)
+			if (items.length == k)
+				n++;
+		return n;
+	}
+
+	/**
+	 * Prints every itemset as "[item1, item2, ..., count]", ordered by size
+	 * and then lexicographically, so two results can be diffed line by line.
+	 *
+	 * @param out	Where to print.
+	 */
+	public void print(PrintStream out) {
+		Integer[] order = new Integer[itemsets.size()];
+		for (int i = 0; i < order.length; i++)
+			order[i] = i;
+		Arrays.sort(order, (a, b) -> {
+			int[] x = itemsets.get(a), y = itemsets.get(b);
+			if (x.length != y.length)
+				return Integer.compare(x.length, y.length);
+			for (int i = 0; i < x.length; i++)
+				if (x[i] != y[i])
+					return Integer.compare(x[i], y[i]);
+			return 0;
+		});
+
+		StringBuilder sb = new StringBuilder();
+		for (int i : order) {
+			sb.setLength(0);
+			sb.append('[');
+			for (int item : itemsets.get(i))
+				sb.append(item).append(", ");
+			sb.append(supports[i]).append(']');
+			out.println(sb);
+		}
+	}
+}
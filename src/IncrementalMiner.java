@@ -0,0 +1,488 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * Incremental mining of frequent items and pairs for a dataset that only
+ * grows, after FUP (Cheung et al., "Maintenance of discovered association
+ * rules in large databases"). Each update() scans the baskets appended
+ * since the last one and persists, next to the dataset as <dataset>.fup:
+ *   - the byte offset processed so far (the end of its last complete
+ *     line) and a CRC32 of the bytes just before it, to notice a file
+ *     that was rewritten rather than appended to,
+ *   - the number of baskets and the support of the last update,
+ *   - the count of every item,
+ *   - the tracked items, and the count of every pair of tracked items.
+ *
+ * Pairs of tracked items have exact counts, so an update only adds the
+ * counts of the tail to them. A pair with an untracked item (one that just
+ * became frequent) was counted nowhere, but its count in the old data is
+ * at most the smaller old count of its two items, which are known. Only
+ * when that bound plus its count in the tail reaches the new support can
+ * the pair be frequent, and only then is the old data read again to
+ * count it. Tracked are the items with a count of at least margin times
+ * the support, not only the frequent ones, so an item that crosses the
+ * threshold was usually tracked already and needs no verifying. Items
+ * that fall below the margin are no longer tracked, which keeps the pair
+ * table to pairs of (nearly) frequent items.
+ *
+ * Each update reports which case happened (see Update), and what became
+ * frequent or stopped being frequent. A last line without a newline is
+ * left for the next update, since it may still be being written.
+ */
+public class IncrementalMiner {
+
+	/**
+	 * What an update had to read.
+	 *   FULL      - no usable state (first run, or the dataset was not
+	 *               merely appended to): the whole file was read.
+	 *   NONE      - nothing was appended and no candidate needed
+	 *               verifying: the counts were only re-thresholded.
+	 *   TAIL      - only the appended baskets were read.
+	 *   VERIFIED  - the appended baskets, and the old ones once more to
+	 *               count the pairs of newly tracked items.
+	 */
+	public enum Update { FULL, NONE, TAIL, VERIFIED }
+
+	private static final int MAGIC = 0x46555031;		// "FUP1"
+	private static final int VERSION = 1;
+	private static final int FINGERPRINT = 4096;		// bytes before the offset covered by the CRC
+
+	private final String fp;
+	private final Path statePath;
+
+	// Items are tracked down to this fraction of the support
+	private double margin = 0.8;
+
+	// The state of the last update
+	private long offset = 0;
+	private long crc = 0;
+	private int baskets = 0;
+	private int support = 0;
+	private Map<Integer, Integer> singletons = new HashMap<>();
+	private Set<Integer> tracked = new HashSet<>();
+	private int[] pairItems = new int[0];			// two items per pair of tracked items
+	private int[] pairCounts = new int[0];
+
+	// What the last update did
+	private Update update;
+	private int appended = 0;
+	private int candidates = 0;
+	private int itemsAdded = 0, itemsDropped = 0;
+	private int pairsAdded = 0, pairsDropped = 0;
+
+	/**
+	 * @param fp	The filepath of an uncompressed dataset.
+	 */
+	public IncrementalMiner(String fp) {
+		this(fp, statePath(fp));
+	}
+
+	/**
+	 * @param fp			The filepath of an uncompressed dataset.
+	 * @param statePath		Where to persist the state between updates.
+	 */
+	public IncrementalMiner(String fp, Path statePath) {
+		this.fp = fp;
+		this.statePath = statePath;
+	}
+
+	/**
+	 * @return		The path of the state belonging to a dataset.
+	 */
+	public static Path statePath(String fp) {
+		return Paths.get(fp + ".fup");
+	}
+
+	/**
+	 * Sets how far below the support items are still tracked. A lower
+	 * margin verifies less often, at the cost of a larger pair table and
+	 * tail pass; 1 tracks only the frequent items.
+	 *
+	 * @param margin	The fraction of the support, in (0, 1].
+	 */
+	public void setMargin(double margin) {
+		if (margin <= 0 || margin > 1)
+			throw new IllegalArgumentException("margin must be in (0, 1]");
+		this.margin = margin;
+	}
+
+	/**
+	 * Brings the frequent items and pairs up to date with the dataset,
+	 * reading as little of it as the persisted state allows, and persists
+	 * the new state.
+	 *
+	 * @param supp		The support, as a decimal of the baskets so far.
+	 * @return			The frequent items and pairs of the whole dataset.
+	 * @throws IOException
+	 */
+	public FrequentItemsets update(double supp) throws IOException {
+		if (CompressedInput.detect(fp) != CompressedInput.Kind.NONE)
+			throw new IOException("Incremental mining needs an uncompressed dataset: " + fp);
+		BasketReader.Format format = BasketReader.Format.of(fp);
+
+		try (FileChannel ch = FileChannel.open(Paths.get(fp), StandardOpenOption.READ)) {
+			long end = lastLineEnd(ch);
+			boolean restored = load() && offset <= end && crc == fingerprint(ch, offset);
+			if (!restored)
+				reset();
+
+			// The frequent items and pairs before the update, for the report
+			int oldSupport = support;
+			Set<Integer> oldItems = new HashSet<>();
+			for (Map.Entry<Integer, Integer> entry : singletons.entrySet())
+				if (entry.getValue() >= oldSupport)
+					oldItems.add(entry.getKey());
+			Set<Long> oldPairs = new HashSet<>();
+			for (int p = 0; p < pairCounts.length; p++)
+				if (pairCounts[p] >= oldSupport)
+					oldPairs.add(pack(pairItems[2 * p], pairItems[2 * p + 1]));
+
+			// Pass 1 over the tail: the new singleton counts
+			Map<Integer, Integer> oldCounts = new HashMap<>(singletons);
+			PassMetrics pass = PassMetrics.start("Incremental", "tail items");
+			ParallelScan.ItemCounts items = new ParallelScan.ItemCounts();
+			appended = (int) BasketReader.read(ch, offset, end, Long.MAX_VALUE, items, null, format);
+			items.addTo(singletons);
+			baskets += appended;
+			support = (int) (supp * baskets);
+			pass.scanned(appended, end - offset).put("distinctItems", singletons.size()).emit();
+
+			Set<Integer> frequent = new HashSet<>(), watched = new HashSet<>();
+			int watch = Math.max(1, (int) (margin * support));
+			for (Map.Entry<Integer, Integer> entry : singletons.entrySet())
+				if (entry.getValue() >= watch) {
+					watched.add(entry.getKey());
+					if (entry.getValue() >= support)
+						frequent.add(entry.getKey());
+				}
+
+			// Pass 2 over the tail: the pairs of items tracked before or after the update
+			Set<Integer> counted = new HashSet<>(tracked);
+			counted.addAll(watched);
+			ItemIndex itemIndex = new ItemIndex(counted);
+			PairCounter pairs = PairCounter.create(itemIndex.size());
+			if (end > offset) {
+				pass = PassMetrics.start("Incremental", "tail pairs");
+				BasketReader.read(ch, offset, end, Long.MAX_VALUE, new PairWorker(itemIndex, null, pairs), null, format);
+				pass.scanned(appended, end - offset).put("pairCounterBytes", pairs.memoryBytes()).emit();
+			}
+
+			// The pairs that may have become frequent without being counted before
+			boolean[] fresh = new boolean[itemIndex.size()];
+			List<Integer> ranks = new ArrayList<>();
+			for (int r = 0; r < itemIndex.size(); r++) {
+				fresh[r] = watched.contains(itemIndex.item(r)) && !tracked.contains(itemIndex.item(r));
+				if (frequent.contains(itemIndex.item(r)))
+					ranks.add(r);
+			}
+			candidates = 0;
+			for (int a : ranks)
+				if (fresh[a])
+					for (int b : ranks)
+						if (b != a && (!fresh[b] || b > a) && pairs.count(a, b) + Math.min(
+								oldCounts.getOrDefault(itemIndex.item(a), 0),
+								oldCounts.getOrDefault(itemIndex.item(b), 0)) >= support)
+							candidates++;
+
+			// The tail counts are added to the old ones only now, so pairs.count() above is the tail's
+			for (int p = 0; p < pairCounts.length; p++)
+				pairs.add(itemIndex.rank(pairItems[2 * p]), itemIndex.rank(pairItems[2 * p + 1]), pairCounts[p]);
+
+			if (!restored || offset == 0) {
+				update = Update.FULL;
+				candidates = 0;			// nothing old to verify against
+				tracked = watched;
+			} else if (candidates > 0) {
+				// Count the pairs with a newly tracked item in the old baskets
+				update = Update.VERIFIED;
+				pass = PassMetrics.start("Incremental", "verify");
+				long old = BasketReader.read(ch, 0, offset, Long.MAX_VALUE, new PairWorker(itemIndex, fresh, pairs),
+											 null, format);
+				pass.scanned(old, offset).put("candidatePairs", candidates).emit();
+				tracked = watched;
+			} else {
+				update = (end > offset) ? Update.TAIL : Update.NONE;
+				tracked.retainAll(watched);
+			}
+
+			// Keep the pairs of tracked items, and report what changed
+			FrequentItemsets result = new FrequentItemsets();
+			for (int item : new TreeSet<>(frequent))
+				result.add(new int[] { item }, singletons.get(item));
+			itemsAdded = 0;
+			for (int item : frequent)
+				if (!oldItems.remove(item))
+					itemsAdded++;
+			itemsDropped = oldItems.size();
+
+			boolean[] keep = new boolean[itemIndex.size()];
+			for (int r = 0; r < keep.length; r++)
+				keep[r] = tracked.contains(itemIndex.item(r));
+			int[] n = { 0 }, added = { 0 };
+			pairItems = new int[2 * pairs.size()];
+			pairCounts = new int[pairs.size()];
+			pairs.forEach((a, b, c) -> {
+				if (!keep[a] || !keep[b])
+					return;
+				int x = itemIndex.item(a), y = itemIndex.item(b);
+				pairItems[2 * n[0]] = x;
+				pairItems[2 * n[0] + 1] = y;
+				pairCounts[n[0]++] = c;
+				if (c >= support) {
+					result.add(new int[] { x, y }, c);
+					if (!oldPairs.remove(pack(x, y)))
+						added[0]++;
+				}
+			});
+			pairItems = Arrays.copyOf(pairItems, 2 * n[0]);
+			pairCounts = Arrays.copyOf(pairCounts, n[0]);
+			pairsAdded = added[0];
+			pairsDropped = oldPairs.size();
+
+			offset = end;
+			crc = fingerprint(ch, offset);
+			save();
+			return result;
+		}
+	}
+
+	/**
+	 * Counts the pairs of the items of an ItemIndex in each basket, or only
+	 * those with a fresh item when fresh is given.
+	 */
+	private static class PairWorker implements BasketHandler {
+		private final ItemIndex itemIndex;
+		private final boolean[] fresh;
+		private final PairCounter pairs;
+		private int[] ranks = new int[64];
+
+		PairWorker(ItemIndex itemIndex, boolean[] fresh, PairCounter pairs) {
+			this.itemIndex = itemIndex;
+			this.fresh = fresh;
+			this.pairs = pairs;
+		}
+
+		@Override
+		public void basket(int[] items, int n) {
+			if (ranks.length < n)
+				ranks = new int[n];
+			int m = 0;
+			for (int i = 0; i < n; i++) {
+				int r = itemIndex.rank(items[i]);
+				if (r >= 0)
+					ranks[m++] = r;
+			}
+			m = LevelWise.sortDistinct(ranks, m);
+
+			for (int i = 0; i < m; i++)
+				for (int j = i + 1; j < m; j++)
+					if (fresh == null || fresh[ranks[i]] || fresh[ranks[j]])
+						pairs.increment(ranks[i], ranks[j]);
+		}
+	}
+
+	private static long pack(int a, int b) {
+		return ((long) a << 32) | (b & 0xFFFFFFFFL);
+	}
+
+	// Forgets the state, so the next update reads the whole file
+	private void reset() {
+		offset = 0;
+		crc = 0;
+		baskets = 0;
+		support = 0;
+		singletons = new HashMap<>();
+		tracked = new HashSet<>();
+		pairItems = new int[0];
+		pairCounts = new int[0];
+	}
+
+	/**
+	 * Finds the offset just past the last newline of the file, or 0 if it
+	 * has none.
+	 */
+	private static long lastLineEnd(FileChannel ch) throws IOException {
+		for (long end = ch.size(); end > 0; ) {
+			long start = Math.max(0, end - (1 << 16));
+			MappedByteBuffer map = ch.map(FileChannel.MapMode.READ_ONLY, start, end - start);
+			for (int k = map.limit() - 1; k >= 0; k--)
+				if (map.get(k) == '\n')
+					return start + k + 1;
+			end = start;
+		}
+		return 0;
+	}
+
+	/**
+	 * CRC32 of the FINGERPRINT bytes before an offset (fewer at the start
+	 * of the file), or -1 if the file is shorter than that.
+	 */
+	private static long fingerprint(FileChannel ch, long offset) throws IOException {
+		if (offset > ch.size())
+			return -1;
+		long start = Math.max(0, offset - FINGERPRINT);
+		CRC32 check = new CRC32();
+		byte[] bytes = new byte[(int) (offset - start)];
+		ch.map(FileChannel.MapMode.READ_ONLY, start, bytes.length).get(bytes);
+		check.update(bytes, 0, bytes.length);
+		return check.getValue();
+	}
+
+	/**
+	 * Reads the persisted state, if there is a valid one.
+	 *
+	 * @return		True if the state was restored.
+	 */
+	private boolean load() {
+		if (!Files.isRegularFile(statePath))
+			return false;
+		try (DataInputStream in = new DataInputStream(
+				new BufferedInputStream(Files.newInputStream(statePath), 1 << 16))) {
+			if (in.readInt() != MAGIC || in.readInt() != VERSION)
+				return false;
+			offset = in.readLong();
+			crc = in.readLong();
+			baskets = in.readInt();
+			support = in.readInt();
+			singletons = new HashMap<>();
+			for (int i = in.readInt(); i > 0; i--)
+				singletons.put(in.readInt(), in.readInt());
+			tracked = new HashSet<>();
+			for (int i = in.readInt(); i > 0; i--)
+				tracked.add(in.readInt());
+			int n = in.readInt();
+			pairItems = new int[2 * n];
+			pairCounts = new int[n];
+			for (int p = 0; p < n; p++) {
+				pairItems[2 * p] = in.readInt();
+				pairItems[2 * p + 1] = in.readInt();
+				pairCounts[p] = in.readInt();
+			}
+			return true;
+		} catch (IOException x) {
+			System.err.println(x);
+			return false;
+		}
+	}
+
+	// Writes the state to a temporary file first, so a crash leaves the old one
+	private void save() throws IOException {
+		Path tmp = Paths.get(statePath + ".tmp");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(tmp), 1 << 16))) {
+			out.writeInt(MAGIC);
+			out.writeInt(VERSION);
+			out.writeLong(offset);
+			out.writeLong(crc);
+			out.writeInt(baskets);
+			out.writeInt(support);
+			out.writeInt(singletons.size());
+			for (Map.Entry<Integer, Integer> entry : singletons.entrySet()) {
+				out.writeInt(entry.getKey());
+				out.writeInt(entry.getValue());
+			}
+			out.writeInt(tracked.size());
+			for (int item : tracked)
+				out.writeInt(item);
+			out.writeInt(pairCounts.length);
+			for (int p = 0; p < pairCounts.length; p++) {
+				out.writeInt(pairItems[2 * p]);
+				out.writeInt(pairItems[2 * p + 1]);
+				out.writeInt(pairCounts[p]);
+			}
+		}
+		Files.move(tmp, statePath, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * @return		What the last update had to read.
+	 */
+	public Update lastUpdate() {
+		return update;
+	}
+
+	/**
+	 * @return		The number of baskets the last update read past the
+	 * 				previous offset.
+	 */
+	public int appended() {
+		return appended;
+	}
+
+	/**
+	 * @return		The number of pairs with a newly tracked item whose bound
+	 * 				reached the support, so the last update counted them in
+	 * 				the old baskets.
+	 */
+	public int candidates() {
+		return candidates;
+	}
+
+	/**
+	 * @return		The number of items that became frequent in the last update.
+	 */
+	public int itemsAdded() {
+		return itemsAdded;
+	}
+
+	/**
+	 * @return		The number of items that stopped being frequent in the
+	 * 				last update.
+	 */
+	public int itemsDropped() {
+		return itemsDropped;
+	}
+
+	/**
+	 * @return		The number of pairs that became frequent in the last update.
+	 */
+	public int pairsAdded() {
+		return pairsAdded;
+	}
+
+	/**
+	 * @return		The number of pairs that stopped being frequent in the
+	 * 				last update.
+	 */
+	public int pairsDropped() {
+		return pairsDropped;
+	}
+
+	/**
+	 * @return		The number of baskets of the dataset as of the last update.
+	 */
+	public int baskets() {
+		return baskets;
+	}
+
+	/**
+	 * @return		The support count of the last update.
+	 */
+	public int support() {
+		return support;
+	}
+
+	public static void main(String[] args) {
+		// Optional arguments: the dataset (default retail.txt) and the support (default 0.01)
+		String fp = (args.length > 0) ? args[0]
+					: Paths.get(System.getProperty("user.dir"), "src", "retail.txt").toString();
+		double supp = (args.length > 1) ? Double.parseDouble(args[1]) : 0.01;
+		try {
+			long startTime = System.currentTimeMillis();
+			IncrementalMiner miner = new IncrementalMiner(fp);
+			FrequentItemsets sets = miner.update(supp);
+			System.out.println("  Update: " + miner.lastUpdate() + ", " + miner.appended() + " baskets appended ("
+							   + miner.baskets() + " in all), support " + miner.support() + ", items +"
+							   + miner.itemsAdded() + "/-" + miner.itemsDropped() + ", pairs +" + miner.pairsAdded()
+							   + "/-" + miner.pairsDropped() + ", " + miner.candidates() + " candidate pairs to verify");
+			System.out.println("  " + sets.count(1) + " frequent items, " + sets.count(2) + " frequent pairs, Runtime: "
+							   + (System.currentTimeMillis() - startTime) + " ms");
+		} catch (IOException x) {
+		    System.err.println(x);
+		}
+	}
+}
@@ -0,0 +1,131 @@
+import java.util.*;
+
+/**
+ * Remaps the raw item identifiers of the frequent items onto the dense
+ * ranks 0..m-1, where m is the number of frequent items. By default ranks
+ * follow the ascending order of the raw identifiers, so a pair of ranks
+ * (i, j) with i < j always refers to the pair of items in the same order.
+ * byFrequency() instead gives rank 0 to the most frequent item, which is
+ * the order FP-Growth inserts items into its tree.
+ *
+ * Lookups are done in a primitive int[] indexed directly by the raw item
+ * when the identifiers are reasonably small (as in retail.txt), and in a
+ * primitive open-addressing table otherwise. Items that are not frequent
+ * map to -1.
+ */
+public class ItemIndex {
+
+	private static final int DIRECT_LIMIT = 1 << 22;	// Largest raw item we will index directly with an array
+
+	private final int[] itemOf;			// rank -> raw item
+	private int[] rankOf;				// raw item -> rank (direct mode only)
+	private int[] keys;					// raw items (hashed mode only)
+	private int[] vals;					// ranks stored alongside keys (hashed mode only)
+	private int mask;
+
+	/**
+	 * Builds the index from the list of frequent items produced by
+	 * makeFreqItemsList().
+	 *
+	 * @param freqItems		The frequent items, in any order.
+	 */
+	public ItemIndex(Collection<Integer> freqItems) {
+		this(sorted(freqItems));
+	}
+
+	/**
+	 * Builds an index where rank 0 is the most frequent item. Ties are
+	 * broken by the raw identifier so the order is deterministic.
+	 *
+	 * @param freqItems		The frequent items, in any order.
+	 * @param singletons	The count of every item from the first pass.
+	 * @return				The frequency-ordered index.
+	 */
+	public static ItemIndex byFrequency(Collection<Integer> freqItems, Map<Integer, Integer> singletons) {
+		Integer[] order = freqItems.toArray(new Integer[0]);
+		Arrays.sort(order, (a, b) -> {
+			int c = Integer.compare(singletons.get(b), singletons.get(a));
+			return c != 0 ? c : Integer.compare(a, b);
+		});
+		int[] items = new int[order.length];
+		for (int r = 0; r < items.length; r++)
+			items[r] = order[r];
+		return new ItemIndex(items);
+	}
+
+	private static int[] sorted(Collection<Integer> freqItems) {
+		int[] items = new int[freqItems.size()];
+		int n = 0;
+		for (Integer item : freqItems)
+			items[n++] = item;
+		Arrays.sort(items);
+		return items;
+	}
+
+	/**
+	 * @param itemOf	The raw items in rank order, without duplicates.
+	 */
+	private ItemIndex(int[] itemOf) {
+		this.itemOf = itemOf;
+		int n = itemOf.length;
+		int minItem = Integer.MAX_VALUE, maxItem = 0;
+		for (int item : itemOf) {
+			minItem = Math.min(minItem, item);
+			maxItem = Math.max(maxItem, item);
+		}
+
+		if (n == 0 || (minItem >= 0 && maxItem < DIRECT_LIMIT)) {
+			rankOf = new int[maxItem + 1];
+			Arrays.fill(rankOf, -1);
+			for (int r = 0; r < n; r++)
+				rankOf[itemOf[r]] = r;
+		} else {
+			int cap = Integer.highestOneBit(Math.max(2, n) * 2) << 1;
+			keys = new int[cap];
+			vals = new int[cap];
+			Arrays.fill(vals, -1);
+			mask = cap - 1;
+			for (int r = 0; r < n; r++) {
+				int slot = slot(itemOf[r]);
+				keys[slot] = itemOf[r];
+				vals[slot] = r;
+			}
+		}
+	}
+
+	/**
+	 * Finds the slot holding the item, or the empty slot where it belongs.
+	 */
+	private int slot(int item) {
+		int h = item * 0x9E3779B9;
+		int slot = (h ^ (h >>> 16)) & mask;
+		while (vals[slot] != -1 && keys[slot] != item)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	/**
+	 * @param item	A raw item identifier as it appears in the dataset.
+	 * @return		The dense rank of the item, or -1 if it is not frequent.
+	 */
+	public int rank(int item) {
+		if (rankOf != null)
+			return (item >= 0 && item < rankOf.length) ? rankOf[item] : -1;
+		return vals[slot(item)];
+	}
+
+	/**
+	 * @param rank	A dense rank in [0, size()).
+	 * @return		The raw item identifier for that rank.
+	 */
+	public int item(int rank) {
+		return itemOf[rank];
+	}
+
+	/**
+	 * @return		The number of frequent items, m.
+	 */
+	public int size() {
+		return itemOf.length;
+	}
+}
@@ -0,0 +1,284 @@
+import java.io.*;
+import java.util.*;
+
+/**
+ * Level-wise A Priori driver for itemsets larger than pairs. It runs after
+ * the second pass of APriori or PCY, starting from the frequent pairs, and
+ * repeats the two classic steps until a level produces nothing:
+ *   1. Generate the candidate (k+1)-itemsets by joining frequent k-itemsets
+ *      that share their first k-1 items, and prune every candidate that has
+ *      a k-subset which is not frequent (monotonicity of support).
+ *   2. Count all candidates in one pass over the dataset using a
+ *      CandidateTrie, and keep those with a count >= support.
+ *
+ * The candidates, frequent itemsets and trie memory of each level go to
+ * PassMetrics, and are printed as it runs only when verbose, as in the
+ * scalability studies.
+ * In Top-K mode each level is offered to a TopK heap once counted, and
+ * the support rises to the heap's threshold before the next level.
+ */
+public class LevelWise {
+
+	private final ItemIndex itemIndex;
+	private int support;
+	private final long basketLimit;
+	private final int maxSize;
+
+	// The best itemsets in Top-K mode, null when mining at a fixed support
+	private TopK topK;
+
+	// Print each level as it runs
+	private boolean verbose = false;
+
+	// The recoded baskets of the first pass, counted instead of the file when set
+	private BasketStore store;
+	private int[] storeRanks;		// store rank -> rank in itemIndex
+
+	/**
+	 * @param itemIndex		The dense ranks of the frequent items.
+	 * @param support		The support threshold, as a count of baskets.
+	 * @param basketLimit	The number of baskets each pass reads, matching
+	 * 						the engine's own passes.
+	 * @param maxSize		The largest itemset size to mine.
+	 */
+	public LevelWise(ItemIndex itemIndex, int support, long basketLimit, int maxSize) {
+		this.itemIndex = itemIndex;
+		this.support = support;
+		this.basketLimit = basketLimit;
+		this.maxSize = maxSize;
+	}
+
+	/**
+	 * Switches to Top-K mode: itemsets of three or more items are offered
+	 * to the heap level by level, and each level raises the support the
+	 * next one is generated from. The pairs are left to the engine, which
+	 * offers them before it calls run().
+	 *
+	 * @param topK		The heap of the best itemsets.
+	 */
+	public void setTopK(TopK topK) {
+		this.topK = topK;
+	}
+
+	/**
+	 * Prints each level's candidates and frequent itemsets as it runs.
+	 *
+	 * @param verbose	True to print, false (the default) to stay quiet.
+	 */
+	public void setVerbose(boolean verbose) {
+		this.verbose = verbose;
+	}
+
+	/**
+	 * Counts each level in the engine's BasketStore, one weighted visit per
+	 * distinct basket, instead of reading the dataset again.
+	 *
+	 * @param store		The recoded baskets, of the same frequent items.
+	 */
+	public void setBasketStore(BasketStore store) {
+		this.store = store;
+		this.storeRanks = (store != null) ? store.ranksIn(itemIndex) : null;
+	}
+
+	/**
+	 * Mines every frequent itemset, from the singletons up to maxSize items.
+	 *
+	 * @param fp			The filepath of the dataset.
+	 * @param itemCounts	The count of each frequent item, indexed by rank.
+	 * @param pairs			The pair counts from the second pass.
+	 * @return				All frequent itemsets with their supports.
+	 * @throws IOException
+	 */
+	public FrequentItemsets run(String fp, int[] itemCounts, PairCounter pairs) throws IOException {
+		FrequentItemsets result = new FrequentItemsets();
+		for (int r = 0; r < itemIndex.size(); r++)
+			result.add(new int[] { itemIndex.item(r) }, itemCounts[r]);
+
+		// Level 2 comes straight from the second pass, sorted lexicographically
+		long[] packed = new long[pairs.size()];
+		int[] n = { 0 };
+		pairs.forEach((i, j, c) -> {
+			if (c >= support)
+				packed[n[0]++] = ((long) i << 32) | j;
+		});
+		Arrays.sort(packed, 0, n[0]);
+		int[] freq = new int[2 * n[0]];
+		for (int p = 0; p < n[0]; p++) {
+			freq[2 * p] = (int) (packed[p] >>> 32);
+			freq[2 * p + 1] = (int) packed[p];
+			result.add(new int[] { itemIndex.item(freq[2 * p]), itemIndex.item(freq[2 * p + 1]) },
+					   pairs.count(freq[2 * p], freq[2 * p + 1]));
+		}
+
+		for (int k = 2; k < maxSize && freq.length > 0; k++) {
+			int[] candidates = generateCandidates(freq, k);
+			if (candidates.length == 0) {
+				if (verbose)
+					System.out.println("  Level " + (k + 1) + ": no candidates, stopping");
+				break;
+			}
+
+			CandidateTrie trie = new CandidateTrie(candidates, k + 1);
+			PassMetrics pass = PassMetrics.start("LevelWise", "level " + (k + 1));
+			countPass(fp, trie, pass);
+
+			final int size = k + 1;
+			int[] next = new int[candidates.length];
+			int[] used = { 0 };
+			int[] raw = new int[size];
+			if (topK != null) {
+				trie.forEach((items, count) -> {
+					if (count >= support) {
+						for (int d = 0; d < size; d++)
+							raw[d] = itemIndex.item(items[d]);
+						topK.offer(raw, count);
+					}
+				});
+				support = Math.max(support, topK.support());
+				pass.put("support", support);
+			}
+			trie.forEach((items, count) -> {
+				if (count >= support) {
+					System.arraycopy(items, 0, next, used[0], size);
+					used[0] += size;
+					for (int d = 0; d < size; d++)
+						raw[d] = itemIndex.item(items[d]);
+					result.add(raw, count);
+				}
+			});
+			freq = Arrays.copyOf(next, used[0]);
+			pass.put("candidates", trie.size()).put("frequent", freq.length / size)
+				.put("trieBytes", trie.memoryBytes()).emit();
+
+			if (verbose)
+				System.out.println("  Level " + size + ": " + trie.size() + " candidates ("
+								   + (trie.memoryBytes() + 4L * candidates.length) / 1024 + " KB), "
+								   + freq.length / size + " frequent");
+		}
+		return result;
+	}
+
+	/**
+	 * Joins frequent k-itemsets sharing their first k-1 items into
+	 * candidate (k+1)-itemsets, and prunes any candidate with a k-subset
+	 * that is not frequent. Since the input is in lexicographic order,
+	 * so is the output.
+	 *
+	 * @param freq		The frequent k-itemsets back to back, in lexicographic order.
+	 * @param k			The size of the frequent itemsets.
+	 * @return			The candidate (k+1)-itemsets back to back.
+	 */
+	static int[] generateCandidates(int[] freq, int k) {
+		int n = freq.length / k;
+		CandidateTrie frequent = new CandidateTrie(freq, k);
+		int[] out = new int[Math.max(16, freq.length)];
+		int used = 0;
+		int[] cand = new int[k + 1];
+		int[] subset = new int[k];
+
+		for (int a = 0; a < n; a++) {
+			for (int b = a + 1; b < n && samePrefix(freq, a, b, k); b++) {
+				System.arraycopy(freq, a * k, cand, 0, k);
+				cand[k] = freq[b * k + k - 1];
+
+				// Dropping item k or k-1 gives back a or b, so check the others
+				boolean keep = true;
+				for (int drop = 0; drop < k - 1 && keep; drop++) {
+					for (int s = 0, t = 0; s <= k; s++)
+						if (s != drop)
+							subset[t++] = cand[s];
+					keep = frequent.contains(subset);
+				}
+
+				if (keep) {
+					if (used + k + 1 > out.length)
+						out = Arrays.copyOf(out, out.length * 2);
+					System.arraycopy(cand, 0, out, used, k + 1);
+					used += k + 1;
+				}
+			}
+		}
+		return Arrays.copyOf(out, used);
+	}
+
+	private static boolean samePrefix(int[] freq, int a, int b, int k) {
+		for (int d = 0; d < k - 1; d++)
+			if (freq[a * k + d] != freq[b * k + d])
+				return false;
+		return true;
+	}
+
+	/**
+	 * Counts the candidates in the trie with one pass over the dataset, or
+	 * over the BasketStore when there is one. Each basket is reduced to the
+	 * sorted, distinct ranks of its frequent items before it is walked down
+	 * the trie.
+	 *
+	 * @param fp		The filepath of the dataset.
+	 * @param trie		The candidates to count.
+	 * @param pass		The metrics of the pass, stopped once it is read.
+	 * @throws IOException
+	 */
+	private void countPass(String fp, CandidateTrie trie, PassMetrics pass) throws IOException {
+		if (store != null) {
+			store.scan(1, () -> new TrieCounter(trie));
+			pass.scanned(store.baskets(), store.memoryBytes());
+			return;
+		}
+		ParallelScan scan = new ParallelScan(fp, 1);
+		try {
+			scan.scan(basketLimit, () -> new TrieCounter(trie));
+		} catch (IOException x) {
+			System.err.println(x);
+		}
+		pass.scanned(scan);
+	}
+
+	/**
+	 * Reduces each basket to its frequent items and counts it in the trie.
+	 */
+	private class TrieCounter implements BasketHandler, BasketStore.Visitor {
+		private final CandidateTrie trie;
+		private int[] ranks = new int[64];
+
+		TrieCounter(CandidateTrie trie) {
+			this.trie = trie;
+		}
+
+		@Override
+		public void basket(int[] items, int n) {
+			if (ranks.length < n)
+				ranks = new int[n];
+			int m = 0;
+			for (int i = 0; i < n; i++) {
+				int r = itemIndex.rank(items[i]);
+				if (r >= 0)
+					ranks[m++] = r;
+			}
+			trie.count(ranks, sortDistinct(ranks, m));
+		}
+
+		@Override
+		public void basket(int[] items, int n, int weight) {
+			if (ranks.length < n)
+				ranks = new int[n];
+			for (int i = 0; i < n; i++)
+				ranks[i] = storeRanks[items[i]];
+			trie.count(ranks, sortDistinct(ranks, n), weight);
+		}
+	}
+
+	/**
+	 * Sorts the first n ranks and removes repeated items in place.
+	 *
+	 * @return		The number of distinct ranks.
+	 */
+	static int sortDistinct(int[] ranks, int n) {
+		Arrays.sort(ranks, 0, n);
+		int m = 0;
+		for (int i = 0; i < n; i++)
+			if (m == 0 || ranks[m - 1] != ranks[i])
+				ranks[m++] = ranks[i];
+		return m;
+	}
+}
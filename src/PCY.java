@@ -4,6 +4,16 @@ import java.util.*;
 
 public class PCY {
 	
+	/**
+	 * The flavour of PCY to run.
+	 *   SINGLE      - classic PCY, one hash table counted during the first pass.
+	 *   MULTISTAGE  - adds an extra pass that rehashes the surviving candidate
+	 *                 pairs into a second table with an independent hash.
+	 *   MULTIHASH   - counts several smaller tables, each with its own hash,
+	 *                 during the first pass.
+	 */
+	public enum Mode { SINGLE, MULTISTAGE, MULTIHASH }
+	
 	private int maxBaskets = 0;					// Before reading our data set, there are 0 baskets.
 	private int basketCounter = 0;				// Which basket in the file
 	private boolean firstExec = true;			// If first execution of algorithm, need to count baskets.
@@ -21,15 +31,70 @@ public class PCY {
 	// Frequent singletons are those items with a count >= support 
 	private Vector<Integer> freqItems = new Vector<>();
 	
-	// Frequent pairs and their counts are stored using triples implemented by this data structure
-	private Map<Integer, HashMap<Integer, Integer>> freqPairs = new HashMap<>();
+	// Frequent items remapped to dense ranks 0..m-1, built once the frequent items are known
+	private ItemIndex itemIndex;
+	
+	// Candidate pairs and their counts, kept in a triangular matrix or as triples (see PairCounter)
+	private PairCounter freqPairs;
+	
+	// Largest itemset size to mine; above 2, LevelWise continues after the second pass
+	private int maxItemsetSize = 2;
+	
+	// All frequent itemsets of the last run, when maxItemsetSize > 2
+	private FrequentItemsets freqItemsets;
+	
+	// Worker threads for the first and second pass; 1 runs the original single-threaded passes
+	private int threads = 1;
+	
+	// Metrics of the first pass, completed once the frequent items are known (see PassMetrics)
+	private PassMetrics metrics;
+	
+	// The best itemsets in Top-K mode (see TopK), null when mining at a fixed support
+	private TopK topK;
+	
+	// Keep the baskets of the first pass for the later ones (see BasketStore), or read the file again
+	private boolean useStore = Boolean.getBoolean("basketStore");
+	private BasketStore store;
+	private int[] storeRanks;		// store rank -> rank in itemIndex
+	private int[] storeItems;		// store rank -> item, for the hashes
 	
 	// FOLLOWING ARE PCY-SPECIFIC DATASTRUCTURES
-	// 1. Hash a pair of items to a bucket of a hash table
-	private Map<Integer, Integer> buckets = new HashMap<>();
+	private final Mode mode;
+	private final int numBuckets;				// Total number of buckets, shared by all tables (bounds first pass memory)
+	private final int numHashes;				// Number of hash tables (MULTIHASH only)
+	
+	// 1. Hash a pair of items to a bucket of a fixed-size hash table, one table per hash function
+	private int[][] buckets;
+	
+	// 2. A bitmap of frequent (1) and non-frequent (0) buckets, one per table
+	private BitSet[] bitvec;
 	
-	// 2. A bitmap of frequent (1) and non-frequent (0) buckets
-	private BitSet bitvec;
+	/**
+	 * Creates a classic PCY run with 2^20 buckets (4 MB of counts).
+	 */
+	public PCY() {
+		this(Mode.SINGLE, 1 << 20, 1);
+	}
+	
+	/**
+	 * @param mode			Which flavour of PCY to run.
+	 * @param numBuckets	Total number of buckets. In MULTIHASH mode they are
+	 * 						split evenly between the tables, so first pass memory
+	 * 						is 4 * numBuckets bytes in every mode.
+	 * @param numHashes		Number of hash tables for MULTIHASH (ignored otherwise).
+	 * 						Each table needs at least one bucket, so it may not
+	 * 						exceed numBuckets.
+	 */
+	public PCY(Mode mode, int numBuckets, int numHashes) {
+		if (numBuckets < 1 || numHashes < 1)
+			throw new IllegalArgumentException("numBuckets and numHashes must be positive");
+		this.mode = mode;
+		this.numBuckets = numBuckets;
+		this.numHashes = (mode == Mode.MULTIHASH) ? numHashes : 1;
+		if (numBuckets < this.numHashes)
+			throw new IllegalArgumentException("numBuckets must be at least numHashes, got "
+											   + numBuckets + " < " + numHashes);
+	}
 	
 	/**
 	 * This method conducts the first pass over the dataset indicated by
@@ -38,60 +103,43 @@ public class PCY {
 	 * singletons HashMap. During the first pass is when the number of
 	 * baskets in the dataset is determined. The extra step for PCY
 	 * algorithm involves creating a pair, generate a hash from the pair,
-	 * and storing a map of the hash and count. Note: possibility of
+	 * and adding 1 to that bucket of a fixed-size table (one table per
+	 * hash function in MULTIHASH mode). Note: possibility of
 	 * "incorrect" collision which would create a false positive frequent
-	 * pair if it hashed to a frequent bucket.
+	 * pair if it hashed to a frequent bucket. Baskets are parsed by a
+	 * BasketReader, on as many threads as configured (see ParallelScan);
+	 * each worker has its own tables, which are added up at the end. With
+	 * the basket store on, the workers also keep the distinct baskets with
+	 * their weights, so the later passes need not read the file.
 	 * 
 	 * @param fp	The filepath of the dataset.
 	 * @throws IOException
 	 */
 	private void firstPass(String fp) throws IOException {
-		Path file = Paths.get(fp);
+		ParallelScan scan = new ParallelScan(fp, threads);
+		metrics = PassMetrics.start("PCY", "first");
 		
-		try (InputStream in = Files.newInputStream(file);
-			 BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
-			
-		    String line = null;
-		    String[] tokens;
-		    
-		 // For (each basket) :
-		    while ((line = reader.readLine()) != null && basketCounter <= chuck) {
-		        tokens = line.split(" ");
-		        
-		        // For (each item in the basket) :
-	        	//   add 1 to the item's count;
-		        for (int i = 0; i < tokens.length; i++) {
-		        	int value = Integer.parseInt(tokens[i]);
-		        	
-		        	if (singletons.containsKey(value))
-		        		singletons.put(value, singletons.get(value) + 1);
-		        	else
-		        		singletons.put(value, 1);
-		        }
-		        
-		        // PCY'S EXTRA STEP
-		        //
-		        // For (each pair of items) :
-	        	//	 hash the pair to a bucket;
-	        	//	 add 1 to the count for that bucket;
-	        	for (int i = 0; i < tokens.length; i++) {		        	
-		        	for (int j = i + 1; j < tokens.length; j++) {
-		        		int p1 = Integer.parseInt(tokens[i]);
-		        		int p2 = Integer.parseInt(tokens[j]);		        		
-		        		int h = hash(p1, p2);
-		        		
-		        		if (buckets.containsKey(h))
-		        			buckets.put(h, buckets.get(h) + 1);
-		        		else 
-		        			buckets.put(h, 1);
-		        	}
-	        	}
-	        	
-	        	basketCounter++;
-		    }
+		// Every table gets an equal share of the bucket budget
+		buckets = new int[numHashes][tableSize(0)];
+		
+		try {
+			for (BucketWorker worker : scan.scan(basketLimit(), BucketWorker::new)) {
+				worker.addTo(singletons);
+				for (int t = 0; t < numHashes; t++)
+					for (int k = 0; k < buckets[t].length; k++)
+						buckets[t][k] += worker.tables[t][k];
+				if (worker.store() != null) {
+					if (store == null)
+						store = worker.store();
+					else
+						store.addAll(worker.store());
+				}
+			}
 		} catch (IOException x) {
 		    System.err.println(x);
 		}
+		basketCounter = (int) scan.baskets();
+		metrics.scanned(scan).put("distinctItems", singletons.size());
 		
 		if (firstExec)
 			maxBaskets = basketCounter;
@@ -103,52 +151,178 @@ public class PCY {
 	}
 	
 	/**
-	 * This method generates a hash value from hashing a pair of items.
-	 * Notes: This method was auto-generated by Eclipse.
+	 * This method hashes a pair of items to a bucket of a table. The pair is
+	 * put in (smaller, larger) order so both orders land in the same bucket,
+	 * packed into a long and run through a 64-bit finalizer (from MurmurHash3)
+	 * salted with the table number, so each table gets an independent hash.
+	 * The result always lies in [0, size), so negative item values cannot
+	 * break the bit vector's indexing.
 	 * 
 	 * @param p1	The first element of a pair.
 	 * @param p2	The second element of a pair.
-	 * @return		The hash value of the pair.
+	 * @param t		Which hash function (table) to use.
+	 * @param size	The number of buckets in that table.
+	 * @return		The bucket index of the pair.
 	 */
-	private int hash(int p1, int p2) {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result + p1;
-		result = prime * result + p2;
-		return result;
+	static int hash(int p1, int p2, int t, int size) {
+		long h = (p1 < p2) ? ((long) p1 << 32) | (p2 & 0xFFFFFFFFL)
+						   : ((long) p2 << 32) | (p1 & 0xFFFFFFFFL);
+		h += (t + 1) * 0x9E3779B97F4A7C15L;
+		h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+		h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		h ^= h >>> 33;
+		return (int) ((h >>> 1) % size);
 	}
 	
 	/**
 	 * This method is an intermediate step between the first and second pass
 	 * of the PCY algorithm. Generates a bit vector (implemented using a BitSet)
-	 * to replace the hash table of pairs. The bit's index represents the 
-	 * hash value, and the bit's value indicates whether the bucket is
-	 * frequent (ie. count >= support) or not frequent.
+	 * to replace each hash table of pairs. The bit's index represents the 
+	 * bucket, and the bit's value indicates whether the bucket is
+	 * frequent (ie. count >= support) or not frequent. The tables are
+	 * released afterwards, which is what frees room for the second pass.
 	 */
 	private void makeBitVector() {
-		Integer pairCount, index;
-
-		bitvec = new BitSet(largestBucketKey() + 1);
-		for (Map.Entry<Integer, Integer> entry : buckets.entrySet()) {
-			index = entry.getKey();
-			pairCount = entry.getValue();
-			if (pairCount >= support)
-				bitvec.set(index);		// If the i'th index of the hash table is frequent, 
-										// set the bit vector's i'th index to 1.
+		bitvec = new BitSet[buckets.length];
+		for (int t = 0; t < buckets.length; t++)
+			bitvec[t] = toBitVector(buckets[t]);
+		putBucketMetrics(metrics, buckets, bitvec);
+		buckets = null;
+	}
+	
+	/**
+	 * Helper method records how full the tables were (the fraction of
+	 * buckets some pair hashed to) and the fraction of frequent buckets,
+	 * over all the tables. The more frequent buckets, the less the bit
+	 * vectors prune.
+	 * 
+	 * @param pass		The metrics of the pass that filled the tables.
+	 * @param tables	The bucket counts.
+	 * @param bits		Their bit vectors.
+	 */
+	private static void putBucketMetrics(PassMetrics pass, int[][] tables, BitSet[] bits) {
+		long total = 0, used = 0, frequent = 0;
+		for (int t = 0; t < tables.length; t++) {
+			total += tables[t].length;
+			for (int count : tables[t])
+				if (count != 0)
+					used++;
+			frequent += bits[t].cardinality();
 		}
+		pass.put("buckets", total).put("bucketFill", (total > 0) ? (double) used / total : 0.0)
+			.put("frequentBuckets", (total > 0) ? (double) frequent / total : 0.0);
+	}
+	
+	/**
+	 * Helper method turns one table of bucket counts into its bit vector.
+	 * 
+	 * @param table		The bucket counts.
+	 * @return			A bit vector where bit i is set if bucket i is frequent.
+	 */
+	private BitSet toBitVector(int[] table) {
+		BitSet bits = new BitSet(table.length);
+		for (int i = 0; i < table.length; i++)
+			if (table[i] >= support)
+				bits.set(i);		// If the i'th index of the hash table is frequent, 
+									// set the bit vector's i'th index to 1.
+		return bits;
 	}
 	
 	/**
-	 * Helper method finds the largest key (ie. hash value) from the hash 
-	 * table, so that the bit vector generated contains the range of indices
-	 * from [0, max(key)].
+	 * This method is the extra pass of Multistage PCY, run between
+	 * makeFreqItemsList() and the second pass. It rehashes only the pairs
+	 * that are still candidates (both items frequent, frequent bucket in
+	 * the first table) into a second table using an independent hash, and
+	 * turns that table into a second bit vector. A pair then has to hash
+	 * to a frequent bucket in both bit vectors to be counted. With the
+	 * basket store on, the pass visits its distinct baskets instead of the
+	 * file, adding each basket's weight to the buckets.
 	 * 
-	 * @return		The largest hash value in the hash table.
+	 * @param fp	The filepath of the dataset.
+	 * @throws IOException
 	 */
-	private int largestBucketKey() {
-		ArrayList<Integer> tmp = new ArrayList<>(buckets.keySet());
-		Collections.sort(tmp);
-		return Collections.max(tmp);
+	private void multistagePass(String fp) throws IOException {
+		ParallelScan scan = new ParallelScan(fp, threads);
+		PassMetrics pass = PassMetrics.start("PCY", "multistage");
+		int[] table = new int[numBuckets];
+		
+		try {
+			for (StageWorker worker : (store != null) ? store.scan(threads, StageWorker::new)
+													  : scan.scan(basketLimit(), StageWorker::new))
+				for (int k = 0; k < table.length; k++)
+					table[k] += worker.table[k];
+		} catch (IOException x) {
+		    System.err.println(x);
+		}
+		
+		if (store != null)
+			pass.scanned(store.baskets(), store.memoryBytes());
+		else
+			pass.scanned(scan);
+		
+		BitSet[] stages = Arrays.copyOf(bitvec, bitvec.length + 1);
+		stages[bitvec.length] = toBitVector(table);
+		bitvec = stages;
+		putBucketMetrics(pass, new int[][] { table }, new BitSet[] { stages[stages.length - 1] });
+		pass.emit();
+		basketCounter = 0;		// set counter back to zero for second pass
+	}
+	
+	/**
+	 * Thread-local state of one multistagePass() worker.
+	 */
+	private class StageWorker implements BasketHandler, BasketStore.Visitor {
+		private final int[] table = new int[numBuckets];
+		private int[] frequent = new int[64];
+		
+		@Override
+		public void basket(int[] items, int n) {
+			if (frequent.length < n)
+				frequent = new int[n];
+			int m = 0;
+			for (int i = 0; i < n; i++)
+				if (itemIndex.rank(items[i]) >= 0)
+					frequent[m++] = items[i];
+			
+			for (int i = 0; i < m; i++)
+				for (int j = i + 1; j < m; j++)
+					if (isCandidate(frequent[i], frequent[j]))
+						table[hash(frequent[i], frequent[j], 1, table.length)]++;
+		}
+		
+		@Override
+		public void basket(int[] items, int n, int weight) {
+			for (int i = 0; i < n; i++)
+				for (int j = i + 1; j < n; j++) {
+					int p1 = storeItems[items[i]], p2 = storeItems[items[j]];
+					if (isCandidate(p1, p2))
+						table[hash(p1, p2, 1, table.length)] += weight;
+				}
+		}
+	}
+	
+	/**
+	 * Helper method checks a pair of frequent items against every bit vector.
+	 * Bit vector t was built with hash function t, in every mode.
+	 * 
+	 * @param p1	The first element of a pair.
+	 * @param p2	The second element of a pair.
+	 * @return		True if the pair hashes to a frequent bucket in every table.
+	 */
+	private boolean isCandidate(int p1, int p2) {
+		for (int t = 0; t < bitvec.length; t++)
+			if (!bitvec[t].get(hash(p1, p2, t, tableSize(t))))
+				return false;
+		return true;
+	}
+	
+	/**
+	 * @param t		Which table.
+	 * @return		The number of buckets in table t. The first pass tables
+	 * 				share the budget, the Multistage table gets all of it.
+	 */
+	private int tableSize(int t) {
+		return (t < numHashes) ? numBuckets / numHashes : numBuckets;
 	}
 	
 	/**
@@ -166,6 +340,21 @@ public class PCY {
 			}
 		}
 		
+		// Remap the frequent items to dense ranks so the second pass can count pairs in primitive arrays
+		itemIndex = new ItemIndex(freqItems);
+		
+		// Drop the infrequent items from the stored baskets, now that the support is known
+		if (store != null) {
+			store = store.recode(freqItems, singletons);
+			storeRanks = store.ranksIn(itemIndex);
+			storeItems = new int[storeRanks.length];
+			for (int r = 0; r < storeItems.length; r++)
+				storeItems[r] = store.item(r);
+			metrics.put("uniqueBaskets", store.size()).put("storeBytes", store.memoryBytes());
+		}
+		
+		metrics.put("support", support).put("frequentItems", freqItems.size()).emit();
+		
 		/* FOR TESTING
 		for (int i = 0; i < freqItems.size(); i++) 
 			System.out.println("index: " + i + ", item: " + freqItems.get(i));
@@ -178,71 +367,218 @@ public class PCY {
 	 * the filepath parameter. It will read each basket and generate pairs
 	 * using a nested for loop. Only pairs with elements that are frequent
 	 * (ie. exist in the frequent item's list) and that hash to a frequent
-	 * bucket, are recorded as candidate pairs using the triples approach, 
-	 * [item1, item2, count]. Repeated pairs causes their triples' count 
-	 * to be incremented.
+	 * bucket, are recorded as candidate pairs. Items are looked up by their
+	 * dense rank in the ItemIndex, and pairs are counted in a PairCounter
+	 * (a triangular matrix, or triples when there are too many frequent
+	 * items). Repeated pairs causes their count to be incremented. With
+	 * several threads, each worker counts its part of the file in its own
+	 * PairCounter and the counters are added up. With the basket store on,
+	 * the pass visits its distinct baskets instead of the file, adding each
+	 * candidate pair once with the basket's weight.
 	 * 
 	 * @param fp	The filepath of the dataset.
 	 * @throws IOException
 	 */
 	public void secondPass(String fp) throws IOException {
-		Path file = Paths.get(fp);
+		ParallelScan scan = new ParallelScan(fp, threads);
+		PassMetrics pass = PassMetrics.start("PCY", "second");
+		long rejected = 0;
 		
-		try (InputStream in = Files.newInputStream(file);
-			 BufferedReader reader = new BufferedReader(new InputStreamReader(in))) {
-			
-		    String line = null;
-		    String[] tokens;
-		    
-		    while ((line = reader.readLine()) != null && basketCounter <= chuck) {
-		        tokens = line.split(" ");
-		        
-		        for (int i = 0; i < tokens.length; i++) {		        	
-		        	for (int j = i+1; j < tokens.length; j++) {
-		        		Integer p1 = Integer.parseInt(tokens[i]); 
-   						Integer p2 = Integer.parseInt(tokens[j]);		        		
-		        		int h = hash(p1, p2);
-		        		
-		        		// Check if each element of the pair is frequent and
-		        		// if the pair hashes to a frequent bucket
-		        		if (freqItems.contains(p1) && freqItems.contains(p2)
-		        			&& bitvec.get(h) == true) {
-		        			
-		        			// If the pair exists, increment the count...
-		        			if (freqPairs.containsKey(p1)) {
-		        				if (freqPairs.get(p1).containsKey(p2)) {
-		        					Integer pairCount = freqPairs.get(p1).get(p2);
-		        					freqPairs.get(p1).put(p2, pairCount + 1);
-		        				} else {
-		        					freqPairs.get(p1).put(p2, 1);
-		        				}		        					
-		        			} 
-		        			// Otherwise, create a new triple with a count of 1.
-		        			else
-		        				freqPairs.put(p1, new HashMap<Integer, Integer>(){{put(p2, 1);}});
-		        		}       	
-		        	}
-		        }
-		        basketCounter++;
-		    }
+		try {
+			List<PairWorker> workers = (store != null) ? store.scan(threads, PairWorker::new)
+													   : scan.scan(basketLimit(), PairWorker::new);
+			freqPairs = workers.get(0).pairs;
+			for (int w = 1; w < workers.size(); w++)
+				freqPairs.addAll(workers.get(w).pairs);
+			for (PairWorker worker : workers)
+				rejected += worker.rejected;
 		} catch (IOException x) {
 		    System.err.println(x);
 		}
-		
-		/* FOR TESTING 
-		for (Map.Entry<Integer, HashMap<Integer, Integer>> first : freqPairs.entrySet()) {
-		    Integer i = first.getKey();
-		    for (Map.Entry<Integer, Integer> second : first.getValue().entrySet()) {
-		        Integer j = second.getKey();
-		        Integer c = second.getValue();
-		        
-		        System.out.println("[" + i + ", " + j + ", " + c +"]");
-		    }
+		if (store != null) {
+			basketCounter = (int) store.baskets();
+			pass.scanned(store.baskets(), store.memoryBytes());
+		} else {
+			basketCounter = (int) scan.baskets();
+			pass.scanned(scan);
 		}
+		pass.put("pairsRejectedByBitmap", rejected);
+		APriori.putPairMetrics(pass, freqPairs, support);
+		pass.emit();
+		
+		/* FOR TESTING
+		freqPairs.forEach((i, j, c) ->
+			System.out.println("[" + itemIndex.item(i) + ", " + itemIndex.item(j) + ", " + c + "]"));
 		System.out.println("...end of pass 2...");
 		*/
 	}
 	
+	/**
+	 * Thread-local state of one firstPass() worker: its singleton counts
+	 * (from ItemCounts) and its own bucket tables.
+	 */
+	private class BucketWorker extends ParallelScan.ItemCounts {
+		private final int[][] tables = new int[numHashes][tableSize(0)];
+		
+		BucketWorker() {
+			if (useStore)
+				keepBaskets();
+		}
+		
+		@Override
+		public void basket(int[] items, int n) {
+			// For (each item in the basket) :
+			//   add 1 to the item's count;
+			super.basket(items, n);
+			
+			// PCY'S EXTRA STEP
+			//
+			// For (each pair of items) :
+			//	 hash the pair to a bucket (of each table);
+			//	 add 1 to the count for that bucket;
+			for (int i = 0; i < n; i++)
+				for (int j = i + 1; j < n; j++)
+					for (int t = 0; t < numHashes; t++)
+						tables[t][hash(items[i], items[j], t, tables[t].length)]++;
+		}
+	}
+	
+	/**
+	 * Thread-local state of one secondPass() worker: the frequent items of
+	 * each basket, with their dense ranks, and a PairCounter for its pairs.
+	 */
+	private class PairWorker implements BasketHandler, BasketStore.Visitor {
+		private final PairCounter pairs = PairCounter.create(itemIndex.size());
+		private int[] frequent = new int[64];
+		private int[] ranks = new int[64];
+		private long rejected = 0;		// pairs of frequent items in an infrequent bucket
+		
+		@Override
+		public void basket(int[] items, int n) {
+			if (ranks.length < n) {
+				frequent = new int[n];
+				ranks = new int[n];
+			}
+			int m = 0;
+			for (int i = 0; i < n; i++) {
+				int r = itemIndex.rank(items[i]);
+				if (r >= 0) {
+					frequent[m] = items[i];
+					ranks[m++] = r;
+				}
+			}
+			
+			// Both elements of the pair are frequent; also check
+			// if the pair hashes to a frequent bucket (in every table)
+			for (int i = 0; i < m; i++)
+				for (int j = i + 1; j < m; j++)
+					if (isCandidate(frequent[i], frequent[j]))
+						pairs.increment(ranks[i], ranks[j]);
+					else
+						rejected++;
+		}
+		
+		@Override
+		public void basket(int[] items, int n, int weight) {
+			for (int i = 0; i < n; i++)
+				for (int j = i + 1; j < n; j++)
+					if (isCandidate(storeItems[items[i]], storeItems[items[j]]))
+						pairs.add(storeRanks[items[i]], storeRanks[items[j]], weight);
+					else
+						rejected += weight;
+		}
+	}
+	
+	/**
+	 * This method continues the algorithm past pairs. Starting from the
+	 * pairs counted in the second pass, LevelWise generates and counts
+	 * candidate triples, quadruples, ... one pass per level, until a level
+	 * has no candidates or maxItemsetSize is reached.
+	 * 
+	 * @param fp		The filepath of the dataset.
+	 * @param verbose	Whether to print each level, as the study does.
+	 * @throws IOException
+	 */
+	private void higherPasses(String fp, boolean verbose) throws IOException {
+		LevelWise levels = new LevelWise(itemIndex, support, basketLimit(), maxItemsetSize);
+		levels.setTopK(topK);
+		levels.setBasketStore(store);
+		levels.setVerbose(verbose);
+		freqItemsets = levels.run(fp, itemCounts(), freqPairs);
+	}
+	
+	/**
+	 * Helper method gathers the count of each frequent item by its rank.
+	 * 
+	 * @return		The counts, indexed by rank in the ItemIndex.
+	 */
+	private int[] itemCounts() {
+		int[] itemCounts = new int[itemIndex.size()];
+		for (int r = 0; r < itemCounts.length; r++)
+			itemCounts[r] = singletons.get(itemIndex.item(r));
+		return itemCounts;
+	}
+	
+	/**
+	 * Sets the number of worker threads used by the first and second pass.
+	 * With more than one thread, each pass splits the file into byte ranges
+	 * counted in parallel (see ParallelScan); the counts are the same.
+	 * 
+	 * @param n		The number of threads, at least 1.
+	 */
+	public void setThreads(int n) {
+		threads = Math.max(1, n);
+	}
+	
+	/**
+	 * Turns the basket store on or off (it starts as -DbasketStore says).
+	 * When on, the first pass keeps the distinct baskets with their weights,
+	 * recoded to the frequent items once the support is known, and the
+	 * later passes count them instead of reading the file (see BasketStore).
+	 * 
+	 * @param on	True to keep the baskets.
+	 */
+	public void setBasketStore(boolean on) {
+		useStore = on;
+	}
+	
+	/**
+	 * Helper method converts the chuck into the number of baskets a pass
+	 * reads. The sequential passes read while basketCounter <= chuck, so
+	 * that is chuck + 1 baskets, or the whole file on the first execution.
+	 * 
+	 * @return		The number of baskets to read.
+	 */
+	private long basketLimit() {
+		return (chuck == Integer.MAX_VALUE) ? Long.MAX_VALUE : (long) chuck + 1;
+	}
+	
+	/**
+	 * Helper method clears out the previous run's tables.
+	 */
+	private void clearTables() {
+		singletons = null;	singletons = new HashMap<>();
+		freqItems = null;	freqItems = new Vector<>();
+		itemIndex = null;
+		freqPairs = null;
+		freqItemsets = null;
+		buckets = null;
+		bitvec = null;
+		store = null;
+		storeRanks = null;
+		storeItems = null;
+	}
+	
+	/**
+	 * Sets the largest itemset size the study will mine. The default of 2
+	 * stops after the frequent pairs, as in the original algorithm.
+	 * 
+	 * @param k		The largest itemset size, at least 2.
+	 */
+	public void setMaxItemsetSize(int k) {
+		maxItemsetSize = Math.max(2, k);
+	}
+	
 	/**
 	 * Method sets the chuck of the dataset to be considered, as an integer,
 	 * based on a percentage of the overall dataset size. This method is 
@@ -274,6 +610,39 @@ public class PCY {
 		basketCounter = 0;		// set counter back to zero for second pass
 	}
 	
+	/**
+	 * Method used in Top-K mode immediately after the first pass, in place
+	 * of configSupp. Offers every singleton to the heap, then takes the
+	 * heap's threshold as the support, so the items and the buckets
+	 * are pruned with it.
+	 */
+	private void configTopK() {
+		int[] item = new int[1];
+		for (Map.Entry<Integer, Integer> entry : singletons.entrySet()) {
+			item[0] = entry.getKey();
+			topK.offer(item, entry.getValue());
+		}
+		support = topK.support();
+		basketCounter = 0;		// set counter back to zero for second pass
+	}
+	
+	/**
+	 * Method used in Top-K mode after the second pass. Offers the pairs
+	 * counted at the current support to the heap and raises the support
+	 * to its threshold for the higher passes.
+	 */
+	private void offerPairs() {
+		int[] pair = new int[2];
+		freqPairs.forEach((i, j, c) -> {
+			if (c >= support) {
+				pair[0] = itemIndex.item(i);
+				pair[1] = itemIndex.item(j);
+				topK.offer(pair, c);
+			}
+		});
+		support = Math.max(support, topK.support());
+	}
+	
 	/**
 	 * This method executes the logic for the scalability study outlined in
 	 * 60-475 Project 1. The user provides a support threshold, as a
@@ -283,7 +652,7 @@ public class PCY {
 	 * @param supp		The support, as a decimal, for the study.
 	 */
 	public void runStudy(double supp) {
-		String fp = System.getProperty("user.dir") + "\\src\\retail.txt";	/* This filepath relates to where Eclipse instantiates
+		String fp = Paths.get(System.getProperty("user.dir"), "src", "retail.txt").toString();	/* This filepath relates to where Eclipse instantiates
 		 																	   the JVM (ie. the root project directory) */
 		int dsize = 100;
 		
@@ -303,32 +672,225 @@ public class PCY {
 			
 			// Only interested in execution time of the algorithmic code.
 			long startTime = System.currentTimeMillis();		
+			int roundBaskets = 0;
 			try {
 				firstPass(fp);
+				roundBaskets = basketCounter;
 				configSupp(supp);		// set support immediately after first pass 
 				makeBitVector();
 				makeFreqItemsList();
+				if (mode == Mode.MULTISTAGE)
+					multistagePass(fp);
 				secondPass(fp);
+				if (maxItemsetSize > 2)
+					higherPasses(fp, true);
 			} catch (Exception e) { System.out.println(e); }
 			
 			long endTime = System.currentTimeMillis();
 			long runTime = endTime - startTime;
 			System.out.println("(" + dsize + "% of Data Size: " + maxBaskets + ")");
 			System.out.println("  Runtime: " + runTime + " ms");
-			System.out.println("  Baskets: " + chuck + ", Support: " + support + "\n");
+			System.out.println("  Baskets: " + chuck + ", Support: " + support);
+			System.out.println("  Threads: " + threads + ", Throughput: "
+							   + (mode == Mode.MULTISTAGE ? 3L : 2L) * roundBaskets * 1000 / Math.max(1, runTime) + " baskets/s\n");
 			
 			// Clear out the previous run's tables
-			singletons = null;	singletons = new HashMap<>();
-			freqItems = null;	freqItems = new Vector<>();
-			freqPairs = null;	freqPairs = new HashMap<>();
-			buckets = null;		buckets = new HashMap<>();
-			bitvec = null;
+			clearTables();
 		}
 	}
 	
-
+	/**
+	 * Runs a single round of the study on percentCh percent of the dataset,
+	 * for callers that time the rounds themselves, such as the JMH
+	 * benchmarks. The first call reads the whole dataset to learn its size,
+	 * like the first round of runStudy; later calls read percentCh of it.
+	 * 
+	 * @param fp			The filepath of the dataset.
+	 * @param supp			The support, as a decimal.
+	 * @param percentCh		Percentage of the dataset to use after the first call.
+	 * @return				The number of frequent itemsets of two or more items.
+	 * @throws IOException
+	 */
+	public int runRound(String fp, double supp, int percentCh) throws IOException {
+		if (maxBaskets > 0) {
+			firstExec = false;
+			configNextRound(percentCh);
+		}
+		
+		try {
+			firstPass(fp);
+			configSupp(supp);
+			makeBitVector();
+			makeFreqItemsList();
+			if (mode == Mode.MULTISTAGE)
+				multistagePass(fp);
+			secondPass(fp);
+			if (maxItemsetSize > 2) {
+				higherPasses(fp, false);
+				return freqItemsets.size() - itemIndex.size();
+			}
+			int[] frequent = { 0 };
+			freqPairs.forEach((i, j, c) -> {
+				if (c >= support)
+					frequent[0]++;
+			});
+			return frequent[0];
+		} finally {
+			clearTables();
+		}
+	}
+	
+	/**
+	 * Mines the whole dataset once, up to maxItemsetSize, and keeps the
+	 * run's counts (unlike the study, which clears them) so supportIndex()
+	 * can hand them to a RuleGenerator.
+	 * 
+	 * @param fp		The filepath of the dataset.
+	 * @param supp		The support, as a decimal.
+	 * @return			All frequent itemsets, singletons and pairs included.
+	 * @throws IOException
+	 */
+	public FrequentItemsets run(String fp, double supp) throws IOException {
+		clearTables();
+		firstExec = true;
+		chuck = Integer.MAX_VALUE;
+		basketCounter = 0;
+		
+		firstPass(fp);
+		configSupp(supp);
+		makeBitVector();
+		makeFreqItemsList();
+		if (mode == Mode.MULTISTAGE)
+			multistagePass(fp);
+		secondPass(fp);
+		higherPasses(fp, false);
+		return freqItemsets;
+	}
+	
+	/**
+	 * Indexes the supports counted by the last run(): the singletons of the
+	 * first pass and the PairCounter of the second pass as they are, and
+	 * the larger itemsets of the higher passes. The PairCounter only holds
+	 * the candidate pairs, those in frequent buckets, which include every
+	 * frequent pair and so every pair a rule needs.
+	 * 
+	 * @return		The support index of the last run.
+	 */
+	public SupportIndex supportIndex() {
+		SupportIndex index = new SupportIndex(itemIndex, itemCounts(), freqPairs, maxBaskets);
+		index.addAll(freqItemsets);
+		return index;
+	}
+	
+	/**
+	 * Mines the K itemsets of highest support in the whole dataset, up to
+	 * maxItemsetSize items, instead of those above a support percentage.
+	 * The support starts at the K'th best singleton count and rises after
+	 * every level (see TopK), so each pass prunes with the tightest
+	 * threshold known at the time.
+	 * 
+	 * @param fp		The filepath of the dataset.
+	 * @param k			How many itemsets to return.
+	 * @return			The K best itemsets, singletons included, the highest support first.
+	 * @throws IOException
+	 */
+	public FrequentItemsets runTopK(String fp, int k) throws IOException {
+		clearTables();
+		firstExec = true;
+		chuck = Integer.MAX_VALUE;
+		basketCounter = 0;
+		topK = new TopK(k);
+		
+		try {
+			firstPass(fp);
+			configTopK();
+			makeBitVector();
+			makeFreqItemsList();
+			if (mode == Mode.MULTISTAGE)
+				multistagePass(fp);
+			secondPass(fp);
+			offerPairs();
+			if (maxItemsetSize > 2)
+				higherPasses(fp, false);
+			return topK.result();
+		} finally {
+			topK = null;
+			clearTables();
+		}
+	}
+	
+	/**
+	 * This method benchmarks how the passes scale with the number of
+	 * threads. On the full dataset, it runs the first and second pass with
+	 * 1, 2, 4, ... up to maxThreads threads and reports the runtime, the
+	 * throughput in baskets per second and the speedup over one thread.
+	 * 
+	 * @param supp			The support, as a decimal, for the study.
+	 * @param maxThreads	The largest number of threads to try.
+	 */
+	public void runThreadStudy(double supp, int maxThreads) {
+		String fp = Paths.get(System.getProperty("user.dir"), "src", "retail.txt").toString();
+		int saved = threads;
+		long baseTime = 0;
+		
+		// 1, 2, 4, ... and finally maxThreads itself
+		for (int t = 1; t <= maxThreads; t = (t == maxThreads) ? t + 1 : Math.min(t * 2, maxThreads)) {
+			threads = t;
+			firstExec = true;
+			chuck = Integer.MAX_VALUE;
+			basketCounter = 0;
+			
+			long startTime = System.currentTimeMillis();
+			try {
+				firstPass(fp);
+				configSupp(supp);
+				makeBitVector();
+				makeFreqItemsList();
+				if (mode == Mode.MULTISTAGE)
+					multistagePass(fp);
+				secondPass(fp);
+			} catch (Exception e) { System.out.println(e); }
+			
+			long runTime = Math.max(1, System.currentTimeMillis() - startTime);
+			if (t == 1)
+				baseTime = runTime;
+			System.out.println("(" + t + " threads, Data Size: " + maxBaskets + ")");
+			System.out.println("  Runtime: " + runTime + " ms");
+			System.out.println("  Throughput: " + (mode == Mode.MULTISTAGE ? 3L : 2L) * maxBaskets * 1000 / runTime + " baskets/s"
+							   + ", Speedup: " + String.format("%.2f", (double) baseTime / runTime) + "x\n");
+			
+			clearTables();
+		}
+		threads = saved;
+	}
+	
 	public static void main(String[] args) {
+		// Optional arguments: mode (SINGLE, MULTISTAGE, MULTIHASH), number of buckets, number of hashes,
+		// largest itemset size to mine, number of threads
 		PCY pcy = new PCY();
+		if (args.length > 0)
+			pcy = new PCY(Mode.valueOf(args[0]),
+						  args.length > 1 ? Integer.parseInt(args[1]) : 1 << 20,
+						  args.length > 2 ? Integer.parseInt(args[2]) : 2);
+		if (args.length > 3)
+			pcy.setMaxItemsetSize(Integer.parseInt(args[3]));
+		if (args.length > 4)
+			pcy.setThreads(Integer.parseInt(args[4]));
+		if (Integer.getInteger("topK") != null) {		// -DtopK=K mines the K best itemsets instead of the study
+			String fp = Paths.get(System.getProperty("user.dir"), "src", "retail.txt").toString();
+			try {
+				long startTime = System.currentTimeMillis();
+				FrequentItemsets top = pcy.runTopK(fp, Integer.getInteger("topK"));
+				long runTime = System.currentTimeMillis() - startTime;
+				System.out.println("Top " + top.size() + " itemsets, Runtime: " + runTime + " ms");
+				top.print(System.out);
+			} catch (IOException x) {
+			    System.err.println(x);
+			}
+			return;
+		}
 		pcy.runStudy(0.01);				// specify a support percent
+		if (args.length > 4)
+			pcy.runThreadStudy(0.01, Integer.parseInt(args[4]));
 	}
 }
@@ -0,0 +1,436 @@
+import java.nio.*;
+import java.util.*;
+
+/**
+ * Counts pairs of frequent items during the second pass without boxing.
+ * Items are addressed by their dense rank from an ItemIndex, so a pair is
+ * just two ints (i, j) in [0, m).
+ *
+ * Three primitive layouts are provided: the two approaches from the
+ * A Priori literature, and an off-heap variant of the second:
+ *   1. The triangular matrix, an int[] holding one count for every one
+ *      of the m(m-1)/2 possible pairs. This costs 4 bytes per pair and
+ *      needs no keys, so it is used whenever it fits.
+ *   2. The triples approach, [item1, item2, count], implemented as an
+ *      open-addressing table of packed long keys and int counts. This
+ *      only costs memory for pairs that actually occur, so it is used
+ *      when m^2 gets too large for the triangular matrix.
+ *   3. The same triples table kept off-heap, in direct ByteBuffers. With
+ *      millions of candidate pairs at low support the on-heap table is
+ *      a few huge arrays the GC has to copy or mark on every growth and
+ *      collection; off-heap, the heap only holds the buffer objects.
+ *
+ * The layout is picked by create(), and can be forced with setLayout()
+ * or the system property "pairCounter" (auto, triangular, triples or
+ * offheap), eg. java -DpairCounter=offheap PCY. Every engine that counts
+ * pairs through create(), A Priori and PCY included, then uses it.
+ */
+public abstract class PairCounter {
+
+	// Largest number of possible pairs we will allocate a triangular matrix for (128 MB of ints)
+	public static final long TRIANGULAR_LIMIT = 1L << 25;
+
+	/**
+	 * How create() lays out the counts. AUTO is the triangular matrix when
+	 * it fits, the triples table otherwise.
+	 */
+	public enum Layout { AUTO, TRIANGULAR, TRIPLES, OFF_HEAP }
+
+	private static volatile Layout layout = parseLayout(System.getProperty("pairCounter"));
+
+	/**
+	 * Callback used to walk every pair with a non-zero count.
+	 */
+	public interface PairVisitor {
+		void visit(int i, int j, int count);
+	}
+
+	/**
+	 * Picks the layout for m frequent items: the triangular matrix when
+	 * m(m-1)/2 fits under TRIANGULAR_LIMIT, the triples table otherwise.
+	 *
+	 * @param m		The number of frequent items.
+	 * @return		An empty pair counter.
+	 */
+	public static PairCounter create(int m) {
+		long pairs = (long) m * (m - 1) / 2;
+		switch (layout) {
+		case TRIPLES:
+			return new Triples();
+		case OFF_HEAP:
+			return new OffHeap();
+		case TRIANGULAR:
+			if (pairs <= Integer.MAX_VALUE)
+				return new Triangular(m);
+			break;
+		default:
+			if (pairs <= TRIANGULAR_LIMIT)
+				return new Triangular(m);
+		}
+		return new Triples();
+	}
+
+	/**
+	 * Forces the layout of every counter created from now on, overriding
+	 * the one given at startup with -DpairCounter. A forced triangular
+	 * matrix still falls back to triples past 2^31 pairs.
+	 *
+	 * @param l		The layout, AUTO to let create() decide.
+	 */
+	public static void setLayout(Layout l) {
+		layout = l;
+	}
+
+	/**
+	 * @return		The layout create() uses.
+	 */
+	public static Layout getLayout() {
+		return layout;
+	}
+
+	private static Layout parseLayout(String name) {
+		if (name == null || name.isEmpty())
+			return Layout.AUTO;
+		String key = name.replace("-", "").replace("_", "").toUpperCase(Locale.ROOT);
+		for (Layout l : Layout.values())
+			if (l.name().replace("_", "").equals(key))
+				return l;
+		System.err.println("Unknown pairCounter layout " + name + ", using AUTO");
+		return Layout.AUTO;
+	}
+
+	/**
+	 * Adds 1 to the count of the pair {i, j}. The order of i and j does
+	 * not matter, and a pair of an item with itself is ignored.
+	 *
+	 * @param i		The rank of the first item.
+	 * @param j		The rank of the second item.
+	 */
+	public abstract void increment(int i, int j);
+
+	/**
+	 * Adds c to the count of the pair {i, j}.
+	 *
+	 * @param i		The rank of the first item.
+	 * @param j		The rank of the second item.
+	 * @param c		The amount to add.
+	 */
+	public abstract void add(int i, int j, int c);
+
+	/**
+	 * Adds every count of another counter into this one, used to merge the
+	 * counters of parallel workers. Both must cover the same m items.
+	 *
+	 * @param other		The counter to merge in.
+	 */
+	public void addAll(PairCounter other) {
+		other.forEach(this::add);
+	}
+
+	/**
+	 * @param i		The rank of the first item.
+	 * @param j		The rank of the second item.
+	 * @return		The count of the pair {i, j}.
+	 */
+	public abstract int count(int i, int j);
+
+	/**
+	 * Visits every pair with a non-zero count, always with i < j.
+	 *
+	 * @param v		The visitor.
+	 */
+	public abstract void forEach(PairVisitor v);
+
+	/**
+	 * @return		The number of distinct pairs with a non-zero count.
+	 */
+	public abstract int size();
+
+	/**
+	 * @return		The bytes the counts take, on the heap or off it.
+	 */
+	public abstract long memoryBytes();
+
+	/**
+	 * Counts pairs in a triangular matrix stored as a flat int[].
+	 * The pair (i, j), i < j, lives at index i(2m - i - 1)/2 + (j - i - 1).
+	 */
+	static final class Triangular extends PairCounter {
+		private final int m;
+		private final int[] counts;
+
+		Triangular(int m) {
+			this.m = m;
+			this.counts = new int[(int) Math.max(0, (long) m * (m - 1) / 2)];
+		}
+
+		private int index(int i, int j) {
+			return (int) ((long) i * (2 * m - i - 1) / 2) + (j - i - 1);
+		}
+
+		@Override
+		public void increment(int i, int j) {
+			if (i < j)
+				counts[index(i, j)]++;
+			else if (j < i)
+				counts[index(j, i)]++;
+		}
+
+		@Override
+		public void add(int i, int j, int c) {
+			if (i < j)
+				counts[index(i, j)] += c;
+			else if (j < i)
+				counts[index(j, i)] += c;
+		}
+
+		@Override
+		public void addAll(PairCounter other) {
+			if (!(other instanceof Triangular)) {
+				super.addAll(other);
+				return;
+			}
+			int[] theirs = ((Triangular) other).counts;
+			for (int k = 0; k < counts.length; k++)
+				counts[k] += theirs[k];
+		}
+
+		@Override
+		public int count(int i, int j) {
+			if (i == j)
+				return 0;
+			return i < j ? counts[index(i, j)] : counts[index(j, i)];
+		}
+
+		@Override
+		public void forEach(PairVisitor v) {
+			int k = 0;
+			for (int i = 0; i < m; i++)
+				for (int j = i + 1; j < m; j++, k++)
+					if (counts[k] != 0)
+						v.visit(i, j, counts[k]);
+		}
+
+		@Override
+		public int size() {
+			int n = 0;
+			for (int c : counts)
+				if (c != 0)
+					n++;
+			return n;
+		}
+
+		@Override
+		public long memoryBytes() {
+			return 4L * counts.length;
+		}
+	}
+
+	/**
+	 * Counts pairs as triples in an open-addressing hash table. The key is
+	 * the pair packed into a long, (i << 32) | j with i < j, so a key of 0
+	 * can never occur and marks an empty slot.
+	 */
+	static final class Triples extends PairCounter {
+		private long[] keys = new long[1 << 12];
+		private int[] counts = new int[1 << 12];
+		private int size = 0;
+
+		private static long pack(int i, int j) {
+			return ((long) i << 32) | (j & 0xFFFFFFFFL);
+		}
+
+		private static int mix(long key) {
+			key *= 0x9E3779B97F4A7C15L;
+			return (int) (key ^ (key >>> 32));
+		}
+
+		private int slot(long[] keys, long key) {
+			int mask = keys.length - 1;
+			int slot = mix(key) & mask;
+			while (keys[slot] != 0 && keys[slot] != key)
+				slot = (slot + 1) & mask;
+			return slot;
+		}
+
+		@Override
+		public void increment(int i, int j) {
+			add(i, j, 1);
+		}
+
+		@Override
+		public void add(int i, int j, int c) {
+			if (i == j)
+				return;
+			long key = i < j ? pack(i, j) : pack(j, i);
+			int slot = slot(keys, key);
+			if (keys[slot] == 0) {
+				if (2 * (size + 1) > keys.length) {
+					grow();
+					slot = slot(keys, key);
+				}
+				keys[slot] = key;
+				size++;
+			}
+			counts[slot] += c;
+		}
+
+		private void grow() {
+			long[] oldKeys = keys;
+			int[] oldCounts = counts;
+			keys = new long[oldKeys.length << 1];
+			counts = new int[oldKeys.length << 1];
+			for (int s = 0; s < oldKeys.length; s++) {
+				if (oldKeys[s] != 0) {
+					int slot = slot(keys, oldKeys[s]);
+					keys[slot] = oldKeys[s];
+					counts[slot] = oldCounts[s];
+				}
+			}
+		}
+
+		@Override
+		public int count(int i, int j) {
+			if (i == j)
+				return 0;
+			long key = i < j ? pack(i, j) : pack(j, i);
+			int slot = slot(keys, key);
+			return keys[slot] == 0 ? 0 : counts[slot];
+		}
+
+		@Override
+		public void forEach(PairVisitor v) {
+			for (int s = 0; s < keys.length; s++)
+				if (keys[s] != 0)
+					v.visit((int) (keys[s] >>> 32), (int) keys[s], counts[s]);
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public long memoryBytes() {
+			return 12L * keys.length;
+		}
+	}
+
+	/**
+	 * The triples table of Triples, off-heap: the packed keys and the counts
+	 * live in direct ByteBuffers, cut into segments of 2^SEGMENT_BITS slots
+	 * so the table is not limited to the 2 GB of a single buffer. It grows
+	 * by rehashing into a table twice the size, once half full, and the old
+	 * buffers are released when the GC collects their (small) objects.
+	 * Direct memory is capped by -XX:MaxDirectMemorySize.
+	 */
+	static final class OffHeap extends PairCounter {
+		private static final int SEGMENT_BITS = 24;
+		private static final int SEGMENT = 1 << SEGMENT_BITS;
+
+		private LongBuffer[] keys;
+		private IntBuffer[] counts;
+		private int capacity;			// slots, a power of two
+		private int size = 0;
+
+		OffHeap() {
+			allocate(1 << 12);
+		}
+
+		private void allocate(int slots) {
+			capacity = slots;
+			int segments = Math.max(1, slots >>> SEGMENT_BITS);
+			int perSegment = Math.min(slots, SEGMENT);
+			keys = new LongBuffer[segments];
+			counts = new IntBuffer[segments];
+			for (int g = 0; g < segments; g++) {
+				// Direct memory is zeroed, so every slot starts empty
+				keys[g] = ByteBuffer.allocateDirect(8 * perSegment).order(ByteOrder.nativeOrder()).asLongBuffer();
+				counts[g] = ByteBuffer.allocateDirect(4 * perSegment).order(ByteOrder.nativeOrder()).asIntBuffer();
+			}
+		}
+
+		private long key(int slot) {
+			return keys[slot >>> SEGMENT_BITS].get(slot & (SEGMENT - 1));
+		}
+
+		private int slot(long key) {
+			int mask = capacity - 1;
+			int slot = Triples.mix(key) & mask;
+			long k;
+			while ((k = key(slot)) != 0 && k != key)
+				slot = (slot + 1) & mask;
+			return slot;
+		}
+
+		@Override
+		public void increment(int i, int j) {
+			add(i, j, 1);
+		}
+
+		@Override
+		public void add(int i, int j, int c) {
+			if (i == j)
+				return;
+			long key = i < j ? Triples.pack(i, j) : Triples.pack(j, i);
+			int slot = slot(key);
+			if (key(slot) == 0) {
+				if (2L * (size + 1) > capacity) {
+					grow();
+					slot = slot(key);
+				}
+				keys[slot >>> SEGMENT_BITS].put(slot & (SEGMENT - 1), key);
+				size++;
+			}
+			IntBuffer segment = counts[slot >>> SEGMENT_BITS];
+			int s = slot & (SEGMENT - 1);
+			segment.put(s, segment.get(s) + c);
+		}
+
+		private void grow() {
+			if (capacity == 1 << 30)
+				throw new IllegalStateException("OffHeap pair counter is full");
+			LongBuffer[] oldKeys = keys;
+			IntBuffer[] oldCounts = counts;
+			allocate(capacity << 1);
+			for (int g = 0; g < oldKeys.length; g++)
+				for (int s = 0; s < oldKeys[g].capacity(); s++) {
+					long key = oldKeys[g].get(s);
+					if (key != 0) {
+						int slot = slot(key);
+						keys[slot >>> SEGMENT_BITS].put(slot & (SEGMENT - 1), key);
+						counts[slot >>> SEGMENT_BITS].put(slot & (SEGMENT - 1), oldCounts[g].get(s));
+					}
+				}
+		}
+
+		@Override
+		public int count(int i, int j) {
+			if (i == j)
+				return 0;
+			long key = i < j ? Triples.pack(i, j) : Triples.pack(j, i);
+			int slot = slot(key);
+			return key(slot) == 0 ? 0 : counts[slot >>> SEGMENT_BITS].get(slot & (SEGMENT - 1));
+		}
+
+		@Override
+		public void forEach(PairVisitor v) {
+			for (int g = 0; g < keys.length; g++)
+				for (int s = 0; s < keys[g].capacity(); s++) {
+					long key = keys[g].get(s);
+					if (key != 0)
+						v.visit((int) (key >>> 32), (int) key, counts[g].get(s));
+				}
+		}
+
+		@Override
+		public int size() {
+			return size;
+		}
+
+		@Override
+		public long memoryBytes() {
+			return 12L * capacity;
+		}
+	}
+}
@@ -0,0 +1,262 @@
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.*;
+
+/**
+ * Runs one pass over the dataset, on one or several threads. The file (or
+ * the prefix holding the baskets of the current chuck) is split into byte
+ * ranges that start and end on a newline, and each range is parsed by a
+ * BasketReader for its own worker on a fork-join pool. Every worker is a
+ * BasketHandler with its own, thread-local counters; once all ranges are
+ * done the caller merges the workers' counters. No state is shared while counting,
+ * so the merged counts are identical to those of a single-threaded pass.
+ *
+ * Compressed files cannot be split, and are scanned by a BasketPipeline
+ * instead: one thread decompresses, one parses, and the workers count on
+ * threads of their own. -Dscan=pipeline (or setPipelined) scans plain text
+ * that way too, which overlaps the I/O with the counting even on a single
+ * worker.
+ */
+public class ParallelScan {
+
+	private final String fp;
+	private final Path file;
+	private final int threads;
+	private long baskets = 0;
+	private long bytes = 0;
+
+	// Scan plain text through a BasketPipeline rather than byte ranges
+	private static volatile boolean pipelined = "pipeline".equalsIgnoreCase(System.getProperty("scan"));
+
+	// The pipeline of the last scan, for its stage metrics; null for byte ranges
+	private BasketPipeline pipeline;
+
+	/**
+	 * @param fp		The filepath of the dataset.
+	 * @param threads	The number of worker threads (and byte ranges).
+	 */
+	public ParallelScan(String fp, int threads) {
+		this.fp = fp;
+		this.file = Paths.get(fp);
+		this.threads = Math.max(1, threads);
+	}
+
+	/**
+	 * Scans the first limit baskets of the file, in parallel if more than
+	 * one thread was asked for.
+	 *
+	 * @param limit			The number of baskets to read (Long.MAX_VALUE for all).
+	 * @param newWorker		Creates the thread-local handler of one byte range.
+	 * @return				The workers, one per range, ready to be merged.
+	 * @throws IOException
+	 */
+	public <W extends BasketHandler> List<W> scan(long limit, Supplier<W> newWorker) throws IOException {
+		BasketCache cache = BasketCache.open(fp);
+		if (cache != null)
+			return scanCache(cache, limit, newWorker);
+
+		// A compressed file can only be read in order, so its workers are fed by a pipeline
+		CompressedInput.Kind kind = CompressedInput.detect(fp);
+		if (kind != CompressedInput.Kind.NONE || pipelined) {
+			List<W> workers = new ArrayList<>();
+			for (int w = 0; w < threads; w++)
+				workers.add(newWorker.get());
+			pipeline = new BasketPipeline(fp, kind);
+			long[] stop = new long[1];
+			baskets = pipeline.run(limit, workers, stop);
+			bytes = stop[0];
+			return workers;
+		}
+
+		BasketReader.Format format = BasketReader.Format.of(fp);
+		try (FileChannel ch = FileChannel.open(file, StandardOpenOption.READ)) {
+			List<W> workers = new ArrayList<>();
+
+			// A single thread needs no ranges, it simply reads up to the limit
+			if (threads == 1) {
+				W worker = newWorker.get();
+				workers.add(worker);
+				long[] stop = new long[1];
+				baskets = BasketReader.read(ch, 0, ch.size(), limit, worker, stop, format);
+				bytes = stop[0];
+				return workers;
+			}
+
+			long end = (limit == Long.MAX_VALUE) ? ch.size() : BasketReader.offsetAfter(ch, limit, format);
+			long[] bounds = split(ch, end, threads);
+
+			List<Callable<Long>> tasks = new ArrayList<>();
+			for (int p = 0; p + 1 < bounds.length; p++) {
+				W worker = newWorker.get();
+				long from = bounds[p], to = bounds[p + 1];
+				workers.add(worker);
+				tasks.add(() -> BasketReader.read(ch, from, to, Long.MAX_VALUE, worker, null, format));
+			}
+			baskets = run(tasks);
+			bytes = end;
+			return workers;
+		}
+	}
+
+	/**
+	 * Same as scan, over a BasketCache: the baskets are already counted,
+	 * so the ranges are simply equal runs of baskets.
+	 */
+	private <W extends BasketHandler> List<W> scanCache(BasketCache cache, long limit, Supplier<W> newWorker)
+			throws IOException {
+		List<W> workers = new ArrayList<>();
+		long n = Math.min(limit, cache.baskets());
+		bytes = cache.bytes(0, n);
+		if (threads == 1) {
+			W worker = newWorker.get();
+			workers.add(worker);
+			baskets = cache.read(0, n, worker);
+			return workers;
+		}
+
+		List<Callable<Long>> tasks = new ArrayList<>();
+		for (int p = 0; p < threads; p++) {
+			W worker = newWorker.get();
+			long from = n * p / threads, to = n * (p + 1) / threads;
+			workers.add(worker);
+			tasks.add(() -> cache.read(from, to, worker));
+		}
+		baskets = run(tasks);
+		return workers;
+	}
+
+	// Runs the range tasks on a fork-join pool and sums their basket counts
+	private long run(List<Callable<Long>> tasks) throws IOException {
+		ForkJoinPool pool = new ForkJoinPool(threads);
+		try {
+			long total = 0;
+			for (Future<Long> f : pool.invokeAll(tasks))
+				total += f.get();
+			return total;
+		} catch (InterruptedException | ExecutionException x) {
+			throw new IOException(x);
+		} finally {
+			pool.shutdown();
+		}
+	}
+
+	/**
+	 * Selects how plain text files are scanned, for every scan that follows.
+	 *
+	 * @param on	True for a BasketPipeline, false for byte ranges (the default).
+	 */
+	public static void setPipelined(boolean on) {
+		pipelined = on;
+	}
+
+	/**
+	 * @return		True if plain text files are scanned by a BasketPipeline.
+	 */
+	public static boolean isPipelined() {
+		return pipelined;
+	}
+
+	/**
+	 * @return		The pipeline of the last scan, or null if it did not use one.
+	 */
+	BasketPipeline pipeline() {
+		return pipeline;
+	}
+
+	/**
+	 * @return		The number of baskets read by the last scan.
+	 */
+	public long baskets() {
+		return baskets;
+	}
+
+	/**
+	 * @return		The number of bytes read by the last scan, of the text
+	 * 				file or of its BasketCache.
+	 */
+	public long bytes() {
+		return bytes;
+	}
+
+	/**
+	 * Splits [0, end) into up to parts ranges, moving each boundary forward
+	 * to just past the next newline so no basket is cut in two.
+	 */
+	private static long[] split(FileChannel ch, long end, int parts) throws IOException {
+		long[] bounds = new long[parts + 1];
+		int n = 1;
+		for (int p = 1; p < parts; p++) {
+			long pos = BasketReader.nextLine(ch, Math.max(bounds[n - 1], end / parts * p), end);
+			if (pos < end && pos > bounds[n - 1])
+				bounds[n++] = pos;
+		}
+		bounds[n++] = end;
+		return Arrays.copyOf(bounds, n);
+	}
+
+	/**
+	 * A worker counting singletons in a primitive int[] indexed by item,
+	 * grown as larger items show up. Items outside [0, 2^24) fall back to
+	 * a HashMap. Engines extend it to count more in the same pass.
+	 */
+	public static class ItemCounts implements BasketHandler {
+		private static final int DIRECT_LIMIT = 1 << 24;
+
+		private int[] counts = new int[1 << 12];
+		private Map<Integer, Integer> overflow;
+		private BasketStore store;		// the baskets themselves, see keepBaskets()
+
+		@Override
+		public void basket(int[] items, int n) {
+			for (int i = 0; i < n; i++) {
+				int item = items[i];
+				if (item >= 0 && item < DIRECT_LIMIT) {
+					if (item >= counts.length)
+						counts = Arrays.copyOf(counts, Math.max(item + 1, counts.length * 2));
+					counts[item]++;
+				} else {
+					if (overflow == null)
+						overflow = new HashMap<>();
+					overflow.merge(item, 1, Integer::sum);
+				}
+			}
+			if (store != null)
+				store.add(items, n, 1);
+		}
+
+		/**
+		 * Also keeps the baskets this worker reads in a BasketStore, for
+		 * the engines' later passes.
+		 *
+		 * @return		This worker.
+		 */
+		public ItemCounts keepBaskets() {
+			store = new BasketStore();
+			return this;
+		}
+
+		/**
+		 * @return		The baskets kept, or null if keepBaskets() was not called.
+		 */
+		public BasketStore store() {
+			return store;
+		}
+
+		/**
+		 * Adds this worker's counts into the engine's singletons map.
+		 *
+		 * @param singletons	The map to merge into.
+		 */
+		public void addTo(Map<Integer, Integer> singletons) {
+			for (int item = 0; item < counts.length; item++)
+				if (counts[item] != 0)
+					singletons.merge(item, counts[item], Integer::sum);
+			if (overflow != null)
+				for (Map.Entry<Integer, Integer> entry : overflow.entrySet())
+					singletons.merge(entry.getKey(), entry.getValue(), Integer::sum);
+		}
+	}
+}
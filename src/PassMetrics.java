@@ -0,0 +1,304 @@
+import java.io.*;
+import java.lang.management.*;
+import java.lang.reflect.*;
+import java.util.*;
+
+/**
+ * Metrics of one pass over the dataset, so it shows which pass (or which
+ * structure) is the bottleneck on a given dataset. Every pass records its
+ * runtime, the baskets and bytes it read and its throughput, the peak heap
+ * (the sum of the heap pools' peaks, reset when the pass starts) and the
+ * time spent in GC, and each engine adds its own figures with put(), eg.
+ * the frequent items, the fill of PCY's buckets or the candidate pairs
+ * that turned out to be frequent.
+ *
+ * A pass is exported twice when it is emitted:
+ *   - as one JSON object per line, appended to the file named by the
+ *     system property "metrics" (or to stderr if it is "-"), eg.
+ *       java -Dmetrics=metrics.jsonl PCY
+ *   - as a JFR event "mining.Pass", whenever the JVM has Flight Recorder
+ *     (Java 11 and later) and a recording is running, eg.
+ *       java -XX:StartFlightRecording=filename=passes.jfr PCY
+ *     The event carries the common metrics as fields and the engine's own
+ *     ones as a JSON string. Since the code targets Java 8, the event type
+ *     is defined at runtime through reflection, and is skipped on a JVM
+ *     without jdk.jfr.
+ *
+ * The metrics are cheap next to a pass, so they are always gathered, and
+ * simply dropped when neither export is on.
+ */
+public class PassMetrics {
+
+	private static final Object lock = new Object();
+	private static PrintStream out;
+	private static boolean outOpened = false;
+	private static final Jfr jfr = Jfr.load();
+
+	private final String engine;
+	private final String pass;
+	private final long startNanos;
+	private final long startGcTime, startGcCount;
+	private final Object event;
+	private long nanos = -1;
+	private long baskets = 0;
+	private long bytes = 0;
+	private final Map<String, Number> values = new LinkedHashMap<>();
+
+	private PassMetrics(String engine, String pass) {
+		this.engine = engine;
+		this.pass = pass;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP)
+				pool.resetPeakUsage();
+		long[] gc = gc();
+		startGcTime = gc[0];
+		startGcCount = gc[1];
+		event = (jfr != null) ? jfr.begin() : null;
+		startNanos = System.nanoTime();
+	}
+
+	/**
+	 * Starts the clock of a pass.
+	 *
+	 * @param engine	The algorithm, eg. "PCY".
+	 * @param pass		Which pass, eg. "first".
+	 * @return			The metrics to fill in and emit.
+	 */
+	public static PassMetrics start(String engine, String pass) {
+		return new PassMetrics(engine, pass);
+	}
+
+	/**
+	 * Stops the clock once the pass has read the dataset, so work done
+	 * between passes (eg. building the bit vectors) is not counted.
+	 *
+	 * @param baskets	The number of baskets read.
+	 * @param bytes		The number of bytes read.
+	 * @return			This, to chain put().
+	 */
+	public PassMetrics scanned(long baskets, long bytes) {
+		nanos = System.nanoTime() - startNanos;
+		this.baskets = baskets;
+		this.bytes = bytes;
+		if (event != null)
+			jfr.end(event);
+		return this;
+	}
+
+	/**
+	 * Same as scanned(baskets, bytes) for the counts of a ParallelScan,
+	 * adding the stall and queue figures of its stages when the scan ran
+	 * as a BasketPipeline.
+	 *
+	 * @param scan		The finished scan.
+	 * @return			This, to chain put().
+	 */
+	public PassMetrics scanned(ParallelScan scan) {
+		scanned(scan.baskets(), scan.bytes());
+		if (scan.pipeline() != null)
+			scan.pipeline().putMetrics(this);
+		return this;
+	}
+
+	/**
+	 * Records one of the engine's own metrics.
+	 *
+	 * @param name		The name of the metric, a JSON key.
+	 * @param value		Its value.
+	 * @return			This, to chain further calls.
+	 */
+	public PassMetrics put(String name, Number value) {
+		values.put(name, value);
+		return this;
+	}
+
+	/**
+	 * Exports the pass. The clock is stopped here if scanned() was not called.
+	 */
+	public void emit() {
+		if (nanos < 0)
+			scanned(baskets, bytes);
+		long[] gc = gc();
+		long peakHeap = 0;
+		for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans())
+			if (pool.getType() == MemoryType.HEAP && pool.getPeakUsage() != null)
+				peakHeap += pool.getPeakUsage().getUsed();
+
+		Map<String, Number> common = new LinkedHashMap<>();
+		common.put("timeMs", nanos / 1e6);
+		common.put("baskets", baskets);
+		common.put("bytes", bytes);
+		common.put("basketsPerSecond", (nanos > 0) ? baskets * 1e9 / nanos : 0);
+		common.put("peakHeapBytes", peakHeap);
+		common.put("gcTimeMs", gc[0] - startGcTime);
+		common.put("gcCount", gc[1] - startGcCount);
+
+		PrintStream sink = output();
+		if (sink != null) {
+			StringBuilder line = new StringBuilder("{");
+			line.append("\"engine\":").append(quote(engine)).append(",\"pass\":").append(quote(pass));
+			appendFields(line.append(','), common);
+			if (!values.isEmpty())
+				appendFields(line.append(','), values);
+			line.append('}');
+			synchronized (lock) {
+				sink.println(line);
+				sink.flush();
+			}
+		}
+
+		if (event != null) {
+			StringBuilder own = new StringBuilder("{");
+			appendFields(own, values);
+			jfr.commit(event, engine, pass, baskets, bytes, peakHeap, gc[0] - startGcTime, own.append('}').toString());
+		}
+	}
+
+	/**
+	 * @return		The name of the pass, with the engine.
+	 */
+	@Override
+	public String toString() {
+		return engine + " " + pass;
+	}
+
+	// The JSON lines sink named by -Dmetrics, opened on first use
+	private static PrintStream output() {
+		synchronized (lock) {
+			if (!outOpened) {
+				outOpened = true;
+				String path = System.getProperty("metrics");
+				if ("-".equals(path))
+					out = System.err;
+				else if (path != null && !path.isEmpty()) {
+					try {
+						out = new PrintStream(new FileOutputStream(path, true), false, "UTF-8");
+					} catch (IOException x) {
+						System.err.println(x);
+					}
+				}
+			}
+			return out;
+		}
+	}
+
+	// Total collection time (ms) and count of every garbage collector
+	private static long[] gc() {
+		long time = 0, count = 0;
+		for (GarbageCollectorMXBean gc : ManagementFactory.getGarbageCollectorMXBeans()) {
+			time += Math.max(0, gc.getCollectionTime());
+			count += Math.max(0, gc.getCollectionCount());
+		}
+		return new long[] { time, count };
+	}
+
+	private static void appendFields(StringBuilder sb, Map<String, Number> fields) {
+		boolean first = true;
+		for (Map.Entry<String, Number> field : fields.entrySet()) {
+			if (!first)
+				sb.append(',');
+			first = false;
+			sb.append(quote(field.getKey())).append(':');
+			Number v = field.getValue();
+			if (v instanceof Double || v instanceof Float) {
+				double d = v.doubleValue();
+				if (Double.isNaN(d) || Double.isInfinite(d))
+					sb.append("null");		// not representable in JSON
+				else if (d == Math.rint(d) && Math.abs(d) < 1e15)
+					sb.append((long) d);
+				else
+					sb.append(String.format(Locale.ROOT, "%.4f", d));
+			} else
+				sb.append(v);
+		}
+	}
+
+	private static String quote(String s) {
+		StringBuilder sb = new StringBuilder("\"");
+		for (int k = 0; k < s.length(); k++) {
+			char c = s.charAt(k);
+			if (c == '"' || c == '\\')
+				sb.append('\\').append(c);
+			else if (c < 0x20)
+				sb.append(String.format("\\u%04x", (int) c));
+			else
+				sb.append(c);
+		}
+		return sb.append('"').toString();
+	}
+
+	/**
+	 * The "mining.Pass" JFR event type, defined through jdk.jfr.EventFactory
+	 * by reflection so the code still compiles and runs on Java 8.
+	 */
+	private static final class Jfr {
+		private static final String[] FIELDS = { "engine", "pass", "baskets", "bytes", "peakHeapBytes", "gcTimeMs", "metrics" };
+		private static final Class<?>[] TYPES = { String.class, String.class, long.class, long.class, long.class, long.class, String.class };
+
+		private final Object factory;
+		private final Method newEvent, begin, end, commit, set;
+
+		private Jfr(Object factory, Method newEvent, Method begin, Method end, Method commit, Method set) {
+			this.factory = factory;
+			this.newEvent = newEvent;
+			this.begin = begin;
+			this.end = end;
+			this.commit = commit;
+			this.set = set;
+		}
+
+		static Jfr load() {
+			try {
+				Class<?> annotationElement = Class.forName("jdk.jfr.AnnotationElement");
+				Class<?> valueDescriptor = Class.forName("jdk.jfr.ValueDescriptor");
+				Class<?> eventFactory = Class.forName("jdk.jfr.EventFactory");
+				Class<?> event = Class.forName("jdk.jfr.Event");
+				Constructor<?> annotation = annotationElement.getConstructor(Class.class, Object.class);
+
+				List<Object> annotations = new ArrayList<>();
+				annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Name"), "mining.Pass"));
+				annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Label"), "Mining Pass"));
+				annotations.add(annotation.newInstance(Class.forName("jdk.jfr.Category"), new String[] { "Mining" }));
+
+				Constructor<?> field = valueDescriptor.getConstructor(Class.class, String.class);
+				List<Object> fields = new ArrayList<>();
+				for (int f = 0; f < FIELDS.length; f++)
+					fields.add(field.newInstance(TYPES[f], FIELDS[f]));
+
+				Object factory = eventFactory.getMethod("create", List.class, List.class).invoke(null, annotations, fields);
+				return new Jfr(factory, eventFactory.getMethod("newEvent"), event.getMethod("begin"),
+							   event.getMethod("end"), event.getMethod("commit"), event.getMethod("set", int.class, Object.class));
+			} catch (ReflectiveOperationException | LinkageError | RuntimeException x) {
+				return null;		// No Flight Recorder in this JVM
+			}
+		}
+
+		Object begin() {
+			try {
+				Object e = newEvent.invoke(factory);
+				begin.invoke(e);
+				return e;
+			} catch (ReflectiveOperationException x) {
+				return null;
+			}
+		}
+
+		void end(Object e) {
+			try {
+				end.invoke(e);
+			} catch (ReflectiveOperationException x) {
+				System.err.println(x);
+			}
+		}
+
+		void commit(Object e, Object... values) {
+			try {
+				for (int f = 0; f < values.length; f++)
+					set.invoke(e, f, values[f]);
+				commit.invoke(e);
+			} catch (ReflectiveOperationException x) {
+				System.err.println(x);
+			}
+		}
+	}
+}
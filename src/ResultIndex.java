@@ -0,0 +1,388 @@
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * A persistent index of mining results, so services can answer support
+ * queries without mining again: write() stores the frequent itemsets of a
+ * run in one file, and open() maps it, so a service starts in
+ * milliseconds and only touches the pages its queries need. The file
+ * holds:
+ *   - a header: magic, version, the number of itemsets, the number of
+ *     baskets they were mined from, the total number of items over all
+ *     itemsets, the number of distinct items and the largest itemset,
+ *   - offsets, one long per itemset plus one, into the items: itemset s
+ *     holds items offsets[s] up to offsets[s + 1],
+ *   - items, every itemset's sorted items back to back; itemsets are in
+ *     lexicographic order (a prefix first), so a lookup is a binary search,
+ *   - supports, one int per itemset,
+ *   - by support, the itemset numbers by descending support, for top-K,
+ *   - the distinct items, ascending, and for each one a posting list of
+ *     the itemsets containing it, by descending support, for supersets.
+ *
+ * Everything is little-endian and fixed width, like BasketCache. Each
+ * section is mapped separately and must stay under 2 GB.
+ */
+public class ResultIndex {
+
+	private static final int MAGIC = 0x31584952;		// "RIX1", little-endian
+	private static final int VERSION = 1;
+	private static final int HEADER = 40;				// bytes
+
+	/**
+	 * One itemset of a query result.
+	 */
+	public static class Entry {
+		public final int[] items;
+		public final int support;
+
+		Entry(int[] items, int support) {
+			this.items = items;
+			this.support = support;
+		}
+
+		@Override
+		public String toString() {
+			return Arrays.toString(items) + " " + support;
+		}
+	}
+
+	private final int itemsets;
+	private final long baskets;
+	private final int maxSize;
+	private final LongBuffer offsets;
+	private final IntBuffer items;
+	private final IntBuffer supports;
+	private final IntBuffer bySupport;
+	private final IntBuffer distinct;
+	private final LongBuffer postingOffsets;
+	private final IntBuffer postings;
+
+	private ResultIndex(FileChannel ch) throws IOException {
+		ByteBuffer header = ByteBuffer.allocate(HEADER).order(ByteOrder.LITTLE_ENDIAN);
+		while (header.hasRemaining() && ch.read(header, header.position()) >= 0)
+			;
+		header.flip();
+		if (header.remaining() < HEADER || header.getInt() != MAGIC || header.getInt() != VERSION)
+			throw new IOException("Not a result index");
+		long n = header.getLong();
+		baskets = header.getLong();
+		long total = header.getLong();
+		int d = header.getInt();
+		maxSize = header.getInt();
+		if (n > Integer.MAX_VALUE || ch.size() != HEADER + 8 * (n + 1) + 4 * total + 8 * n + 4L * d + 8 * (d + 1L) + 4 * total)
+			throw new IOException("Truncated result index");
+		itemsets = (int) n;
+
+		long pos = HEADER;
+		offsets = map(ch, pos, 8 * (n + 1)).asLongBuffer();
+		items = map(ch, pos += 8 * (n + 1), 4 * total).asIntBuffer();
+		supports = map(ch, pos += 4 * total, 4 * n).asIntBuffer();
+		bySupport = map(ch, pos += 4 * n, 4 * n).asIntBuffer();
+		distinct = map(ch, pos += 4 * n, 4L * d).asIntBuffer();
+		postingOffsets = map(ch, pos += 4L * d, 8 * (d + 1L)).asLongBuffer();
+		postings = map(ch, pos += 8 * (d + 1L), 4 * total).asIntBuffer();
+	}
+
+	private static ByteBuffer map(FileChannel ch, long pos, long size) throws IOException {
+		if (size > Integer.MAX_VALUE)
+			throw new IOException("Result index section over 2 GB");
+		return ch.map(FileChannel.MapMode.READ_ONLY, pos, size).order(ByteOrder.LITTLE_ENDIAN);
+	}
+
+	/**
+	 * Maps an index written by write(). The file can be closed (or even
+	 * replaced) right away; the mapping stays valid.
+	 *
+	 * @param path		The index file.
+	 * @return			The index.
+	 * @throws IOException
+	 */
+	public static ResultIndex open(String path) throws IOException {
+		try (FileChannel ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ)) {
+			return new ResultIndex(ch);
+		}
+	}
+
+	/**
+	 * Writes the frequent itemsets of a run to an index file, replacing
+	 * any previous one.
+	 *
+	 * @param sets		The frequent itemsets, from any engine.
+	 * @param baskets	The number of baskets they were mined from.
+	 * @param path		The index file.
+	 * @throws IOException
+	 */
+	public static void write(FrequentItemsets sets, long baskets, String path) throws IOException {
+		int n = sets.size();
+
+		// Lexicographic order for the lookups, descending support for top-K
+		Integer[] order = new Integer[n];
+		for (int s = 0; s < n; s++)
+			order[s] = s;
+		Arrays.sort(order, (a, b) -> compare(sets.items(a), sets.items(b)));
+		Integer[] bySupport = new Integer[n];
+		for (int s = 0; s < n; s++)
+			bySupport[s] = s;
+		Arrays.sort(bySupport, (a, b) -> {
+			int c = Integer.compare(sets.support(order[b]), sets.support(order[a]));
+			return (c != 0) ? c : Integer.compare(a, b);
+		});
+
+		long total = 0;
+		int maxSize = 0;
+		List<Integer> itemList = new ArrayList<>();
+		Set<Integer> seen = new HashSet<>();
+		for (int s = 0; s < n; s++) {
+			total += sets.items(s).length;
+			maxSize = Math.max(maxSize, sets.items(s).length);
+			for (int item : sets.items(s))
+				if (seen.add(item))
+					itemList.add(item);
+		}
+		ItemIndex itemIndex = new ItemIndex(itemList);
+		int d = itemIndex.size();
+
+		// Posting lists: count per item, then fill in descending support
+		long[] postingStart = new long[d + 1];
+		for (int s = 0; s < n; s++)
+			for (int item : sets.items(s))
+				postingStart[itemIndex.rank(item) + 1]++;
+		for (int r = 0; r < d; r++)
+			postingStart[r + 1] += postingStart[r];
+		if (total > Integer.MAX_VALUE)
+			throw new IOException("Too many items for one result index");
+		int[] postings = new int[(int) total];
+		long[] fill = Arrays.copyOf(postingStart, d);
+		for (int id : bySupport)
+			for (int item : sets.items(order[id]))
+				postings[(int) fill[itemIndex.rank(item)]++] = id;
+
+		Path file = Paths.get(path);
+		Path tmp = Paths.get(path + ".tmp");
+		try (Output out = new Output(tmp)) {
+			out.putInt(MAGIC).putInt(VERSION).putLong(n).putLong(baskets).putLong(total).putInt(d).putInt(maxSize);
+			long offset = 0;
+			out.putLong(0);
+			for (int id = 0; id < n; id++)
+				out.putLong(offset += sets.items(order[id]).length);
+			for (int id = 0; id < n; id++)
+				for (int item : sets.items(order[id]))
+					out.putInt(item);
+			for (int id = 0; id < n; id++)
+				out.putInt(sets.support(order[id]));
+			for (int id : bySupport)
+				out.putInt(id);
+			for (int r = 0; r < d; r++)
+				out.putInt(itemIndex.item(r));
+			for (long start : postingStart)
+				out.putLong(start);
+			for (int id : postings)
+				out.putInt(id);
+		}
+		Files.move(tmp, file, StandardCopyOption.REPLACE_EXISTING);
+	}
+
+	/**
+	 * Little-endian buffered writes to a file channel.
+	 */
+	private static class Output implements Closeable {
+		private final FileChannel ch;
+		private final ByteBuffer buf = ByteBuffer.allocate(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+
+		Output(Path file) throws IOException {
+			ch = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+								  StandardOpenOption.TRUNCATE_EXISTING);
+		}
+
+		Output putInt(int v) throws IOException {
+			if (buf.remaining() < 4)
+				flush();
+			buf.putInt(v);
+			return this;
+		}
+
+		Output putLong(long v) throws IOException {
+			if (buf.remaining() < 8)
+				flush();
+			buf.putLong(v);
+			return this;
+		}
+
+		private void flush() throws IOException {
+			buf.flip();
+			while (buf.hasRemaining())
+				ch.write(buf);
+			buf.clear();
+		}
+
+		@Override
+		public void close() throws IOException {
+			try {
+				flush();
+			} finally {
+				ch.close();
+			}
+		}
+	}
+
+	// Lexicographic order of sorted itemsets, a prefix first
+	private static int compare(int[] x, int[] y) {
+		for (int d = 0; d < Math.min(x.length, y.length); d++)
+			if (x[d] != y[d])
+				return Integer.compare(x[d], y[d]);
+		return Integer.compare(x.length, y.length);
+	}
+
+	// Compares itemset s of the file with sorted query items
+	private int compare(int s, int[] query) {
+		long from = offsets.get(s), to = offsets.get(s + 1);
+		int len = (int) (to - from);
+		for (int d = 0; d < Math.min(len, query.length); d++) {
+			int item = items.get((int) from + d);
+			if (item != query[d])
+				return Integer.compare(item, query[d]);
+		}
+		return Integer.compare(len, query.length);
+	}
+
+	/**
+	 * Looks up the support of an itemset.
+	 *
+	 * @param query		The items, in any order.
+	 * @return			Its support, or -1 if it is not frequent.
+	 */
+	public int support(int... query) {
+		int[] sorted = query.clone();
+		Arrays.sort(sorted);
+		int lo = 0, hi = itemsets - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = compare(mid, sorted);
+			if (c < 0)
+				lo = mid + 1;
+			else if (c > 0)
+				hi = mid - 1;
+			else
+				return supports.get(mid);
+		}
+		return -1;
+	}
+
+	/**
+	 * Finds the frequent itemsets that contain an item, besides the item
+	 * itself, by descending support.
+	 *
+	 * @param item		The item.
+	 * @param limit		How many to return at most.
+	 * @return			The supersets, the most frequent first.
+	 */
+	public List<Entry> supersets(int item, int limit) {
+		List<Entry> out = new ArrayList<>();
+		int lo = 0, hi = distinct.limit() - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1;
+			int c = Integer.compare(distinct.get(mid), item);
+			if (c < 0)
+				lo = mid + 1;
+			else if (c > 0)
+				hi = mid - 1;
+			else {
+				for (long p = postingOffsets.get(mid); p < postingOffsets.get(mid + 1) && out.size() < limit; p++) {
+					int s = postings.get((int) p);
+					if (offsets.get(s + 1) - offsets.get(s) > 1)
+						out.add(entry(s));
+				}
+				break;
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Finds the itemsets with the highest supports.
+	 *
+	 * @param k			How many to return at most.
+	 * @param minSize	The smallest itemset size to consider, eg. 2 to skip
+	 * 					the singletons.
+	 * @return			The itemsets, the most frequent first.
+	 */
+	public List<Entry> topK(int k, int minSize) {
+		List<Entry> out = new ArrayList<>();
+		for (int p = 0; p < itemsets && out.size() < k; p++) {
+			int s = bySupport.get(p);
+			if (offsets.get(s + 1) - offsets.get(s) >= minSize)
+				out.add(entry(s));
+		}
+		return out;
+	}
+
+	private Entry entry(int s) {
+		int from = (int) offsets.get(s);
+		int[] set = new int[(int) offsets.get(s + 1) - from];
+		for (int d = 0; d < set.length; d++)
+			set[d] = items.get(from + d);
+		return new Entry(set, supports.get(s));
+	}
+
+	/**
+	 * @return		The number of itemsets in the index.
+	 */
+	public int size() {
+		return itemsets;
+	}
+
+	/**
+	 * @return		The number of baskets the itemsets were mined from.
+	 */
+	public long baskets() {
+		return baskets;
+	}
+
+	/**
+	 * @return		The size of the largest itemset.
+	 */
+	public int maxSize() {
+		return maxSize;
+	}
+
+	/**
+	 * Mines retail.txt with A Priori, writes the results next to it as
+	 * retail.txt.idx, then maps the index and times a few queries.
+	 */
+	public static void main(String[] args) {
+		String fp = Paths.get(System.getProperty("user.dir"), "src", "retail.txt").toString();
+		// Optional arguments: support, index file
+		double supp = (args.length > 0) ? Double.parseDouble(args[0]) : 0.005;
+		String path = (args.length > 1) ? args[1] : fp + ".idx";
+
+		try {
+			APriori ap = new APriori();
+			ap.setMaxItemsetSize(Integer.MAX_VALUE);
+			FrequentItemsets sets = ap.run(fp, supp);
+			long startTime = System.currentTimeMillis();
+			write(sets, BasketReader.countBaskets(fp), path);
+			System.out.println("Wrote " + sets.size() + " itemsets to " + path + " in "
+							   + (System.currentTimeMillis() - startTime) + " ms");
+
+			long openTime = System.nanoTime();
+			ResultIndex index = open(path);
+			System.out.println("Opened in " + (System.nanoTime() - openTime) / 1000 + " us");
+
+			List<Entry> top = index.topK(5, 2);
+			long queryTime = System.nanoTime();
+			for (Entry e : top)
+				index.support(e.items);
+			System.out.println("Top pairs and larger: " + top);
+			System.out.println("  support() lookups: " + (System.nanoTime() - queryTime) / 1000 / Math.max(1, top.size()) + " us each");
+			if (!top.isEmpty()) {
+				int item = top.get(0).items[0];
+				System.out.println("Supersets of " + item + ": " + index.supersets(item, 5));
+			}
+		} catch (IOException x) {
+		    System.err.println(x);
+		}
+	}
+}
@@ -0,0 +1,274 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Turns frequent itemsets into association rules X => Y, the form the
+ * results are served in downstream. For a frequent itemset I and a
+ * non-empty consequent Y, the rule (I - Y) => Y has
+ *   confidence = support(I) / support(I - Y),
+ *   lift       = confidence / (support(Y) / baskets),
+ * where every support comes from a SupportIndex, never from the data.
+ *
+ * The consequents of an itemset are grown level by level, as in Agrawal
+ * and Srikant's ap-genrules: moving an item from the antecedent to the
+ * consequent can only lower the confidence, so a consequent is extended
+ * only if all of its subsets gave confident rules. Rules must pass the
+ * minimum confidence and the minimum lift; with topN > 0 only the best
+ * topN are kept, in a bounded heap, so the number of rules held stays
+ * small however many itemsets there are.
+ */
+public class RuleGenerator {
+
+	/**
+	 * What "best" means for the top-N rules.
+	 */
+	public enum Order { CONFIDENCE, LIFT }
+
+	/**
+	 * One association rule, with raw items.
+	 */
+	public static class Rule {
+		public final int[] antecedent;
+		public final int[] consequent;
+		public final int support;
+		public final double confidence;
+		public final double lift;
+
+		Rule(int[] antecedent, int[] consequent, int support, double confidence, double lift) {
+			this.antecedent = antecedent;
+			this.consequent = consequent;
+			this.support = support;
+			this.confidence = confidence;
+			this.lift = lift;
+		}
+
+		@Override
+		public String toString() {
+			return format(antecedent) + " => " + format(consequent) + " (support " + support
+				   + String.format(Locale.ROOT, ", confidence %.3f, lift %.2f)", confidence, lift);
+		}
+
+		private static String format(int[] items) {
+			StringBuilder sb = new StringBuilder("{");
+			for (int d = 0; d < items.length; d++)
+				sb.append(d > 0 ? ", " : "").append(items[d]);
+			return sb.append('}').toString();
+		}
+	}
+
+	private static final int MAX_ITEMSET = 30;		// Subsets are int bit masks
+
+	private final SupportIndex index;
+	private final double minConfidence;
+	private final double minLift;
+	private Order order = Order.CONFIDENCE;
+
+	// Subset supports the index did not have (the itemsets were not closed under subsets)
+	private long missing = 0;
+
+	/**
+	 * @param index				The supports to look subsets up in.
+	 * @param minConfidence		The smallest confidence of a rule, in [0, 1].
+	 * @param minLift			The smallest lift of a rule (0 for any).
+	 */
+	public RuleGenerator(SupportIndex index, double minConfidence, double minLift) {
+		this.index = index;
+		this.minConfidence = minConfidence;
+		this.minLift = minLift;
+	}
+
+	/**
+	 * Sets which measure ranks the top-N rules, confidence by default.
+	 * Ties are broken by the other measure, then by support.
+	 */
+	public void setOrder(Order order) {
+		this.order = order;
+	}
+
+	/**
+	 * Generates the rules of every itemset of two or more items.
+	 *
+	 * @param sets		The frequent itemsets, from any engine.
+	 * @param topN		How many rules to keep, the best first; 0 keeps all.
+	 * @return			The rules, the best first.
+	 */
+	public List<Rule> generate(FrequentItemsets sets, int topN) {
+		Comparator<Rule> better = comparator();
+		PriorityQueue<Rule> best = new PriorityQueue<>(better);		// worst rule at the head
+		List<Rule> all = new ArrayList<>();
+		missing = 0;
+
+		int[] ranks = new int[8];
+		int[] sub = new int[8];
+		for (int i = 0; i < sets.size(); i++) {
+			int[] set = sets.items(i);
+			int k = set.length;
+			if (k < 2 || k > MAX_ITEMSET)
+				continue;
+			if (ranks.length < k) {
+				ranks = new int[k];
+				sub = new int[k];
+			}
+			if (!index.toRanks(set, ranks)) {
+				missing++;
+				continue;
+			}
+
+			int support = sets.support(i);
+			int full = (1 << k) - 1;
+
+			// Level 1 consequents, then every extension of confident ones
+			int[] level = new int[k];
+			for (int b = 0; b < k; b++)
+				level[b] = 1 << b;
+			int n = k;
+			for (int size = 1; size < k && n > 0; size++) {
+				int confident = 0;
+				for (int c = 0; c < n; c++) {
+					int consequent = level[c];
+					int antecedentSupport = subsetSupport(ranks, full ^ consequent, sub);
+					if (antecedentSupport <= 0)
+						continue;
+					double confidence = (double) support / antecedentSupport;
+					if (confidence < minConfidence)
+						continue;
+					level[confident++] = consequent;
+
+					int consequentSupport = subsetSupport(ranks, consequent, sub);
+					if (consequentSupport <= 0)
+						continue;
+					double lift = confidence * index.baskets() / consequentSupport;
+					if (lift < minLift)
+						continue;
+
+					if (topN <= 0)
+						all.add(rule(set, consequent, support, confidence, lift));
+					else if (best.size() < topN)
+						best.add(rule(set, consequent, support, confidence, lift));
+					else if (beats(confidence, lift, support, best.peek())) {
+						best.poll();
+						best.add(rule(set, consequent, support, confidence, lift));
+					}
+				}
+				level = extend(level, confident, k);
+				n = level.length;
+			}
+		}
+
+		List<Rule> out = (topN <= 0) ? all : new ArrayList<>(best);
+		out.sort(better.reversed());
+		return out;
+	}
+
+	/**
+	 * Joins confident consequents of one size into those one item larger,
+	 * keeping only candidates whose every subset was confident.
+	 *
+	 * @param level		The confident consequents, as bit masks.
+	 * @param n			How many there are.
+	 * @param k			The size of the itemset.
+	 * @return			The next level's consequents.
+	 */
+	private static int[] extend(int[] level, int n, int k) {
+		int[] sorted = Arrays.copyOf(level, n);
+		Arrays.sort(sorted);
+		int[] next = new int[Math.max(1, n * k)];
+		int m = 0;
+		for (int consequent : sorted) {
+			// Each candidate is built once, from the subset without its highest bit
+			for (int b = 32 - Integer.numberOfLeadingZeros(consequent); b < k; b++) {
+				int candidate = consequent | (1 << b);
+				boolean allConfident = true;
+				for (int rest = consequent; rest != 0 && allConfident; rest &= rest - 1)
+					allConfident = Arrays.binarySearch(sorted, candidate ^ Integer.lowestOneBit(rest)) >= 0;
+				if (allConfident) {
+					if (m == next.length)
+						next = Arrays.copyOf(next, m * 2);
+					next[m++] = candidate;
+				}
+			}
+		}
+		return Arrays.copyOf(next, m);
+	}
+
+	// The support of the subset of ranks picked by a bit mask
+	private int subsetSupport(int[] ranks, int mask, int[] sub) {
+		int n = 0;
+		for (int rest = mask; rest != 0; rest &= rest - 1)
+			sub[n++] = ranks[Integer.numberOfTrailingZeros(rest)];
+		int support = index.support(sub, n);
+		if (support < 0)
+			missing++;
+		return support;
+	}
+
+	private static Rule rule(int[] set, int consequent, int support, double confidence, double lift) {
+		int c = Integer.bitCount(consequent);
+		int[] antecedent = new int[set.length - c];
+		int[] then = new int[c];
+		int a = 0, t = 0;
+		for (int d = 0; d < set.length; d++)
+			if ((consequent & (1 << d)) != 0)
+				then[t++] = set[d];
+			else
+				antecedent[a++] = set[d];
+		return new Rule(antecedent, then, support, confidence, lift);
+	}
+
+	private Comparator<Rule> comparator() {
+		return (x, y) -> compare(x.confidence, x.lift, x.support, y);
+	}
+
+	// Compares a rule's measures to those of another rule, in the chosen order
+	private int compare(double confidence, double lift, int support, Rule other) {
+		double first = (order == Order.CONFIDENCE) ? confidence : lift;
+		double second = (order == Order.CONFIDENCE) ? lift : confidence;
+		int c = Double.compare(first, (order == Order.CONFIDENCE) ? other.confidence : other.lift);
+		if (c == 0)
+			c = Double.compare(second, (order == Order.CONFIDENCE) ? other.lift : other.confidence);
+		return (c != 0) ? c : Integer.compare(support, other.support);
+	}
+
+	private boolean beats(double confidence, double lift, int support, Rule worst) {
+		return compare(confidence, lift, support, worst) > 0;
+	}
+
+	/**
+	 * @return		The number of subset lookups the index could not answer
+	 * 				in the last generate(); those rules were skipped.
+	 */
+	public long missing() {
+		return missing;
+	}
+
+	/**
+	 * Mines retail.txt with A Priori, then generates the rules from the
+	 * counts of its passes and prints the best ones.
+	 */
+	public static void main(String[] args) {
+		String fp = Paths.get(System.getProperty("user.dir"), "src", "retail.txt").toString();
+		// Optional arguments: support, minimum confidence, minimum lift, top N, largest itemset size
+		double supp = (args.length > 0) ? Double.parseDouble(args[0]) : 0.005;
+		double minConfidence = (args.length > 1) ? Double.parseDouble(args[1]) : 0.5;
+		double minLift = (args.length > 2) ? Double.parseDouble(args[2]) : 1;
+		int topN = (args.length > 3) ? Integer.parseInt(args[3]) : 20;
+
+		APriori ap = new APriori();
+		ap.setMaxItemsetSize((args.length > 4) ? Integer.parseInt(args[4]) : Integer.MAX_VALUE);
+		try {
+			FrequentItemsets sets = ap.run(fp, supp);
+
+			long startTime = System.currentTimeMillis();
+			RuleGenerator rules = new RuleGenerator(ap.supportIndex(), minConfidence, minLift);
+			List<Rule> top = rules.generate(sets, topN);
+			long runTime = System.currentTimeMillis() - startTime;
+
+			System.out.println("Frequent itemsets: " + sets.size() + ", Rule generation: " + runTime + " ms");
+			for (Rule r : top)
+				System.out.println("  " + r);
+		} catch (IOException x) {
+		    System.err.println(x);
+		}
+	}
+}
@@ -0,0 +1,672 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Out-of-core mining with the SON (Savasere, Omiecinski and Navathe)
+ * algorithm, for datasets whose counts do not fit on the heap. Memory is
+ * bounded by a budget in bytes instead of by the size of the input:
+ *
+ *   1. The dataset is streamed in chunks that fit the budget. Each chunk
+ *      is mined in memory with FP-Growth at a support lowered in
+ *      proportion to the chunk's share of the baskets, and its frequent
+ *      itemsets are spilled to a temporary file as candidates.
+ *   2. The spill is sorted in budget-sized runs and merged, which drops
+ *      the candidates found by more than one chunk.
+ *   3. A second pass over the whole dataset counts the candidates, a
+ *      budget's worth at a time, and spills those with a count >= support
+ *      to a result file.
+ *
+ * An itemset frequent in the whole dataset must be frequent, at the
+ * lowered support, in at least one chunk, so no frequent itemset is
+ * missed and the result is exact.
+ */
+public class SON {
+
+	private static final int BYTES_PER_ITEM = 32;	/* An item of a chunk costs its own int, plus at most one
+													   FP-tree node of six ints when the chunk is mined */
+
+	private int maxBaskets = 0;					// Before reading our data set, there are 0 baskets.
+	private long totalItems = 0;				// Items over all baskets, to size the chunks evenly
+	private int basketCounter = 0;				// Which basket in the file
+	private boolean firstExec = true;			// If first execution of algorithm, need to count baskets.
+	private int support = 0;
+	private int chuck = Integer.MAX_VALUE;		/* Since we don't know how many baskets there are initially,
+												    we set the chuck to an arbitrarily large number.
+
+												   Note: Here, a chuck is an integer value representing the
+												         fractional amount of the entire data size (maxBaskets)
+												         Eg. We want 10% of 8816 then chuck = 8816
+												 */
+
+	private final long memoryBudget;			// Bytes of heap the chunks and candidates may use
+
+	// The candidates of every chunk, waiting for the second pass
+	private Path spill;
+	private long candidates = 0;
+	private int chunks = 0;
+	private int minChunk = Integer.MAX_VALUE;	// baskets in the smallest and largest chunk
+	private int maxChunk = 0;
+	private int verifyPasses = 0;
+
+	// The frequent itemsets of the last run, spilled as (k, items..., count)
+	private Path results;
+	private long frequent = 0;
+
+	public SON() {
+		this(64L << 20);
+	}
+
+	/**
+	 * @param memoryBudget		Bytes of heap the chunks and the candidates
+	 * 							being verified may use.
+	 */
+	public SON(long memoryBudget) {
+		this.memoryBudget = memoryBudget;
+	}
+
+	/**
+	 * Counts the baskets and items of the dataset. SON needs the number
+	 * of baskets before mining the first chunk, since each chunk's support
+	 * is its share of the overall support, and the number of items to
+	 * split the baskets into chunks of even size.
+	 *
+	 * @param fp	The filepath of the dataset.
+	 * @throws IOException
+	 */
+	private void countBaskets(String fp) throws IOException {
+		BasketCache cache = BasketCache.open(fp);
+		if (cache != null) {
+			maxBaskets = (int) cache.baskets();
+			totalItems = cache.totalItems();
+			return;
+		}
+		long[] items = { 0 };
+		maxBaskets = (int) BasketReader.read(fp, Long.MAX_VALUE, (basket, n) -> items[0] += n);
+		totalItems = items[0];
+	}
+
+	/**
+	 * This method conducts the first pass over the dataset indicated by
+	 * the filepath parameter. The baskets are split into chunks of even
+	 * size that fit the memory budget; each chunk is mined with FP-Growth
+	 * and its frequent itemsets are appended to the spill file.
+	 *
+	 * @param fp	The filepath of the dataset.
+	 * @throws IOException
+	 */
+	private void firstPass(String fp) throws IOException {
+		spill = Files.createTempFile("son", ".candidates");
+		try (DataOutputStream out = new DataOutputStream(
+				new BufferedOutputStream(Files.newOutputStream(spill), 1 << 16))) {
+			ChunkMiner miner = new ChunkMiner(out);
+			try {
+				basketCounter = (int) BasketReader.read(fp, basketLimit(), miner);
+				miner.flush();
+			} catch (UncheckedIOException x) {
+				throw x.getCause();
+			}
+		} catch (IOException | RuntimeException x) {
+			Files.deleteIfExists(spill);		// a partial spill is of no use
+			throw x;
+		}
+	}
+
+	/**
+	 * Buffers baskets into a chunk and mines each full chunk locally.
+	 * Chunks are sized evenly from the number of baskets the pass reads,
+	 * so no chunk is left with a few baskets and a support near 1, at which
+	 * FP-Growth would enumerate every subset of its baskets. When longer
+	 * baskets than planned fill the capacity first, only an even share of
+	 * the buffer is mined and the rest is carried into the next chunk, so
+	 * the cut cannot leave a runt at the end either.
+	 */
+	private class ChunkMiner implements BasketHandler {
+		private final DataOutputStream out;
+		private final long capacity = Math.max(1024, memoryBudget / BYTES_PER_ITEM);
+		private final long all = Math.min(basketLimit(), maxBaskets);
+		private int[] items = new int[1 << 12];
+		private int[] offsets = new int[1 << 10];	// offsets[b] is where basket b starts
+		private int baskets = 0;
+		private int used = 0;
+		private long seen = 0;						// baskets of the pass read so far
+		private long fit;							// baskets a chunk is expected to hold
+		private long perChunk;						// baskets in each chunk still to come
+
+		ChunkMiner(DataOutputStream out) {
+			this.out = out;
+			double cost = 1 + (maxBaskets > 0 ? (double) totalItems / maxBaskets : 0);	// an offset plus the items
+			fit = (long) Math.max(1, capacity * 0.8 / cost);
+			plan();
+		}
+
+		/**
+		 * Splits the baskets still to come, buffered ones included, into the
+		 * fewest even chunks of at most fit baskets. fit starts from the
+		 * dataset's average basket, with a fifth of the capacity left as
+		 * slack for chunks of longer baskets than the average.
+		 */
+		private void plan() {
+			long left = Math.max(1, Math.max(0, all - seen) + baskets);
+			long chunksLeft = (left + fit - 1) / fit;
+			perChunk = (left + chunksLeft - 1) / chunksLeft;
+		}
+
+		@Override
+		public void basket(int[] basket, int n) {
+			if (used + n > items.length)
+				items = Arrays.copyOf(items, Math.max(used + n, items.length * 2));
+			if (baskets + 2 > offsets.length)
+				offsets = Arrays.copyOf(offsets, offsets.length * 2);
+			System.arraycopy(basket, 0, items, used, n);
+			offsets[baskets++] = used;
+			used += n;
+			offsets[baskets] = used;
+			seen++;
+
+			if (baskets >= perChunk)
+				mine(baskets);
+			else if (used + baskets >= capacity)
+				cut();
+		}
+
+		/**
+		 * The buffer is full before the planned chunk: what fits is the new
+		 * fit, and the baskets still to come, buffered ones included, are
+		 * split evenly by it. Only the first chunk's share of the buffer is
+		 * mined; the rest starts the next chunk.
+		 */
+		private void cut() {
+			long left = Math.max(0, all - seen) + baskets;
+			fit = baskets;
+			if (left <= baskets) {
+				mine(baskets);
+				return;
+			}
+			long chunksLeft = (left + fit - 1) / fit;
+			mine((int) ((left + chunksLeft - 1) / chunksLeft));
+		}
+
+		/**
+		 * Mines whatever is buffered, at the end of the pass.
+		 */
+		void flush() {
+			if (baskets > 0)
+				mine(baskets);
+		}
+
+		/**
+		 * Mines the first baskets of the buffer as a chunk, spills its
+		 * frequent itemsets, and moves the rest of the buffer to the front.
+		 *
+		 * @param chunk		How many of the buffered baskets to mine.
+		 */
+		private void mine(int chunk) {
+			// Lowered support: ceil(support * chunk baskets / all baskets)
+			int local = (int) Math.max(1, ((long) support * chunk + all - 1) / all);
+
+			// Local singletons, then the chunk's FP-tree over its locally frequent items
+			ParallelScan.ItemCounts counts = new ParallelScan.ItemCounts();
+			int[] basket = new int[64];
+			for (int b = 0; b < chunk; b++) {
+				int n = offsets[b + 1] - offsets[b];
+				if (basket.length < n)
+					basket = new int[n];
+				System.arraycopy(items, offsets[b], basket, 0, n);
+				counts.basket(basket, n);
+			}
+			Map<Integer, Integer> singletons = new HashMap<>();
+			counts.addTo(singletons);
+			List<Integer> freqItems = new ArrayList<>();
+			for (Map.Entry<Integer, Integer> entry : singletons.entrySet())
+				if (entry.getValue() >= local)
+					freqItems.add(entry.getKey());
+			ItemIndex index = ItemIndex.byFrequency(freqItems, singletons);
+
+			FPGrowth.FPTree tree = new FPGrowth.FPTree(index.size(), 1 << 12);
+			for (int b = 0; b < chunk; b++) {
+				int m = 0;
+				for (int i = offsets[b]; i < offsets[b + 1]; i++) {
+					int r = index.rank(items[i]);
+					if (r >= 0)
+						basket[m++] = r;
+				}
+				m = LevelWise.sortDistinct(basket, m);
+				if (m > 0)
+					tree.insert(basket, m, 1);
+			}
+
+			// Itemsets go straight to the spill file, so even a chunk with many is never held in memory
+			FPGrowth.mine(tree, index, local, (set, count) -> {
+				try {
+					out.writeInt(set.length);
+					for (int item : set)
+						out.writeInt(item);
+				} catch (IOException x) {
+					throw new UncheckedIOException(x);
+				}
+				candidates++;
+			});
+			chunks++;
+			minChunk = Math.min(minChunk, chunk);
+			maxChunk = Math.max(maxChunk, chunk);
+
+			// Carry the baskets that were not mined into the next chunk
+			int start = offsets[chunk];
+			System.arraycopy(items, start, items, 0, used - start);
+			for (int b = chunk; b <= baskets; b++)
+				offsets[b - chunk] = offsets[b] - start;
+			baskets -= chunk;
+			used -= start;
+			plan();
+		}
+	}
+
+	/**
+	 * Sorts the spilled candidates and drops the repeats found by more than
+	 * one chunk. Runs of a budget's worth of candidates are sorted in memory
+	 * by size, then lexicographically, and written out; the runs are then
+	 * merged into a new spill file, skipping a candidate equal to the one
+	 * before it. The candidates are left in the spill, each exactly once.
+	 *
+	 * @throws IOException
+	 */
+	private void sortSpill() throws IOException {
+		List<Path> runs = new ArrayList<>();
+		try {
+			try (DataInputStream in = new DataInputStream(
+					new BufferedInputStream(Files.newInputStream(spill), 1 << 16))) {
+				long left = candidates;
+				while (left > 0) {
+					Map<Integer, int[]> flat = new TreeMap<>();
+					Map<Integer, Integer> used = new HashMap<>();
+					left -= readBatch(in, left, flat, used);
+
+					Path run = Files.createTempFile("son", ".run");
+					runs.add(run);
+					try (DataOutputStream out = new DataOutputStream(
+							new BufferedOutputStream(Files.newOutputStream(run), 1 << 16))) {
+						for (Map.Entry<Integer, int[]> e : flat.entrySet()) {
+							int k = e.getKey();
+							int[] a = e.getValue();
+							int u = used.get(k);
+							for (int c = 0; c < u; c += k)
+								Arrays.sort(a, c, c + k);	// spilled in the order FP-Growth found them
+							int[] sorted = CandidateTrie.sortDistinct(a, u, k);
+							for (int c = 0; c < sorted.length; c += k) {
+								out.writeInt(k);
+								for (int d = 0; d < k; d++)
+									out.writeInt(sorted[c + d]);
+							}
+						}
+					}
+				}
+			}
+			Files.delete(spill);
+
+			// Merge the runs, one small buffer and one candidate of each in memory
+			spill = Files.createTempFile("son", ".candidates");
+			candidates = 0;
+			List<DataInputStream> ins = new ArrayList<>();
+			try (DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(spill), 1 << 16))) {
+				PriorityQueue<RunHead> heads = new PriorityQueue<>();
+				for (Path run : runs) {
+					DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(run), 1 << 12));
+					ins.add(in);
+					RunHead head = new RunHead(in);
+					if (head.next())
+						heads.add(head);
+				}
+				int[] last = null;
+				while (!heads.isEmpty()) {
+					RunHead head = heads.poll();
+					if (last == null || !Arrays.equals(last, head.set)) {
+						last = head.set;
+						out.writeInt(last.length);
+						for (int item : last)
+							out.writeInt(item);
+						candidates++;
+					}
+					if (head.next())
+						heads.add(head);
+				}
+			} finally {
+				for (DataInputStream in : ins)
+					in.close();
+			}
+		} finally {
+			for (Path run : runs)
+				Files.deleteIfExists(run);
+		}
+	}
+
+	/**
+	 * The next candidate of a sorted run, ordered by size and then
+	 * lexicographically.
+	 */
+	private static class RunHead implements Comparable<RunHead> {
+		private final DataInputStream in;
+		private int[] set;
+
+		RunHead(DataInputStream in) {
+			this.in = in;
+		}
+
+		/**
+		 * Reads the run's next candidate.
+		 *
+		 * @return		False at the end of the run.
+		 * @throws IOException
+		 */
+		boolean next() throws IOException {
+			int k;
+			try {
+				k = in.readInt();
+			} catch (EOFException x) {
+				return false;
+			}
+			set = new int[k];
+			for (int d = 0; d < k; d++)
+				set[d] = in.readInt();
+			return true;
+		}
+
+		@Override
+		public int compareTo(RunHead o) {
+			if (set.length != o.set.length)
+				return Integer.compare(set.length, o.set.length);
+			for (int d = 0; d < set.length; d++)
+				if (set[d] != o.set[d])
+					return Integer.compare(set[d], o.set[d]);
+			return 0;
+		}
+	}
+
+	/**
+	 * Reads candidates from the spill, grouped by size, until they fill
+	 * the memory budget.
+	 *
+	 * @param in		The spill, positioned at the next candidate.
+	 * @param left		How many candidates the spill still holds.
+	 * @param flat		Gets the candidates of each size back to back.
+	 * @param used		Gets how many entries of each flat array are in use.
+	 * @return			How many candidates were read.
+	 * @throws IOException
+	 */
+	private long readBatch(DataInputStream in, long left, Map<Integer, int[]> flat,
+						   Map<Integer, Integer> used) throws IOException {
+		long read = 0;
+		long bytes = 0;
+		while (read < left && bytes < memoryBudget) {
+			int k = in.readInt();
+			int[] a = flat.get(k);
+			int u = used.getOrDefault(k, 0);
+			if (a == null || u + k > a.length)
+				flat.put(k, a = Arrays.copyOf((a == null) ? new int[0] : a, Math.max(16, 2 * (u + k))));
+			for (int d = 0; d < k; d++)
+				a[u + d] = in.readInt();
+			used.put(k, u + k);
+			bytes += 12L * k;	// the candidate, then its trie
+			read++;
+		}
+		return read;
+	}
+
+	/**
+	 * This method conducts the second pass over the dataset indicated by
+	 * the filepath parameter. The spill is first sorted and deduplicated;
+	 * candidates are then read back until they fill the memory budget and
+	 * counted exactly in one pass with a CandidateTrie per itemset size. If
+	 * the candidates do not all fit, this repeats for the rest of them.
+	 * Since no candidate is in two batches, the frequent ones are spilled
+	 * to the result file as they are found.
+	 *
+	 * @param fp	The filepath of the dataset.
+	 * @throws IOException
+	 */
+	private void secondPass(String fp) throws IOException {
+		results = Files.createTempFile("son", ".frequent");
+		try {
+			sortSpill();
+			try (DataInputStream in = new DataInputStream(
+					new BufferedInputStream(Files.newInputStream(spill), 1 << 16));
+				 DataOutputStream out = new DataOutputStream(
+					new BufferedOutputStream(Files.newOutputStream(results), 1 << 16))) {
+				long left = candidates;
+				while (left > 0) {
+					Map<Integer, int[]> flat = new TreeMap<>();
+					Map<Integer, Integer> used = new HashMap<>();
+					left -= readBatch(in, left, flat, used);
+					verify(fp, flat, used, out);
+					verifyPasses++;
+				}
+			} catch (UncheckedIOException x) {
+				throw x.getCause();
+			}
+		} finally {
+			Files.deleteIfExists(spill);
+		}
+	}
+
+	/**
+	 * Counts one batch of candidates over the dataset and spills those
+	 * with a count >= support to the result file.
+	 */
+	private void verify(String fp, Map<Integer, int[]> flat, Map<Integer, Integer> used,
+						DataOutputStream out) throws IOException {
+		// Rank every candidate item in ascending id order, so sorted ids are sorted ranks
+		Set<Integer> batchItems = new HashSet<>();
+		for (Map.Entry<Integer, int[]> e : flat.entrySet())
+			for (int i = 0; i < used.get(e.getKey()); i++)
+				batchItems.add(e.getValue()[i]);
+		ItemIndex index = new ItemIndex(batchItems);
+
+		List<CandidateTrie> tries = new ArrayList<>();
+		for (Map.Entry<Integer, int[]> e : flat.entrySet())
+			tries.add(new CandidateTrie(toRanks(e.getValue(), used.get(e.getKey()), e.getKey(), index),
+										e.getKey()));
+
+		int[][] ranks = { new int[64] };
+		basketCounter = (int) BasketReader.read(fp, basketLimit(), (items, n) -> {
+			if (ranks[0].length < n)
+				ranks[0] = new int[n];
+			int m = 0;
+			for (int i = 0; i < n; i++) {
+				int r = index.rank(items[i]);
+				if (r >= 0)
+					ranks[0][m++] = r;
+			}
+			m = LevelWise.sortDistinct(ranks[0], m);
+			for (CandidateTrie trie : tries)
+				trie.count(ranks[0], m);
+		});
+
+		for (CandidateTrie trie : tries)
+			trie.forEach((set, count) -> {
+				if (count < support)
+					return;
+				try {
+					out.writeInt(set.length);
+					for (int r : set)
+						out.writeInt(index.item(r));
+					out.writeInt(count);
+				} catch (IOException x) {
+					throw new UncheckedIOException(x);
+				}
+				frequent++;
+			});
+	}
+
+	/**
+	 * Converts k-itemsets of items into sorted ranks, then sorts them
+	 * lexicographically and drops repeats, as CandidateTrie expects.
+	 */
+	private static int[] toRanks(int[] flat, int used, int k, ItemIndex index) {
+		for (int c = 0; c < used; c += k) {
+			for (int d = 0; d < k; d++)
+				flat[c + d] = index.rank(flat[c + d]);
+			Arrays.sort(flat, c, c + k);		// spilled in the order FP-Growth found them
+		}
+		return CandidateTrie.sortDistinct(flat, used, k);
+	}
+
+	/**
+	 * Helper method converts the chuck into the number of baskets a pass
+	 * reads: chuck + 1 baskets, as in APriori, or the whole file on the
+	 * first execution.
+	 *
+	 * @return		The number of baskets to read.
+	 */
+	private long basketLimit() {
+		return (chuck == Integer.MAX_VALUE) ? Long.MAX_VALUE : (long) chuck + 1;
+	}
+
+	/**
+	 * Method sets the chuck of the dataset to be considered, as an integer,
+	 * based on a percentage of the overall dataset size. This method is
+	 * intended to be used before the first pass of the next cycle of
+	 * algorithm execution.
+	 *
+	 * @param percentCh		Percentage, as a decimal, of the dataset to use.
+	 */
+	private void configNextRound(int percentCh) {
+		chuck = (int)((double)percentCh/100 * maxBaskets);	// chuck is percentage of our dataset, converted into an integer number of baskets
+		basketCounter = 0;									// reset counter to 0 for first pass of next cycle
+	}
+
+	/**
+	 * Sets the support threshold, as an integer, based on a percentage of
+	 * the overall dataset size. Unlike the other engines SON needs it
+	 * before its first pass, to lower it for each chunk.
+	 *
+	 * @param percentSupp	Percentage, as a decimal, of the support threshold.
+	 */
+	private void configSupp(double percentSupp) {
+		if (firstExec)
+			support = (int)(percentSupp * maxBaskets);		/* After counting the baskets of the first run,
+															   support is a fraction of the maximum dataset */
+		else
+			support = (int)(percentSupp * chuck);			/* In subsequent runs after the first, we're accessing
+															   only a fraction of the maximum dataset (ie. chuck value) */
+
+		basketCounter = 0;
+	}
+
+	/**
+	 * This method executes the same scalability study as APriori and PCY:
+	 * the user provides a support threshold, as a percentage, and the
+	 * method benchmarks the algorithm on dataset sizes of 1%, 5%, 10%,
+	 * 20%, ... , 100% of the dataset, within the memory budget.
+	 *
+	 * @param supp		The support, as a decimal, for the study.
+	 */
+	public void runStudy(double supp) {
+		String fp = Paths.get(System.getProperty("user.dir"), "src", "retail.txt").toString();	/* This filepath relates to where Eclipse instantiates
+		   																	   the JVM (ie. the root project directory) */
+		int dsize = 100;
+
+		for (int i = 0; i < 12; i++) {
+
+			// Start from 100% dataset size down to 1% in 10% increments
+			if (i > 0 && i < 10) {
+				firstExec = false;	// after first execution (i=0), dataset size is known (maxBaskets)
+				configNextRound( (dsize -= 10) );
+			}
+			if (i == 10) {
+				configNextRound( (dsize -= 5) );
+			}
+			if (i == 11) {
+				configNextRound( (dsize -= 4) );
+			}
+
+			// Only interested in execution time of the algorithmic code.
+			long startTime = System.currentTimeMillis();
+			try {
+				if (firstExec)
+					countBaskets(fp);
+				configSupp(supp);		// SON lowers the support per chunk, so it is needed up front
+				firstPass(fp);
+				secondPass(fp);
+			} catch (Exception e) { System.out.println(e); }
+
+			long endTime = System.currentTimeMillis();
+			long runTime = endTime - startTime;
+			System.out.println("(" + dsize + "% of Data Size: " + maxBaskets + ")");
+			System.out.println("  Runtime: " + runTime + " ms");
+			System.out.println("  Baskets: " + chuck + ", Support: " + support);
+			System.out.println("  Chunks: " + chunks + " (" + minChunk + " to " + maxChunk + " baskets), Candidates: "
+							   + candidates + ", Verify passes: " + verifyPasses);
+			if (chunks > 1 && 2L * minChunk < maxChunk)
+				System.out.println("  Uneven chunks: the smallest is mined at a support near "
+								   + Math.max(1, (long) support * minChunk / Math.max(1, Math.min(basketLimit(), maxBaskets))));
+			System.out.println("  Frequent itemsets: " + frequent + "\n");
+
+			// Clear out the previous run's tables
+			try {
+				clearTables();
+			} catch (IOException e) { System.out.println(e); }
+		}
+	}
+
+	/**
+	 * Mines the whole dataset once and reads the frequent itemsets back
+	 * from the result file. Unlike the study, which only counts them, this
+	 * holds every frequent itemset on the heap, outside the memory budget.
+	 *
+	 * @param fp		The filepath of the dataset.
+	 * @param supp		The support, as a decimal.
+	 * @return			All frequent itemsets, singletons included.
+	 * @throws IOException
+	 */
+	public FrequentItemsets run(String fp, double supp) throws IOException {
+		firstExec = true;
+		chuck = Integer.MAX_VALUE;
+		basketCounter = 0;
+
+		try {
+			countBaskets(fp);
+			configSupp(supp);
+			firstPass(fp);
+			secondPass(fp);
+
+			FrequentItemsets result = new FrequentItemsets();
+			try (DataInputStream in = new DataInputStream(
+					new BufferedInputStream(Files.newInputStream(results), 1 << 16))) {
+				for (long i = 0; i < frequent; i++) {
+					int[] set = new int[in.readInt()];
+					for (int d = 0; d < set.length; d++)
+						set[d] = in.readInt();
+					result.add(set, in.readInt());
+				}
+			}
+			return result;
+		} finally {
+			clearTables();
+		}
+	}
+
+	/**
+	 * Deletes the result file and resets the counts of the last run.
+	 *
+	 * @throws IOException
+	 */
+	private void clearTables() throws IOException {
+		if (results != null)
+			Files.deleteIfExists(results);
+		spill = null;
+		results = null;
+		candidates = 0;
+		chunks = 0;
+		minChunk = Integer.MAX_VALUE;
+		maxChunk = 0;
+		verifyPasses = 0;
+		frequent = 0;
+	}
+
+	public static void main(String[] args) {
+		// Optional argument: the memory budget in MB
+		SON son = (args.length > 0) ? new SON(Long.parseLong(args[0]) << 20) : new SON();
+		son.runStudy(0.01);				// specify a support percent
+	}
+}
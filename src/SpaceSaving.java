@@ -0,0 +1,202 @@
+/**
+ * The Space-Saving summary of Metwally, Agrawal and El Abbadi: approximate
+ * counts of the heaviest keys of a stream in a fixed number of counters.
+ * A key that is already monitored has its counter incremented. Otherwise,
+ * while there is room it gets a new counter, and once all counters are
+ * used it takes over the counter with the smallest count, inheriting that
+ * count as its error.
+ *
+ * For every key, count - error <= true count <= count, and any key whose
+ * true count exceeds total / capacity is monitored. Counts are doubles so
+ * that baskets can carry weights, eg. for time decay (see StreamMiner).
+ *
+ * The counters form a binary min-heap on the count, so the counter to
+ * take over is always at the root, and a hash table of the keys (open
+ * addressing, linear probing) finds a key's counter. An update costs
+ * O(log capacity) at worst, and usually O(1), since an incremented
+ * counter rarely moves far down the heap.
+ */
+public class SpaceSaving {
+
+	/**
+	 * Callback used to walk the monitored keys.
+	 */
+	public interface Visitor {
+		void visit(long key, double count, double error);
+	}
+
+	private final int capacity;
+	private final long[] keys;			// heap order, by count
+	private final double[] counts;
+	private final double[] errors;
+	private int size = 0;
+	private double total = 0;
+
+	// Hash table from key to heap position + 1 (0 = empty slot)
+	private final long[] slotKeys;
+	private final int[] slotPos;
+	private final int mask;
+
+	/**
+	 * @param capacity		The number of counters, at least 1.
+	 */
+	public SpaceSaving(int capacity) {
+		this.capacity = Math.max(1, capacity);
+		keys = new long[this.capacity];
+		counts = new double[this.capacity];
+		errors = new double[this.capacity];
+		int slots = Integer.highestOneBit(this.capacity * 2 - 1) << 1;
+		slotKeys = new long[slots];
+		slotPos = new int[slots];
+		mask = slots - 1;
+	}
+
+	/**
+	 * Adds w to the count of a key.
+	 *
+	 * @param key	The key (an item, or a packed pair).
+	 * @param w		The weight, > 0.
+	 */
+	public void add(long key, double w) {
+		total += w;
+		int slot = find(key);
+		if (slotPos[slot] != 0) {
+			int p = slotPos[slot] - 1;
+			counts[p] += w;
+			siftDown(p);
+		} else if (size < capacity) {
+			keys[size] = key;
+			counts[size] = w;
+			errors[size] = 0;
+			slotKeys[slot] = key;
+			slotPos[slot] = size + 1;
+			siftUp(size++);
+		} else {
+			// Take over the smallest counter, at the root
+			remove(find(keys[0]));
+			double min = counts[0];
+			keys[0] = key;
+			errors[0] = min;
+			counts[0] = min + w;
+			slot = find(key);
+			slotKeys[slot] = key;
+			slotPos[slot] = 1;
+			siftDown(0);
+		}
+	}
+
+	/**
+	 * @return		The estimated count of a key: its counter if monitored,
+	 * 				otherwise the largest count it can have (see minCount).
+	 */
+	public double estimate(long key) {
+		int slot = find(key);
+		return (slotPos[slot] != 0) ? counts[slotPos[slot] - 1] : minCount();
+	}
+
+	/**
+	 * @return		The largest possible true count of a key that is not
+	 * 				monitored: the smallest counter once all are used, else 0.
+	 */
+	public double minCount() {
+		return (size < capacity) ? 0 : counts[0];
+	}
+
+	/**
+	 * @return		The total weight added so far.
+	 */
+	public double total() {
+		return total;
+	}
+
+	/**
+	 * @return		The number of monitored keys.
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Multiplies every count, error and the total by f, which keeps the
+	 * heap order. Used to renormalise decayed weights.
+	 */
+	public void scale(double f) {
+		for (int p = 0; p < size; p++) {
+			counts[p] *= f;
+			errors[p] *= f;
+		}
+		total *= f;
+	}
+
+	/**
+	 * Visits every monitored key, in no particular order.
+	 *
+	 * @param v		The visitor.
+	 */
+	public void forEach(Visitor v) {
+		for (int p = 0; p < size; p++)
+			v.visit(keys[p], counts[p], errors[p]);
+	}
+
+	private int find(long key) {
+		int slot = (int) mix(key) & mask;
+		while (slotPos[slot] != 0 && slotKeys[slot] != key)
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	// Deletes a slot, shifting back any later entry of its probe run
+	private void remove(int slot) {
+		slotPos[slot] = 0;
+		int next = (slot + 1) & mask;
+		while (slotPos[next] != 0) {
+			int home = (int) mix(slotKeys[next]) & mask;
+			// Move next into the hole unless its home lies cyclically in (slot, next]
+			if (((next - home) & mask) >= ((next - slot) & mask)) {
+				slotKeys[slot] = slotKeys[next];
+				slotPos[slot] = slotPos[next];
+				slotPos[next] = 0;
+				slot = next;
+			}
+			next = (next + 1) & mask;
+		}
+	}
+
+	private static long mix(long h) {
+		h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+		h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+		return h ^ (h >>> 33);
+	}
+
+	private void siftUp(int p) {
+		while (p > 0) {
+			int parent = (p - 1) >>> 1;
+			if (counts[parent] <= counts[p])
+				break;
+			swap(p, parent);
+			p = parent;
+		}
+	}
+
+	private void siftDown(int p) {
+		while (true) {
+			int l = 2 * p + 1, smallest = p;
+			if (l < size && counts[l] < counts[smallest])
+				smallest = l;
+			if (l + 1 < size && counts[l + 1] < counts[smallest])
+				smallest = l + 1;
+			if (smallest == p)
+				return;
+			swap(p, smallest);
+			p = smallest;
+		}
+	}
+
+	private void swap(int a, int b) {
+		long k = keys[a]; keys[a] = keys[b]; keys[b] = k;
+		double c = counts[a]; counts[a] = counts[b]; counts[b] = c;
+		double e = errors[a]; errors[a] = errors[b]; errors[b] = e;
+		slotPos[find(keys[a])] = a + 1;
+		slotPos[find(keys[b])] = b + 1;
+	}
+}
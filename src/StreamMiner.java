@@ -0,0 +1,357 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Approximate frequent items and pairs over an unbounded stream of baskets,
+ * for feeds that never end and cannot be read twice. Baskets are taken one
+ * at a time (as a BasketHandler, or from an iterator or a queue), and each
+ * costs the same whatever came before it: every item and every pair of the
+ * basket updates a SpaceSaving summary of fixed capacity, so memory stays
+ * bounded. Two flavours of "recent" are supported:
+ *
+ *   - A sliding window of the last N baskets. The window is cut into panes
+ *     of N / panes baskets, each with its own summaries; a full pane is
+ *     kept until it falls out of the window, and a query merges the panes
+ *     still in it. The window so covers the last N baskets to within one
+ *     pane.
+ *   - Time decay. A basket that arrived t baskets ago weighs 2^(-t / halfLife),
+ *     so old baskets fade out instead of dropping out. This uses forward
+ *     decay: new baskets get growing weights and the summaries are
+ *     renormalised now and then, so no counter is touched as time passes.
+ *
+ * The frequent items and pairs can be queried at any time. Each answer
+ * carries its count and an error bound, such that
+ * count - error <= true (weighted) count <= count, and those whose
+ * count - error reaches the support are guaranteed to be frequent. An
+ * itemset that no pane monitors is never in the answer, yet its true count
+ * may be as high as the error bound (the sum of the panes' smallest
+ * counts). So every itemset whose true count reaches the support is in the
+ * answer only while itemErrorBound() or pairErrorBound() is below the
+ * support; past that, raise the capacity of the summaries.
+ */
+public class StreamMiner implements BasketHandler {
+
+	/**
+	 * One answer of a query: an item or a pair with its estimated count.
+	 */
+	public static class Estimate {
+		public final int[] items;
+		public final double count;
+		public final double error;
+
+		Estimate(int[] items, double count, double error) {
+			this.items = items;
+			this.count = count;
+			this.error = error;
+		}
+
+		/**
+		 * @return		True if the itemset is frequent whatever the error.
+		 */
+		public boolean guaranteed(double support) {
+			return count - error >= support;
+		}
+
+		@Override
+		public String toString() {
+			return Arrays.toString(items) + " " + String.format("%.1f", count) + " (+/- " + String.format("%.1f", error) + ")";
+		}
+	}
+
+	private static final double RENORMALISE = 1e100;	// Forward decay weights are rescaled past this
+
+	private final int itemCapacity;
+	private final int pairCapacity;
+
+	// Sliding window: the full panes still in the window, oldest first, and the current one
+	private final int paneSize;
+	private final int maxPanes;
+	private final Deque<Pane> panes = new ArrayDeque<>();
+	private Pane current;
+	private int inCurrent = 0;
+
+	// Time decay: weight of the next basket, growing by a factor each basket
+	private final double growth;
+	private double weight = 1;
+
+	private long baskets = 0;
+	private int[] distinct = new int[64];
+
+	/**
+	 * Creates a miner over a sliding window of the last window baskets.
+	 *
+	 * @param itemCapacity		Counters for items in each pane.
+	 * @param pairCapacity		Counters for pairs in each pane.
+	 * @param window			The number of baskets in the window.
+	 * @param panes				How many panes the window is cut into.
+	 */
+	public StreamMiner(int itemCapacity, int pairCapacity, int window, int panes) {
+		this.itemCapacity = itemCapacity;
+		this.pairCapacity = pairCapacity;
+		this.maxPanes = Math.max(1, panes);
+		this.paneSize = Math.max(1, window / this.maxPanes);
+		this.growth = 1;
+		this.current = newPane();
+	}
+
+	/**
+	 * Creates a miner where the weight of a basket halves every halfLife
+	 * baskets.
+	 *
+	 * @param itemCapacity		Counters for items.
+	 * @param pairCapacity		Counters for pairs.
+	 * @param halfLife			Baskets after which a basket counts half.
+	 */
+	public StreamMiner(int itemCapacity, int pairCapacity, double halfLife) {
+		this.itemCapacity = itemCapacity;
+		this.pairCapacity = pairCapacity;
+		this.maxPanes = 0;
+		this.paneSize = Integer.MAX_VALUE;
+		this.growth = Math.pow(2, 1 / halfLife);
+		this.current = newPane();
+	}
+
+	/**
+	 * The summaries of one pane of the window (or of the whole stream,
+	 * under time decay), and the weight of its baskets.
+	 */
+	private static class Pane {
+		final SpaceSaving items, pairs;
+		double baskets = 0;
+
+		Pane(int itemCapacity, int pairCapacity) {
+			items = new SpaceSaving(itemCapacity);
+			pairs = new SpaceSaving(pairCapacity);
+		}
+
+		SpaceSaving summary(boolean ofPairs) {
+			return ofPairs ? pairs : items;
+		}
+	}
+
+	private Pane newPane() {
+		return new Pane(itemCapacity, pairCapacity);
+	}
+
+	private boolean decaying() {
+		return maxPanes == 0;
+	}
+
+	/**
+	 * Adds the next basket of the stream. Repeated items count once.
+	 * The array is not kept.
+	 */
+	@Override
+	public synchronized void basket(int[] items, int n) {
+		if (distinct.length < n)
+			distinct = new int[n];
+		System.arraycopy(items, 0, distinct, 0, n);
+		int m = LevelWise.sortDistinct(distinct, n);
+
+		for (int i = 0; i < m; i++) {
+			current.items.add(distinct[i], weight);
+			for (int j = i + 1; j < m; j++)
+				current.pairs.add(pack(distinct[i], distinct[j]), weight);
+		}
+		current.baskets += weight;
+		baskets++;
+
+		if (decaying()) {
+			weight *= growth;
+			if (weight > RENORMALISE) {
+				current.items.scale(1 / weight);
+				current.pairs.scale(1 / weight);
+				current.baskets /= weight;
+				weight = 1;
+			}
+		} else if (++inCurrent == paneSize) {
+			panes.addLast(current);
+			if (panes.size() > maxPanes)
+				panes.removeFirst();
+			current = newPane();
+			inCurrent = 0;
+		}
+	}
+
+	/**
+	 * Adds every basket of an iterator.
+	 */
+	public void consume(Iterator<int[]> stream) {
+		while (stream.hasNext()) {
+			int[] b = stream.next();
+			basket(b, b.length);
+		}
+	}
+
+	/**
+	 * Adds baskets from a queue, waiting for each, until the end marker
+	 * is taken. Other threads may query the miner meanwhile; queries and
+	 * baskets are synchronized on the miner.
+	 *
+	 * @param queue		Where the producer puts the baskets.
+	 * @param end		The marker the producer puts last (compared by reference).
+	 * @throws InterruptedException
+	 */
+	public void consume(BlockingQueue<int[]> queue, int[] end) throws InterruptedException {
+		for (int[] b = queue.take(); b != end; b = queue.take())
+			basket(b, b.length);
+	}
+
+	private static long pack(int a, int b) {
+		return ((long) a << 32) | (b & 0xFFFFFFFFL);
+	}
+
+	/**
+	 * @return		The (weighted) number of baskets the answers refer to:
+	 * 				those in the window, or the decayed total.
+	 */
+	public synchronized double windowBaskets() {
+		double total = current.baskets;
+		for (Pane pane : panes)
+			total += pane.baskets;
+		return total / scale();
+	}
+
+	/**
+	 * @return		The number of baskets added so far.
+	 */
+	public synchronized long baskets() {
+		return baskets;
+	}
+
+	/**
+	 * @return		The largest error of any count of a query on items.
+	 */
+	public synchronized double itemErrorBound() {
+		return errorBound(false);
+	}
+
+	/**
+	 * @return		The largest error of any count of a query on pairs.
+	 */
+	public synchronized double pairErrorBound() {
+		return errorBound(true);
+	}
+
+	/**
+	 * @param supp		The support, as a fraction of windowBaskets().
+	 * @return			Every monitored item that may be frequent, most
+	 * 					frequent first. It misses no frequent item only
+	 * 					while itemErrorBound() is below the support.
+	 */
+	public synchronized List<Estimate> frequentItems(double supp) {
+		return query(false, supp);
+	}
+
+	/**
+	 * @param supp		The support, as a fraction of windowBaskets().
+	 * @return			Every monitored pair that may be frequent, most
+	 * 					frequent first. It misses no frequent pair only
+	 * 					while pairErrorBound() is below the support.
+	 */
+	public synchronized List<Estimate> frequentPairs(double supp) {
+		return query(true, supp);
+	}
+
+	private List<Estimate> query(boolean ofPairs, double supp) {
+		List<Estimate> out = new ArrayList<>();
+		double support = supp * windowBaskets();
+		double scale = scale();
+		merge(ofPairs).forEach((key, c) -> {
+			if (c[0] / scale >= support) {
+				int[] items = ofPairs ? new int[] { (int) (key >>> 32), (int) (long) key }
+									  : new int[] { (int) (long) key };
+				out.add(new Estimate(items, c[0] / scale, c[1] / scale));
+			}
+		});
+		out.sort((a, b) -> Double.compare(b.count, a.count));
+		return out;
+	}
+
+	// Under decay, counts are kept in units of the newest basket's weight, see basket()
+	private double scale() {
+		return decaying() ? weight / growth : 1;
+	}
+
+	private List<Pane> window() {
+		List<Pane> list = new ArrayList<>(panes);
+		list.add(current);
+		return list;
+	}
+
+	private double errorBound(boolean ofPairs) {
+		double bound = 0;
+		for (Pane pane : window())
+			bound += pane.summary(ofPairs).minCount();
+		return bound / scale();
+	}
+
+	/**
+	 * Merges the summaries of every pane in the window. A key missing from
+	 * a pane may still have occurred there up to that pane's smallest
+	 * count, which is added to both its count and its error.
+	 *
+	 * @return		For each key, its { count, error, sum of the smallest
+	 * 				counts of the panes monitoring it }.
+	 */
+	private Map<Long, double[]> merge(boolean ofPairs) {
+		Map<Long, double[]> merged = new HashMap<>();
+		double allMins = 0;
+		for (Pane pane : window()) {
+			SpaceSaving s = pane.summary(ofPairs);
+			double min = s.minCount();
+			allMins += min;
+			s.forEach((key, count, error) -> {
+				double[] c = merged.computeIfAbsent(key, k -> new double[3]);
+				c[0] += count;
+				c[1] += error;
+				c[2] += min;
+			});
+		}
+		for (double[] c : merged.values()) {
+			c[0] += allMins - c[2];
+			c[1] += allMins - c[2];
+		}
+		return merged;
+	}
+
+	/**
+	 * Streams retail.txt through a sliding window miner and prints the
+	 * frequent pairs of the window every so often, with the error bound
+	 * and the throughput.
+	 */
+	public static void main(String[] args) {
+		String fp = Paths.get(System.getProperty("user.dir"), "src", "retail.txt").toString();
+		// Optional arguments: window size, panes, pair counters per pane
+		int window = (args.length > 0) ? Integer.parseInt(args[0]) : 20000;
+		int panes = (args.length > 1) ? Integer.parseInt(args[1]) : 10;
+		int pairCapacity = (args.length > 2) ? Integer.parseInt(args[2]) : 20000;
+		StreamMiner miner = new StreamMiner(2000, pairCapacity, window, panes);
+		double supp = 0.01;
+
+		long startTime = System.currentTimeMillis();
+		try {
+			BasketReader.read(fp, Long.MAX_VALUE, (items, n) -> {
+				miner.basket(items, n);
+				if (miner.baskets() % window == 0) {
+					List<Estimate> pairs = miner.frequentPairs(supp);
+					int sure = 0;
+					for (Estimate e : pairs)
+						if (e.guaranteed(supp * miner.windowBaskets()))
+							sure++;
+					System.out.println("(After " + miner.baskets() + " baskets, window of " + (long) miner.windowBaskets() + ")");
+					System.out.println("  Frequent pairs: " + pairs.size() + " (" + sure + " guaranteed), error bound: "
+									   + String.format("%.1f", miner.pairErrorBound()));
+					if (!pairs.isEmpty())
+						System.out.println("  Top: " + pairs.get(0) + "\n");
+				}
+			});
+		} catch (IOException x) {
+		    System.err.println(x);
+		}
+		long runTime = Math.max(1, System.currentTimeMillis() - startTime);
+		System.out.println("Throughput: " + miner.baskets() * 1000 / runTime + " baskets/s");
+	}
+}
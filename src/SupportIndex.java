@@ -0,0 +1,220 @@
+import java.util.*;
+
+/**
+ * The support counts of a mining run, indexed for lookups by itemset, so
+ * the RuleGenerator can find the support of any subset of a frequent
+ * itemset without reading the dataset again. Everything is keyed by the
+ * dense ranks of an ItemIndex (ascending by raw item, so a sorted itemset
+ * has sorted ranks) and kept in primitive arrays:
+ *   - singletons in an int[] indexed by rank,
+ *   - pairs in a PairCounter, which can be the very counter an engine
+ *     filled in its second pass,
+ *   - itemsets of three or more items back to back in one int[], found
+ *     through an open-addressing hash table of their starts.
+ */
+public class SupportIndex {
+
+	private final ItemIndex itemIndex;
+	private final int[] itemCounts;
+	private final PairCounter pairs;
+	private final long baskets;
+
+	// Larger itemsets: at start s, flat[s] = k, then k sorted ranks; supports by itemset number
+	private int[] flat = new int[1024];
+	private int used = 0;
+	private int[] starts = new int[64];
+	private int[] supports = new int[64];
+	private int larger = 0;
+
+	// Hash table of itemset number + 1 (0 = empty slot)
+	private int[] table = new int[128];
+
+	/**
+	 * Wraps the counts an engine already has after its second pass.
+	 *
+	 * @param itemIndex		The frequent items, ranked in ascending order.
+	 * @param itemCounts	The count of each frequent item, indexed by rank.
+	 * @param pairs			The pair counts, indexed by ranks.
+	 * @param baskets		The number of baskets counted (for lift).
+	 */
+	public SupportIndex(ItemIndex itemIndex, int[] itemCounts, PairCounter pairs, long baskets) {
+		this.itemIndex = itemIndex;
+		this.itemCounts = itemCounts;
+		this.pairs = pairs;
+		this.baskets = baskets;
+	}
+
+	/**
+	 * Indexes the frequent itemsets of any engine.
+	 *
+	 * @param sets		The frequent itemsets, which should be closed under
+	 * 					subsets (as every exact engine's are).
+	 * @param baskets	The number of baskets they were counted over.
+	 * @return			The index.
+	 */
+	public static SupportIndex of(FrequentItemsets sets, long baskets) {
+		List<Integer> items = new ArrayList<>();
+		for (int i = 0; i < sets.size(); i++)
+			if (sets.items(i).length == 1)
+				items.add(sets.items(i)[0]);
+		ItemIndex itemIndex = new ItemIndex(items);
+
+		int[] itemCounts = new int[itemIndex.size()];
+		PairCounter pairs = PairCounter.create(itemIndex.size());
+		for (int i = 0; i < sets.size(); i++) {
+			int[] set = sets.items(i);
+			if (set.length == 1)
+				itemCounts[itemIndex.rank(set[0])] = sets.support(i);
+			else if (set.length == 2 && itemIndex.rank(set[0]) >= 0 && itemIndex.rank(set[1]) >= 0)
+				pairs.add(itemIndex.rank(set[0]), itemIndex.rank(set[1]), sets.support(i));
+		}
+
+		SupportIndex index = new SupportIndex(itemIndex, itemCounts, pairs, baskets);
+		index.addAll(sets);
+		return index;
+	}
+
+	/**
+	 * Adds the itemsets of three or more items. Smaller ones are already
+	 * in the item counts and the PairCounter. Itemsets with an item
+	 * outside the ItemIndex cannot be looked up and are skipped.
+	 *
+	 * @param sets		The frequent itemsets.
+	 */
+	public void addAll(FrequentItemsets sets) {
+		int[] ranks = new int[8];
+		for (int i = 0; i < sets.size(); i++) {
+			int[] set = sets.items(i);
+			if (set.length < 3)
+				continue;
+			if (ranks.length < set.length)
+				ranks = new int[set.length];
+			if (toRanks(set, ranks) && find(ranks, set.length) < 0)
+				add(ranks, set.length, sets.support(i));
+		}
+	}
+
+	/**
+	 * Converts sorted raw items to their ranks.
+	 *
+	 * @return		False if some item is not in the index.
+	 */
+	boolean toRanks(int[] items, int[] ranks) {
+		for (int d = 0; d < items.length; d++)
+			if ((ranks[d] = itemIndex.rank(items[d])) < 0)
+				return false;
+		return true;
+	}
+
+	private void add(int[] ranks, int k, int support) {
+		if (used + k + 1 > flat.length)
+			flat = Arrays.copyOf(flat, Math.max(flat.length * 2, used + k + 1));
+		if (larger == starts.length) {
+			starts = Arrays.copyOf(starts, larger * 2);
+			supports = Arrays.copyOf(supports, larger * 2);
+		}
+		starts[larger] = used;
+		supports[larger] = support;
+		flat[used++] = k;
+		System.arraycopy(ranks, 0, flat, used, k);
+		used += k;
+
+		// Keep the table at most half full
+		if (2 * (larger + 1) > table.length)
+			rehash(table.length * 2);
+		table[slot(ranks, k)] = ++larger;
+	}
+
+	private void rehash(int capacity) {
+		table = new int[capacity];
+		for (int s = 0; s < larger; s++)
+			table[slot(flat, starts[s] + 1, flat[starts[s]])] = s + 1;
+	}
+
+	// The slot of the itemset, or the empty slot where it belongs
+	private int slot(int[] ranks, int k) {
+		return slot(ranks, 0, k);
+	}
+
+	private int slot(int[] ranks, int from, int k) {
+		int mask = table.length - 1;
+		int slot = hash(ranks, from, k) & mask;
+		while (table[slot] != 0 && !equal(table[slot] - 1, ranks, from, k))
+			slot = (slot + 1) & mask;
+		return slot;
+	}
+
+	private static int hash(int[] ranks, int from, int k) {
+		int h = k;
+		for (int d = from; d < from + k; d++)
+			h = h * 0x9E3779B1 + ranks[d];
+		return h ^ (h >>> 16);
+	}
+
+	private boolean equal(int set, int[] ranks, int from, int k) {
+		int s = starts[set];
+		if (flat[s] != k)
+			return false;
+		for (int d = 0; d < k; d++)
+			if (flat[s + 1 + d] != ranks[from + d])
+				return false;
+		return true;
+	}
+
+	// The itemset number of sorted ranks, or -1
+	private int find(int[] ranks, int k) {
+		return table[slot(ranks, k)] - 1;
+	}
+
+	/**
+	 * Looks up the support of an itemset.
+	 *
+	 * @param ranks		The ranks of its items, sorted ascending.
+	 * @param k			How many of them to use.
+	 * @return			The support, or -1 if the itemset is not indexed.
+	 */
+	public int support(int[] ranks, int k) {
+		switch (k) {
+		case 0:
+			return (int) Math.min(Integer.MAX_VALUE, baskets);
+		case 1:
+			return itemCounts[ranks[0]];
+		case 2:
+			int c = pairs.count(ranks[0], ranks[1]);
+			return (c > 0) ? c : -1;
+		default:
+			int set = find(ranks, k);
+			return (set >= 0) ? supports[set] : -1;
+		}
+	}
+
+	/**
+	 * @param item	A raw item identifier.
+	 * @return		Its rank, or -1 if it is not frequent.
+	 */
+	public int rank(int item) {
+		return itemIndex.rank(item);
+	}
+
+	/**
+	 * @param rank	A rank in [0, items()).
+	 * @return		The raw item identifier.
+	 */
+	public int item(int rank) {
+		return itemIndex.item(rank);
+	}
+
+	/**
+	 * @return		The number of baskets the supports were counted over.
+	 */
+	public long baskets() {
+		return baskets;
+	}
+
+	/**
+	 * @return		The number of indexed itemsets of three or more items.
+	 */
+	public int largerItemsets() {
+		return larger;
+	}
+}
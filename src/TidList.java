@@ -0,0 +1,287 @@
+import java.util.*;
+
+/**
+ * A compressed set of basket numbers (transaction ids), used as the
+ * vertical representation of an itemset by Eclat. The layout follows
+ * Roaring bitmaps: ids are split by their high 16 bits into chunks, and
+ * each chunk is stored in whichever container is smaller:
+ *   - an array container, the sorted low 16 bits as a char[], when the
+ *     chunk holds at most 4096 ids (rare items, the common case), or
+ *   - a bitmap container, 1024 longs covering all 65536 ids of the chunk,
+ *     when it holds more (frequent items in dense data).
+ *
+ * Intersections work chunk by chunk. Two bitmaps are ANDed 64 ids at a
+ * time with long operations and Long.bitCount, an array is probed against
+ * a bitmap bit by bit, and two arrays are merged.
+ */
+public class TidList {
+
+	private static final int ARRAY_MAX = 4096;		// Above this, a bitmap container is smaller
+	private static final int BITMAP_WORDS = 1024;	// 65536 bits
+
+	private char[] keys = new char[4];			// high 16 bits of each chunk, ascending
+	private Object[] containers = new Object[4];	// char[] (array) or long[] (bitmap)
+	private int[] cards = new int[4];			// number of ids in each chunk
+	private int chunks = 0;
+	private int cardinality = 0;
+
+	/**
+	 * Adds a basket number. Numbers must be added in increasing order,
+	 * which is how a pass over the dataset produces them.
+	 *
+	 * @param tid	The basket number, >= 0.
+	 */
+	public void add(int tid) {
+		char key = (char) (tid >>> 16);
+		char low = (char) tid;
+		if (chunks == 0 || keys[chunks - 1] != key)
+			newChunk(key, new char[16]);
+
+		int c = chunks - 1;
+		Object container = containers[c];
+		if (container instanceof char[]) {
+			char[] array = (char[]) container;
+			if (cards[c] > 0 && array[cards[c] - 1] == low)
+				return;		// same basket listed an item twice
+			if (cards[c] == ARRAY_MAX) {
+				container = toBitmap(array, cards[c]);
+				containers[c] = container;
+			} else {
+				if (cards[c] == array.length)
+					containers[c] = array = Arrays.copyOf(array, Math.min(ARRAY_MAX, array.length * 2));
+				array[cards[c]++] = low;
+				cardinality++;
+				return;
+			}
+		}
+		long[] bitmap = (long[]) container;
+		long bit = 1L << low;
+		if ((bitmap[low >>> 6] & bit) == 0) {
+			bitmap[low >>> 6] |= bit;
+			cards[c]++;
+			cardinality++;
+		}
+	}
+
+	private void newChunk(char key, Object container) {
+		if (chunks == keys.length) {
+			keys = Arrays.copyOf(keys, chunks * 2);
+			containers = Arrays.copyOf(containers, chunks * 2);
+			cards = Arrays.copyOf(cards, chunks * 2);
+		}
+		keys[chunks] = key;
+		containers[chunks] = container;
+		cards[chunks] = 0;
+		chunks++;
+	}
+
+	private static long[] toBitmap(char[] array, int n) {
+		long[] bitmap = new long[BITMAP_WORDS];
+		for (int i = 0; i < n; i++)
+			bitmap[array[i] >>> 6] |= 1L << array[i];
+		return bitmap;
+	}
+
+	/**
+	 * @return		The number of baskets in the set, ie. the support.
+	 */
+	public int cardinality() {
+		return cardinality;
+	}
+
+	/**
+	 * @return		The approximate heap footprint of the containers in bytes.
+	 */
+	public long memoryBytes() {
+		long bytes = 6L * keys.length + 4L * containers.length;
+		for (int c = 0; c < chunks; c++)
+			bytes += (containers[c] instanceof char[]) ? 2L * ((char[]) containers[c]).length
+													   : 8L * BITMAP_WORDS;
+		return bytes;
+	}
+
+	/**
+	 * Sums the ids, a cheap hash of the set: two itemsets with the same
+	 * baskets have the same sum, which is how CHARM finds the closed
+	 * itemsets that might subsume a new one.
+	 *
+	 * @return		The sum of the basket numbers in the set.
+	 */
+	public long idSum() {
+		long sum = 0;
+		for (int c = 0; c < chunks; c++) {
+			long base = (long) keys[c] << 16;
+			if (containers[c] instanceof char[]) {
+				char[] array = (char[]) containers[c];
+				for (int i = 0; i < cards[c]; i++)
+					sum += base + array[i];
+			} else {
+				long[] bitmap = (long[]) containers[c];
+				for (int w = 0; w < BITMAP_WORDS; w++)
+					for (long bits = bitmap[w]; bits != 0; bits &= bits - 1)
+						sum += base + (w << 6) + Long.numberOfTrailingZeros(bits);
+			}
+		}
+		return sum;
+	}
+
+	/**
+	 * Intersects two sets. This is the support counting step of Eclat:
+	 * the baskets containing X and Y are those containing X intersected
+	 * with those containing Y.
+	 *
+	 * @param other		The other set.
+	 * @return			A new set holding the ids present in both.
+	 */
+	public TidList and(TidList other) {
+		TidList out = new TidList();
+		int i = 0, j = 0;
+		while (i < chunks && j < other.chunks) {
+			if (keys[i] < other.keys[j])
+				i++;
+			else if (keys[i] > other.keys[j])
+				j++;
+			else {
+				out.andChunk(keys[i], containers[i], cards[i], other.containers[j], other.cards[j]);
+				i++;
+				j++;
+			}
+		}
+		return out;
+	}
+
+	/**
+	 * Counts the intersection of two sets without building it, for the
+	 * deepest level of the search where the result is not reused.
+	 *
+	 * @param other		The other set.
+	 * @return			The number of ids present in both.
+	 */
+	public int andCardinality(TidList other) {
+		int n = 0;
+		int i = 0, j = 0;
+		while (i < chunks && j < other.chunks) {
+			if (keys[i] < other.keys[j])
+				i++;
+			else if (keys[i] > other.keys[j])
+				j++;
+			else {
+				Object a = containers[i], b = other.containers[j];
+				if (a instanceof long[] && b instanceof long[])
+					n += andCount((long[]) a, (long[]) b);
+				else if (a instanceof long[])
+					n += probeCount((char[]) b, other.cards[j], (long[]) a);
+				else if (b instanceof long[])
+					n += probeCount((char[]) a, cards[i], (long[]) b);
+				else
+					n += mergeCount((char[]) a, cards[i], (char[]) b, other.cards[j]);
+				i++;
+				j++;
+			}
+		}
+		return n;
+	}
+
+	private void andChunk(char key, Object a, int cardA, Object b, int cardB) {
+		if (a instanceof long[] && b instanceof long[]) {
+			long[] x = (long[]) a, y = (long[]) b;
+			int card = andCount(x, y);
+			if (card == 0)
+				return;
+			if (card > ARRAY_MAX) {
+				long[] bitmap = new long[BITMAP_WORDS];
+				for (int w = 0; w < BITMAP_WORDS; w++)
+					bitmap[w] = x[w] & y[w];
+				append(key, bitmap, card);
+			} else {
+				char[] array = new char[card];
+				int n = 0;
+				for (int w = 0; w < BITMAP_WORDS; w++) {
+					long word = x[w] & y[w];
+					while (word != 0) {
+						array[n++] = (char) ((w << 6) + Long.numberOfTrailingZeros(word));
+						word &= word - 1;
+					}
+				}
+				append(key, array, card);
+			}
+		} else if (a instanceof long[] || b instanceof long[]) {
+			char[] array = (char[]) ((a instanceof long[]) ? b : a);
+			int card = (a instanceof long[]) ? cardB : cardA;
+			long[] bitmap = (long[]) ((a instanceof long[]) ? a : b);
+			char[] result = new char[card];
+			int n = 0;
+			for (int k = 0; k < card; k++)
+				if ((bitmap[array[k] >>> 6] & (1L << array[k])) != 0)
+					result[n++] = array[k];
+			if (n > 0)
+				append(key, result, n);
+		} else {
+			char[] x = (char[]) a, y = (char[]) b;
+			char[] result = new char[Math.min(cardA, cardB)];
+			int n = 0, i = 0, j = 0;
+			while (i < cardA && j < cardB) {
+				if (x[i] < y[j])
+					i++;
+				else if (x[i] > y[j])
+					j++;
+				else {
+					result[n++] = x[i];
+					i++;
+					j++;
+				}
+			}
+			if (n > 0)
+				append(key, result, n);
+		}
+	}
+
+	private void append(char key, Object container, int card) {
+		newChunk(key, container);
+		cards[chunks - 1] = card;
+		cardinality += card;
+	}
+
+	private static int andCount(long[] x, long[] y) {
+		int n = 0;
+		for (int w = 0; w < BITMAP_WORDS; w++)
+			n += Long.bitCount(x[w] & y[w]);
+		return n;
+	}
+
+	private static int probeCount(char[] array, int card, long[] bitmap) {
+		int n = 0;
+		for (int k = 0; k < card; k++)
+			if ((bitmap[array[k] >>> 6] & (1L << array[k])) != 0)
+				n++;
+		return n;
+	}
+
+	private static int mergeCount(char[] x, int cardX, char[] y, int cardY) {
+		// When one side is much smaller, binary search its ids in the other
+		if (cardX * 32 < cardY || cardY * 32 < cardX) {
+			char[] small = (cardX < cardY) ? x : y, large = (cardX < cardY) ? y : x;
+			int smallCard = Math.min(cardX, cardY), largeCard = Math.max(cardX, cardY);
+			int n = 0, from = 0;
+			for (int k = 0; k < smallCard && from < largeCard; k++) {
+				int at = Arrays.binarySearch(large, from, largeCard, small[k]);
+				if (at >= 0) {
+					n++;
+					from = at + 1;
+				} else
+					from = -at - 1;
+			}
+			return n;
+		}
+
+		// Branch-free merge: the comparisons are unpredictable, so advance with arithmetic
+		int n = 0, i = 0, j = 0;
+		while (i < cardX && j < cardY) {
+			int a = x[i], b = y[j];
+			n += (a == b) ? 1 : 0;
+			i += (a <= b) ? 1 : 0;
+			j += (a >= b) ? 1 : 0;
+		}
+		return n;
+	}
+}
@@ -0,0 +1,382 @@
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Toivonen's sampling algorithm, for quick answers on large datasets.
+ * Where the other engines study a prefix of the dataset (the chuck), this
+ * one draws a uniform random sample of the baskets in the chuck:
+ *
+ *   1. One pass keeps a reservoir sample of a fixed number of baskets.
+ *   2. The sample is mined in memory with FP-Growth, at the support scaled
+ *      down to the sample and lowered further, giving the itemsets S that
+ *      are frequent in the sample.
+ *   3. The negative border of S is computed: the itemsets not in S whose
+ *      every immediate subset is in S.
+ *   4. One full pass counts S and its negative border. If no itemset of
+ *      the border is frequent, the itemsets of S that are frequent are
+ *      exactly all the frequent itemsets. Otherwise something larger may
+ *      have been missed, and the run reports that a re-sample is needed.
+ */
+public class Toivonen {
+
+	private int maxBaskets = 0;					// Before reading our data set, there are 0 baskets.
+	private int basketCounter = 0;				// Which basket in the file
+	private boolean firstExec = true;			// If first execution of algorithm, need to count baskets.
+	private int support = 0;
+	private int chuck = Integer.MAX_VALUE;		/* Since we don't know how many baskets there are initially,
+												    we set the chuck to an arbitrarily large number.
+
+												   Note: Here, a chuck is an integer value representing the
+												         fractional amount of the entire data size (maxBaskets)
+												         Eg. We want 10% of 8816 then chuck = 8816
+												 */
+
+	private final int sampleSize;				// Baskets kept in the reservoir
+	private final double lowering;				// Fraction of the scaled support used on the sample
+	private final Random random;
+
+	// The reservoir, and how many of its slots are filled
+	private int[][] sample;
+	private int sampled = 0;
+	private int sampleSupport = 0;
+
+	// Items of S, ranked by ascending id, and S itself level by level (sorted ranks, back to back)
+	private ItemIndex itemIndex;
+	private List<int[]> sampleLevels;
+
+	// The candidates of the full pass for sizes 2, 3, ...: S and its negative border
+	private List<CandidateTrie> tries;
+
+	private int borderSize = 0;
+	private int borderFailures = 0;
+
+	// All frequent itemsets of the last run
+	private FrequentItemsets freqItemsets;
+
+	public Toivonen() {
+		this(10000, 0.8, 42);
+	}
+
+	/**
+	 * @param sampleSize	The number of baskets in the sample.
+	 * @param lowering		The sample is mined at this fraction of the
+	 * 						support scaled to the sample; lower means fewer
+	 * 						border failures but a larger border to count.
+	 * @param seed			Seed of the sampling, so runs can be repeated.
+	 */
+	public Toivonen(int sampleSize, double lowering, long seed) {
+		this.sampleSize = sampleSize;
+		this.lowering = lowering;
+		this.random = new Random(seed);
+	}
+
+	/**
+	 * This method conducts the first pass over the dataset indicated by
+	 * the filepath parameter. It draws the sample with reservoir sampling:
+	 * the first sampleSize baskets fill the reservoir, and basket t after
+	 * that replaces a random slot with probability sampleSize / (t + 1),
+	 * so every basket is equally likely to end up in the sample. During
+	 * the first pass is when the number of baskets in the dataset is
+	 * determined.
+	 *
+	 * @param fp	The filepath of the dataset.
+	 * @throws IOException
+	 */
+	private void firstPass(String fp) throws IOException {
+		sample = new int[sampleSize][];
+		sampled = 0;
+		long[] seen = { 0 };
+
+		try {
+			basketCounter = (int) BasketReader.read(fp, basketLimit(), (items, n) -> {
+				long t = seen[0]++;
+				if (t < sampleSize)
+					sample[sampled++] = Arrays.copyOf(items, n);
+				else {
+					long slot = (long) (random.nextDouble() * (t + 1));
+					if (slot < sampleSize)
+						sample[(int) slot] = Arrays.copyOf(items, n);
+				}
+			});
+		} catch (IOException x) {
+		    System.err.println(x);
+		}
+
+		if (firstExec)
+			maxBaskets = basketCounter;
+	}
+
+	/**
+	 * Method intended to be used immediately after the first pass, where
+	 * the number of baskets was determined. Sets the support threshold,
+	 * as an integer, based on a percentage of the overall dataset size,
+	 * and the lowered support used on the sample.
+	 *
+	 * @param percentSupp	Percentage, as a decimal, of the support threshold.
+	 */
+	private void configSupp(double percentSupp) {
+		if (firstExec)
+			support = (int)(percentSupp * maxBaskets);		/* After the first pass of the first run,
+															   support is a fraction of the maximum dataset */
+		else
+			support = (int)(percentSupp * chuck);			/* In subsequent runs after the first, we're accessing
+															   only a fraction of the maximum dataset (ie. chuck value) */
+
+		sampleSupport = (int) Math.max(1, lowering * support * sampled / Math.max(1, basketCounter));
+		basketCounter = 0;		// set counter back to zero for second pass
+	}
+
+	/**
+	 * Mines the sample in memory with FP-Growth, then builds the candidates
+	 * of the full pass: level by level, the itemsets S_k frequent in the
+	 * sample, and the joins of S_k-1 whose subsets are all in S, which are
+	 * S_k plus the negative border of size k.
+	 */
+	private void mineSample() {
+		// Singletons of the sample, and its FP-tree
+		ParallelScan.ItemCounts counts = new ParallelScan.ItemCounts();
+		for (int b = 0; b < sampled; b++)
+			counts.basket(sample[b], sample[b].length);
+		Map<Integer, Integer> singletons = new HashMap<>();
+		counts.addTo(singletons);
+		List<Integer> freqItems = new ArrayList<>();
+		for (Map.Entry<Integer, Integer> entry : singletons.entrySet())
+			if (entry.getValue() >= sampleSupport)
+				freqItems.add(entry.getKey());
+		ItemIndex byFrequency = ItemIndex.byFrequency(freqItems, singletons);
+
+		FPGrowth.FPTree tree = new FPGrowth.FPTree(byFrequency.size(), 1 << 12);
+		int[] ranks = new int[64];
+		for (int b = 0; b < sampled; b++) {
+			if (ranks.length < sample[b].length)
+				ranks = new int[sample[b].length];
+			int m = 0;
+			for (int item : sample[b]) {
+				int r = byFrequency.rank(item);
+				if (r >= 0)
+					ranks[m++] = r;
+			}
+			m = LevelWise.sortDistinct(ranks, m);
+			if (m > 0)
+				tree.insert(ranks, m, 1);
+		}
+		sample = null;		// the sample is not needed any more
+
+		// S, grouped by size, over ranks in ascending id order so sorted ids are sorted ranks
+		itemIndex = new ItemIndex(freqItems);
+		List<int[]> flat = new ArrayList<>();
+		List<Integer> used = new ArrayList<>();
+		FPGrowth.mine(tree, byFrequency, sampleSupport, (set, count) -> {
+			int k = set.length;
+			while (flat.size() < k) {
+				flat.add(new int[16]);
+				used.add(0);
+			}
+			int[] a = flat.get(k - 1);
+			int u = used.get(k - 1);
+			if (u + k > a.length)
+				flat.set(k - 1, a = Arrays.copyOf(a, 2 * (u + k)));
+			for (int d = 0; d < k; d++)
+				a[u + d] = itemIndex.rank(set[d]);
+			Arrays.sort(a, u, u + k);
+			used.set(k - 1, u + k);
+		});
+		sampleLevels = new ArrayList<>();
+		for (int k = 1; k <= flat.size(); k++)
+			sampleLevels.add(CandidateTrie.sortDistinct(flat.get(k - 1), used.get(k - 1), k));
+
+		// Every join of S_k-1 that survives the subset check is in S_k or on the border
+		tries = new ArrayList<>();
+		borderSize = 0;
+		for (int k = 2; k - 1 <= sampleLevels.size(); k++) {
+			int[] candidates = LevelWise.generateCandidates(sampleLevels.get(k - 2), k - 1);
+			if (candidates.length == 0)
+				break;
+			tries.add(new CandidateTrie(candidates, k));
+			int inSample = (k <= sampleLevels.size()) ? sampleLevels.get(k - 1).length : 0;
+			borderSize += (candidates.length - inSample) / k;
+		}
+	}
+
+	/**
+	 * This method conducts the second (and last) pass over the dataset
+	 * indicated by the filepath parameter. Every item is counted, which
+	 * covers the singletons of S and of its negative border, and the
+	 * larger candidates are counted in their tries. Then each frequent
+	 * candidate is either recorded, if it is in S, or counted as a border
+	 * failure.
+	 *
+	 * @param fp	The filepath of the dataset.
+	 * @throws IOException
+	 */
+	private void secondPass(String fp) throws IOException {
+		ParallelScan.ItemCounts counts = new ParallelScan.ItemCounts();
+		int[][] ranks = { new int[64] };
+
+		try {
+			basketCounter = (int) BasketReader.read(fp, basketLimit(), (items, n) -> {
+				counts.basket(items, n);
+				if (ranks[0].length < n)
+					ranks[0] = new int[n];
+				int m = 0;
+				for (int i = 0; i < n; i++) {
+					int r = itemIndex.rank(items[i]);
+					if (r >= 0)
+						ranks[0][m++] = r;
+				}
+				m = LevelWise.sortDistinct(ranks[0], m);
+				for (CandidateTrie trie : tries)
+					trie.count(ranks[0], m);
+			});
+		} catch (IOException x) {
+		    System.err.println(x);
+		}
+
+		freqItemsets = new FrequentItemsets();
+		borderFailures = 0;
+
+		Map<Integer, Integer> singletons = new HashMap<>();
+		counts.addTo(singletons);
+		for (Map.Entry<Integer, Integer> entry : singletons.entrySet()) {
+			if (entry.getValue() < support)
+				continue;
+			if (itemIndex.rank(entry.getKey()) >= 0)
+				freqItemsets.add(new int[] { entry.getKey() }, entry.getValue());
+			else
+				borderFailures++;
+		}
+		borderSize += singletons.size() - itemIndex.size();
+
+		for (CandidateTrie trie : tries)
+			trie.forEach((set, count) -> {
+				if (count < support)
+					return;
+				int k = set.length;
+				if (k <= sampleLevels.size() && inSample(set)) {
+					int[] raw = new int[k];
+					for (int d = 0; d < k; d++)
+						raw[d] = itemIndex.item(set[d]);
+					freqItemsets.add(raw, count);
+				} else
+					borderFailures++;
+			});
+	}
+
+	// Binary search of a sorted k-itemset of ranks in S_k
+	private boolean inSample(int[] set) {
+		int k = set.length;
+		int[] level = sampleLevels.get(k - 1);
+		int lo = 0, hi = level.length / k - 1;
+		while (lo <= hi) {
+			int mid = (lo + hi) >>> 1, cmp = 0;
+			for (int d = 0; d < k && cmp == 0; d++)
+				cmp = Integer.compare(level[mid * k + d], set[d]);
+			if (cmp == 0)
+				return true;
+			if (cmp < 0)
+				lo = mid + 1;
+			else
+				hi = mid - 1;
+		}
+		return false;
+	}
+
+	/**
+	 * @return		True if the last run's result is exact, ie. no itemset
+	 * 				of the negative border turned out frequent.
+	 */
+	public boolean isExact() {
+		return borderFailures == 0;
+	}
+
+	/**
+	 * Helper method converts the chuck into the number of baskets a pass
+	 * reads: chuck + 1 baskets, as in APriori, or the whole file on the
+	 * first execution.
+	 *
+	 * @return		The number of baskets to read.
+	 */
+	private long basketLimit() {
+		return (chuck == Integer.MAX_VALUE) ? Long.MAX_VALUE : (long) chuck + 1;
+	}
+
+	/**
+	 * Method sets the chuck of the dataset to be considered, as an integer,
+	 * based on a percentage of the overall dataset size. This method is
+	 * intended to be used before the first pass of the next cycle of
+	 * algorithm execution.
+	 *
+	 * @param percentCh		Percentage, as a decimal, of the dataset to use.
+	 */
+	private void configNextRound(int percentCh) {
+		chuck = (int)((double)percentCh/100 * maxBaskets);	// chuck is percentage of our dataset, converted into an integer number of baskets
+		basketCounter = 0;									// reset counter to 0 for first pass of next cycle
+	}
+
+	/**
+	 * This method executes the same scalability study as APriori and PCY:
+	 * the user provides a support threshold, as a percentage, and the
+	 * method benchmarks the algorithm on dataset sizes of 1%, 5%, 10%,
+	 * 20%, ... , 100% of the dataset. Each round samples its chuck.
+	 *
+	 * @param supp		The support, as a decimal, for the study.
+	 */
+	public void runStudy(double supp) {
+		String fp = Paths.get(System.getProperty("user.dir"), "src", "retail.txt").toString();	/* This filepath relates to where Eclipse instantiates
+		   																	   the JVM (ie. the root project directory) */
+		int dsize = 100;
+
+		for (int i = 0; i < 12; i++) {
+
+			// Start from 100% dataset size down to 1% in 10% increments
+			if (i > 0 && i < 10) {
+				firstExec = false;	// after first execution (i=0), dataset size is known (maxBaskets)
+				configNextRound( (dsize -= 10) );
+			}
+			if (i == 10) {
+				configNextRound( (dsize -= 5) );
+			}
+			if (i == 11) {
+				configNextRound( (dsize -= 4) );
+			}
+
+			// Only interested in execution time of the algorithmic code.
+			long startTime = System.currentTimeMillis();
+			try {
+				firstPass(fp);
+				configSupp(supp);		// set support immediately after first pass
+				mineSample();
+				secondPass(fp);
+			} catch (Exception e) { System.out.println(e); }
+
+			long endTime = System.currentTimeMillis();
+			long runTime = endTime - startTime;
+			System.out.println("(" + dsize + "% of Data Size: " + maxBaskets + ")");
+			System.out.println("  Runtime: " + runTime + " ms");
+			System.out.println("  Baskets: " + chuck + ", Support: " + support);
+			System.out.println("  Sample: " + sampled + " baskets, Support: " + sampleSupport
+							   + ", Negative border: " + borderSize);
+			if (isExact())
+				System.out.println("  Frequent itemsets: " + freqItemsets.size() + " (exact)\n");
+			else
+				System.out.println("  Frequent itemsets: " + freqItemsets.size() + " (" + borderFailures
+								   + " border itemsets frequent: incomplete, re-sample needed)\n");
+
+			// Clear out the previous run's tables
+			sample = null;
+			itemIndex = null;
+			sampleLevels = null;
+			tries = null;
+			freqItemsets = null;
+		}
+	}
+
+	public static void main(String[] args) {
+		// Optional arguments: sample size, lowering factor
+		Toivonen tv = (args.length > 0) ? new Toivonen(Integer.parseInt(args[0]),
+													   (args.length > 1) ? Double.parseDouble(args[1]) : 0.8, 42)
+										: new Toivonen();
+		tv.runStudy(0.01);				// specify a support percent
+	}
+}
@@ -0,0 +1,91 @@
+import java.util.*;
+
+/**
+ * The Top-K mode of APriori and PCY: instead of a support percentage, the
+ * caller asks for the K itemsets with the highest supports. The best
+ * itemsets found so far are kept in a min-heap bounded at K, and once it
+ * is full the support threshold is one more than the support at its head,
+ * since an itemset with no more than that cannot get in, and by
+ * monotonicity neither can any of its supersets.
+ *
+ * The engines offer each level as soon as its counts are final, smallest
+ * itemsets first: the singletons after the first pass (before the items
+ * and the PCY buckets are pruned), the pairs after the second pass, then
+ * each larger level from LevelWise. Every level raises the threshold the
+ * next one is pruned with, so the candidates counted follow K rather than
+ * a guessed support. Ties at the K'th support go to the itemsets offered
+ * first, so the smaller ones.
+ */
+public class TopK {
+
+	/**
+	 * One itemset in the heap.
+	 */
+	private static class Entry {
+		final int[] items;
+		final int support;
+
+		Entry(int[] items, int support) {
+			this.items = items;
+			this.support = support;
+		}
+	}
+
+	private final int k;
+	private final PriorityQueue<Entry> heap;		// lowest support at the head
+
+	/**
+	 * @param k		How many itemsets to keep, at least 1.
+	 */
+	public TopK(int k) {
+		if (k < 1)
+			throw new IllegalArgumentException("k must be positive");
+		this.k = k;
+		this.heap = new PriorityQueue<>(Math.min(k, 1 << 16), (x, y) -> Integer.compare(x.support, y.support));
+	}
+
+	/**
+	 * Offers an itemset to the heap. It gets in if the heap is not full or
+	 * if its support is above the lowest one, which it then replaces.
+	 *
+	 * @param items		The items of the itemset; copied if it is kept, so
+	 * 					callers can reuse the array.
+	 * @param support	Its support count.
+	 * @return			True if the itemset was kept.
+	 */
+	public boolean offer(int[] items, int support) {
+		if (support < support())
+			return false;
+		if (heap.size() == k)
+			heap.poll();
+		heap.add(new Entry(items.clone(), support));
+		return true;
+	}
+
+	/**
+	 * @return		The support threshold: the smallest support an itemset
+	 * 				needs to get into the heap, 1 until it is full.
+	 */
+	public int support() {
+		return (heap.size() < k) ? 1 : heap.peek().support + 1;
+	}
+
+	/**
+	 * @return		The number of itemsets kept, at most K.
+	 */
+	public int size() {
+		return heap.size();
+	}
+
+	/**
+	 * @return		The itemsets kept, the highest support first.
+	 */
+	public FrequentItemsets result() {
+		Entry[] entries = heap.toArray(new Entry[0]);
+		Arrays.sort(entries, (x, y) -> Integer.compare(y.support, x.support));
+		FrequentItemsets sets = new FrequentItemsets();
+		for (Entry e : entries)
+			sets.add(e.items, e.support);
+		return sets;
+	}
+}